@@ -1,26 +1,76 @@
 package com.healthcare;
 
 import com.healthcare.controller.HealthcareController;
+import com.healthcare.referral.Communication;
+import com.healthcare.referral.EhrDropSink;
+import com.healthcare.referral.ReferralManager;
+import com.healthcare.referral.SmtpSink;
 import com.healthcare.view.MainView;
 import javax.swing.SwingUtilities;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 
 
 public class HealthcareApplication {
     public static void main(String[] args) {
+        configureReferralSinks();
         SwingUtilities.invokeLater(() -> {
             HealthcareController controller = new HealthcareController();
-            
+            MainView mainView = new MainView(controller);
+            mainView.setVisible(true);
+
+            // The window comes up straight away and fills in as the data arrives
             String dataDirectory = System.getProperty("user.dir") + File.separator + "data";
             File dataDir = new File(dataDirectory);
             if (dataDir.exists()) {
-                controller.loadData(dataDirectory);
+                mainView.loadData(dataDirectory);
             }
-            
-            MainView mainView = new MainView(controller);
-            mainView.setVisible(true);
         });
     }
+
+    /**
+     * Keep the referral audit logs in healthcare.auditDir (audit/ by default), take the
+     * referral text layouts from healthcare.templateDir if it is set, and send referral
+     * communications on to the systems named by system properties:
+     * healthcare.smtp=host:port for emails and healthcare.ehrDrop=directory for EHR updates
+     */
+    private static void configureReferralSinks() {
+        ReferralManager referralManager = ReferralManager.getInstance();
+        // Older audit entries are kept on disk, since only the most recent stay in memory
+        String auditDirectory = System.getProperty("healthcare.auditDir",
+                System.getProperty("user.dir") + File.separator + "audit");
+        try {
+            referralManager.setAuditDirectory(Path.of(auditDirectory));
+        } catch (IOException e) {
+            System.err.println("Error opening audit directory, keeping recent entries in memory only: "
+                    + e.getMessage());
+        }
+        String templateDirectory = System.getProperty("healthcare.templateDir");
+        if (templateDirectory != null) {
+            try {
+                referralManager.loadTemplates(Path.of(templateDirectory));
+            } catch (IOException e) {
+                System.err.println("Error loading referral templates, using the built-in ones: " + e.getMessage());
+            }
+        }
+        String smtp = System.getProperty("healthcare.smtp");
+        if (smtp != null) {
+            int colon = smtp.lastIndexOf(':');
+            String host = colon < 0 ? smtp : smtp.substring(0, colon);
+            int port = colon < 0 ? 25 : Integer.parseInt(smtp.substring(colon + 1));
+            referralManager.addSink("smtp", Communication.Type.EMAIL,
+                    new SmtpSink(host, port, "referrals@healthcare.local", "referrals.healthcare.local"));
+        }
+        String ehrDrop = System.getProperty("healthcare.ehrDrop");
+        if (ehrDrop != null) {
+            try {
+                referralManager.addSink("ehr-drop", Communication.Type.EHR, new EhrDropSink(Path.of(ehrDrop)));
+            } catch (IOException e) {
+                System.err.println("Error opening EHR drop directory: " + e.getMessage());
+            }
+        }
+    }
 }
 
 
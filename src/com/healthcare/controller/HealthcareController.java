@@ -1,9 +1,18 @@
 package com.healthcare.controller;
 
+import com.healthcare.data.DataChangeListener;
 import com.healthcare.data.DataManager;
+import com.healthcare.data.DataSnapshot;
+import com.healthcare.data.LoadProgress;
 import com.healthcare.model.*;
 import com.healthcare.referral.ReferralManager;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public class HealthcareController {
     private DataManager dataManager;
@@ -16,7 +25,35 @@ public class HealthcareController {
     }
 
     public void loadData(String dataDirectory) {
-        dataManager.loadAllData(dataDirectory);
+        Map<String, IOException> errors = dataManager.loadAllDataParallel(dataDirectory).join();
+        errors.forEach((file, e) -> System.err.println("Error loading " + file + ": " + e.getMessage()));
+    }
+
+    /**
+     * Start loading the data directory without waiting for it; the progress shows how far
+     * each file has got and can cancel the load. The future maps each file that failed
+     * to its error.
+     */
+    public CompletableFuture<Map<String, IOException>> loadDataAsync(String dataDirectory, LoadProgress progress) {
+        return dataManager.loadAllDataParallel(dataDirectory, progress);
+    }
+
+    /**
+     * The current state of every table, for reads that must agree with each other
+     */
+    public DataSnapshot getSnapshot() {
+        return dataManager.snapshot();
+    }
+
+    /**
+     * Be told about changes to the data; called off the Swing event thread
+     */
+    public void addChangeListener(DataChangeListener listener) {
+        dataManager.addChangeListener(listener);
+    }
+
+    public void removeChangeListener(DataChangeListener listener) {
+        dataManager.removeChangeListener(listener);
     }
 
     // Patient operations
@@ -28,6 +65,13 @@ public class HealthcareController {
         dataManager.addPatient(patient);
     }
 
+    /**
+     * @throws IllegalStateException if the patient was changed since the form was filled in
+     */
+    public boolean updatePatient(Patient patient) {
+        return dataManager.updatePatient(patient);
+    }
+
     public boolean deletePatient(String patientID) {
         return dataManager.deletePatient(patientID);
     }
@@ -36,6 +80,10 @@ public class HealthcareController {
         return dataManager.findPatient(patientID);
     }
 
+    public List<Patient> searchPatients(String prefix, int limit) {
+        return dataManager.searchPatients(prefix, limit);
+    }
+
     // Clinician operations
     public List<Clinician> getAllClinicians() {
         return dataManager.getClinicians();
@@ -45,6 +93,13 @@ public class HealthcareController {
         dataManager.addClinician(clinician);
     }
 
+    /**
+     * @throws IllegalStateException if the clinician was changed since the form was filled in
+     */
+    public boolean updateClinician(Clinician clinician) {
+        return dataManager.updateClinician(clinician);
+    }
+
     public boolean deleteClinician(String clinicianID) {
         return dataManager.deleteClinician(clinicianID);
     }
@@ -62,6 +117,13 @@ public class HealthcareController {
         dataManager.addFacility(facility);
     }
 
+    /**
+     * @throws IllegalStateException if the facility was changed since the form was filled in
+     */
+    public boolean updateFacility(Facility facility) {
+        return dataManager.updateFacility(facility);
+    }
+
     public boolean deleteFacility(String facilityID) {
         return dataManager.deleteFacility(facilityID);
     }
@@ -79,10 +141,21 @@ public class HealthcareController {
         dataManager.addAppointment(appointment);
     }
 
+    /**
+     * @throws IllegalStateException if the appointment was changed since the form was filled in
+     */
+    public boolean updateAppointment(Appointment appointment) {
+        return dataManager.updateAppointment(appointment);
+    }
+
     public boolean deleteAppointment(String appointmentID) {
         return dataManager.deleteAppointment(appointmentID);
     }
 
+    public Appointment findAppointment(String appointmentID) {
+        return dataManager.findAppointment(appointmentID);
+    }
+
     // Prescription operations
     public List<Prescription> getAllPrescriptions() {
         return dataManager.getPrescriptions();
@@ -92,24 +165,51 @@ public class HealthcareController {
         dataManager.addPrescription(prescription);
     }
 
+    /**
+     * @throws IllegalStateException if the prescription was changed since the form was filled in
+     */
+    public boolean updatePrescription(Prescription prescription) {
+        return dataManager.updatePrescription(prescription);
+    }
+
     public boolean deletePrescription(String prescriptionID) {
         return dataManager.deletePrescription(prescriptionID);
     }
 
+    public Prescription findPrescription(String prescriptionID) {
+        return dataManager.findPrescription(prescriptionID);
+    }
+
     // Referral operations
     public List<Referral> getAllReferrals() {
         return dataManager.getReferrals();
     }
 
+    /**
+     * Store the referral and queue it in one step, queued while its ID is still locked
+     * DataManager's locks are always taken before ReferralManager's, never the other way
+     * round, so this cannot deadlock with another thread using both.
+     */
     public void addReferral(Referral referral) {
-        dataManager.addReferral(referral);
-        referralManager.addToQueue(referral);
+        dataManager.addReferral(referral, referralManager::addToQueue);
+    }
+
+    /**
+     * Update the referral in place and queue it again for its update communications
+     * @throws IllegalStateException if the referral was changed since the form was filled in
+     */
+    public boolean updateReferral(Referral referral) {
+        return dataManager.updateReferral(referral, referralManager::addToQueue);
     }
 
     public boolean deleteReferral(String referralID) {
         return dataManager.deleteReferral(referralID);
     }
 
+    public Referral findReferral(String referralID) {
+        return dataManager.findReferral(referralID);
+    }
+
     public void generateReferralFile(Referral referral, String outputPath) {
         referralManager.generateReferralFile(referral, outputPath);
     }
@@ -123,10 +223,202 @@ public class HealthcareController {
         dataManager.addStaff(staff);
     }
 
+    /**
+     * @throws IllegalStateException if the staff member was changed since the form was filled in
+     */
+    public boolean updateStaff(Staff staff) {
+        return dataManager.updateStaff(staff);
+    }
+
     public boolean deleteStaff(String staffID) {
         return dataManager.deleteStaff(staffID);
     }
 
+    public Staff findStaff(String staffID) {
+        return dataManager.findStaff(staffID);
+    }
+
+    // Related-record queries
+    public List<Appointment> getAppointmentsForPatient(String patientID) {
+        return dataManager.getAppointmentsForPatient(patientID);
+    }
+
+    public List<Appointment> getAppointmentsForClinician(String clinicianID) {
+        return dataManager.getAppointmentsForClinician(clinicianID);
+    }
+
+    public List<Appointment> getAppointmentsAtFacility(String facilityID) {
+        return dataManager.getAppointmentsAtFacility(facilityID);
+    }
+
+    public List<Prescription> getPrescriptionsForPatient(String patientID) {
+        return dataManager.getPrescriptionsForPatient(patientID);
+    }
+
+    public List<Prescription> getPrescriptionsByClinician(String clinicianID) {
+        return dataManager.getPrescriptionsByClinician(clinicianID);
+    }
+
+    public List<Prescription> getPrescriptionsForAppointment(String appointmentID) {
+        return dataManager.getPrescriptionsForAppointment(appointmentID);
+    }
+
+    public List<Referral> getReferralsForPatient(String patientID) {
+        return dataManager.getReferralsForPatient(patientID);
+    }
+
+    public List<Referral> getReferralsFromClinician(String clinicianID) {
+        return dataManager.getReferralsFromClinician(clinicianID);
+    }
+
+    public List<Referral> getReferralsToClinician(String clinicianID) {
+        return dataManager.getReferralsToClinician(clinicianID);
+    }
+
+    public List<Referral> getReferralsFromFacility(String facilityID) {
+        return dataManager.getReferralsFromFacility(facilityID);
+    }
+
+    public List<Referral> getReferralsToFacility(String facilityID) {
+        return dataManager.getReferralsToFacility(facilityID);
+    }
+
+    // Schedule queries
+    public List<Appointment> getAppointmentsAtFacility(String facilityID, LocalDateTime from, LocalDateTime to) {
+        return dataManager.getAppointmentsAtFacility(facilityID, from, to);
+    }
+
+    public List<Appointment> getAppointmentsForClinician(String clinicianID, LocalDateTime from, LocalDateTime to) {
+        return dataManager.getAppointmentsForClinician(clinicianID, from, to);
+    }
+
+    public List<Appointment> getFacilitySchedule(String facilityID, LocalDate day) {
+        return dataManager.getFacilitySchedule(facilityID, day);
+    }
+
+    public List<Appointment> getClinicianSchedule(String clinicianID, LocalDate day) {
+        return dataManager.getClinicianSchedule(clinicianID, day);
+    }
+
+    public List<Appointment> getNextAppointmentsAtFacility(String facilityID, LocalDateTime from, int count) {
+        return dataManager.getNextAppointmentsAtFacility(facilityID, from, count);
+    }
+
+    public List<Appointment> getNextAppointmentsForClinician(String clinicianID, LocalDateTime from, int count) {
+        return dataManager.getNextAppointmentsForClinician(clinicianID, from, count);
+    }
+
+    // Text search
+    public List<String> searchPrescriptions(String query) {
+        return dataManager.searchPrescriptions(query);
+    }
+
+    public List<String> searchReferrals(String query) {
+        return dataManager.searchReferrals(query);
+    }
+
+    // Batch operations: one log write and one new table version per call
+    /**
+     * @throws IllegalArgumentException if an ID already exists or appears twice; nothing is added
+     */
+    public void addPatients(Collection<Patient> patients) {
+        dataManager.addPatients(patients);
+    }
+
+    public void addClinicians(Collection<Clinician> clinicians) {
+        dataManager.addClinicians(clinicians);
+    }
+
+    public void addFacilities(Collection<Facility> facilities) {
+        dataManager.addFacilities(facilities);
+    }
+
+    public void addAppointments(Collection<Appointment> appointments) {
+        dataManager.addAppointments(appointments);
+    }
+
+    public void addPrescriptions(Collection<Prescription> prescriptions) {
+        dataManager.addPrescriptions(prescriptions);
+    }
+
+    /**
+     * Store the referrals and queue each one, as addReferral does for a single referral
+     * @throws IllegalArgumentException if an ID already exists or appears twice; nothing is added
+     */
+    public void addReferrals(Collection<Referral> referrals) {
+        dataManager.addReferrals(referrals, referralManager::addToQueue);
+    }
+
+    public void addStaff(Collection<Staff> staffMembers) {
+        dataManager.addStaff(staffMembers);
+    }
+
+    /**
+     * Add new records and overwrite existing ones with the same ID, whatever their version
+     * @return the number of records that were new
+     */
+    public int upsertPatients(Collection<Patient> patients) {
+        return dataManager.upsertPatients(patients);
+    }
+
+    public int upsertClinicians(Collection<Clinician> clinicians) {
+        return dataManager.upsertClinicians(clinicians);
+    }
+
+    public int upsertFacilities(Collection<Facility> facilities) {
+        return dataManager.upsertFacilities(facilities);
+    }
+
+    public int upsertAppointments(Collection<Appointment> appointments) {
+        return dataManager.upsertAppointments(appointments);
+    }
+
+    public int upsertPrescriptions(Collection<Prescription> prescriptions) {
+        return dataManager.upsertPrescriptions(prescriptions);
+    }
+
+    /**
+     * Upsert the referrals and queue each one for its communications
+     */
+    public int upsertReferrals(Collection<Referral> referrals) {
+        return dataManager.upsertReferrals(referrals, referralManager::addToQueue);
+    }
+
+    public int upsertStaff(Collection<Staff> staffMembers) {
+        return dataManager.upsertStaff(staffMembers);
+    }
+
+    /**
+     * @return the number of records deleted; IDs with no record are ignored
+     */
+    public int deletePatients(Collection<String> patientIDs) {
+        return dataManager.deletePatients(patientIDs);
+    }
+
+    public int deleteClinicians(Collection<String> clinicianIDs) {
+        return dataManager.deleteClinicians(clinicianIDs);
+    }
+
+    public int deleteFacilities(Collection<String> facilityIDs) {
+        return dataManager.deleteFacilities(facilityIDs);
+    }
+
+    public int deleteAppointments(Collection<String> appointmentIDs) {
+        return dataManager.deleteAppointments(appointmentIDs);
+    }
+
+    public int deletePrescriptions(Collection<String> prescriptionIDs) {
+        return dataManager.deletePrescriptions(prescriptionIDs);
+    }
+
+    public int deleteReferrals(Collection<String> referralIDs) {
+        return dataManager.deleteReferrals(referralIDs);
+    }
+
+    public int deleteStaff(Collection<String> staffIDs) {
+        return dataManager.deleteStaff(staffIDs);
+    }
+
     // Get data manager for direct access if needed
     public DataManager getDataManager() {
         return dataManager;
@@ -0,0 +1,51 @@
+package com.healthcare.data;
+
+import java.util.Arrays;
+
+/**
+ * Growable array with one writer and any number of readers that never lock
+ * The writer stores an item before publishing the new size, and a reader reads the size
+ * before the array, so every position below the size it saw is filled in.
+ */
+final class AppendOnlyList<T> {
+    private volatile Object[] items;
+    private volatile int size;
+
+    AppendOnlyList() {
+        this(4);
+    }
+
+    AppendOnlyList(int capacity) {
+        items = new Object[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Only ever called by the single writer
+     */
+    void add(T item) {
+        Object[] array = items;
+        int count = size;
+        if (count == array.length) {
+            array = Arrays.copyOf(array, count * 2);
+            items = array;
+        }
+        array[count] = item;
+        size = count + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * The items added so far; the caller reads positions below size() taken beforehand
+     */
+    Object[] items() {
+        return items;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        return (T) items[index];
+    }
+}
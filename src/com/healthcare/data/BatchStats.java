@@ -0,0 +1,64 @@
+package com.healthcare.data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running totals for one kind of batch change: how many batches, how big and how long
+ * Time is split between waiting for the log and the rest (checks, locking and applying
+ * the batch in memory), which shows whether a slow merge is bound by the disk or not.
+ */
+public final class BatchStats {
+    private long batches;
+    private long rows;
+    private long largestBatch;
+    private long totalNanos;
+    private long logNanos;
+    private long longestNanos;
+
+    synchronized void record(int batchRows, long batchNanos, long batchLogNanos) {
+        batches++;
+        rows += batchRows;
+        largestBatch = Math.max(largestBatch, batchRows);
+        totalNanos += batchNanos;
+        logNanos += batchLogNanos;
+        longestNanos = Math.max(longestNanos, batchNanos);
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getRows() {
+        return rows;
+    }
+
+    public synchronized long getLargestBatch() {
+        return largestBatch;
+    }
+
+    public synchronized long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    /**
+     * The part of the total spent waiting for batches to reach the write-ahead log
+     */
+    public synchronized long getLogMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(logNanos);
+    }
+
+    public synchronized long getLongestMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(longestNanos);
+    }
+
+    public synchronized double getRowsPerSecond() {
+        return totalNanos == 0 ? 0 : rows * 1e9 / totalNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d batches, %d rows (largest %d), %d ms (%d ms logging, longest %d ms), %.0f rows/s",
+                batches, rows, largestBatch, getTotalMillis(), getLogMillis(), getLongestMillis(),
+                getRowsPerSecond());
+    }
+}
@@ -0,0 +1,167 @@
+package com.healthcare.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Collects the changes writers make and hands them to listeners in coalesced batches
+ * The first change after a delivery schedules the next one a short moment later, so a
+ * burst of writes reaches listeners as one batch with one event per changed ID. Nothing
+ * is collected while there are no listeners.
+ */
+final class ChangeBus {
+    private static final long DELIVERY_DELAY_MILLIS = 20;
+
+    /**
+     * What happened to one ID since the last delivery
+     */
+    private enum Pending { INSERT, UPDATE, DELETE, DELETE_INSERT }
+
+    private final Supplier<DataSnapshot> snapshots;
+    private final List<DataChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService delivery;
+    // Guarded by this
+    private Map<TableFormat<?>, Map<String, Pending>> pending = new LinkedHashMap<>();
+    private boolean reload;
+    private boolean scheduled;
+
+    ChangeBus(Supplier<DataSnapshot> snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    synchronized void addListener(DataChangeListener listener) {
+        if (delivery == null) {
+            delivery = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "data-changes");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        listeners.add(listener);
+    }
+
+    void removeListener(DataChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    void publish(TableFormat<?> table, DataChange.Type type, String id) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            record(table, type, id);
+            schedule();
+        }
+    }
+
+    void publishAll(TableFormat<?> table, DataChange.Type type, Collection<String> ids) {
+        if (listeners.isEmpty() || ids.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (String id : ids) {
+                record(table, type, id);
+            }
+            schedule();
+        }
+    }
+
+    /**
+     * Everything was replaced; row changes collected so far no longer matter
+     */
+    void publishReload() {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            pending.clear();
+            reload = true;
+            schedule();
+        }
+    }
+
+    private void record(TableFormat<?> table, DataChange.Type type, String id) {
+        Map<String, Pending> changes = pending.computeIfAbsent(table, format -> new LinkedHashMap<>());
+        Pending next = coalesce(changes.get(id), type);
+        if (next == null) {
+            changes.remove(id);
+        } else {
+            changes.put(id, next);
+        }
+    }
+
+    /**
+     * @return what the ID's changes amount to, or null if they cancel out
+     */
+    private static Pending coalesce(Pending before, DataChange.Type type) {
+        if (before == null) {
+            return Pending.valueOf(type.name());
+        }
+        switch (type) {
+            case INSERT:
+                return before == Pending.DELETE ? Pending.DELETE_INSERT : Pending.INSERT;
+            case UPDATE:
+                return before;
+            default:
+                return before == Pending.INSERT ? null : Pending.DELETE;
+        }
+    }
+
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            delivery.schedule(this::deliver, DELIVERY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void deliver() {
+        Map<TableFormat<?>, Map<String, Pending>> collected;
+        boolean reloaded;
+        synchronized (this) {
+            collected = pending;
+            reloaded = reload;
+            pending = new LinkedHashMap<>();
+            reload = false;
+            scheduled = false;
+        }
+        Map<TableFormat<?>, List<DataChange>> changes = new LinkedHashMap<>();
+        collected.forEach((table, ids) -> {
+            if (!ids.isEmpty()) {
+                changes.put(table, toChanges(table, ids));
+            }
+        });
+        if (changes.isEmpty() && !reloaded) {
+            return;
+        }
+        // Taken after the changes were collected, so it holds every one of them
+        DataChanges batch = new DataChanges(snapshots.get(), reloaded, changes);
+        for (DataChangeListener listener : listeners) {
+            try {
+                listener.dataChanged(batch);
+            } catch (RuntimeException e) {
+                System.err.println("Error in data change listener: " + e);
+            }
+        }
+    }
+
+    private static List<DataChange> toChanges(TableFormat<?> table, Map<String, Pending> ids) {
+        List<DataChange> changes = new ArrayList<>(ids.size());
+        ids.forEach((id, change) -> {
+            if (change == Pending.DELETE_INSERT) {
+                changes.add(new DataChange(table, DataChange.Type.DELETE, id));
+                changes.add(new DataChange(table, DataChange.Type.INSERT, id));
+            } else {
+                changes.add(new DataChange(table, DataChange.Type.valueOf(change.name()), id));
+            }
+        });
+        return List.copyOf(changes);
+    }
+}
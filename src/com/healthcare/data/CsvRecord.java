@@ -0,0 +1,10 @@
+package com.healthcare.data;
+
+/**
+ * One record of a table, read field by field
+ */
+public interface CsvRecord {
+    int fieldCount();
+
+    String field(int index);
+}
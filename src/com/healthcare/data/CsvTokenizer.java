@@ -0,0 +1,235 @@
+package com.healthcare.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Memory-mapped CSV tokenizer (RFC 4180)
+ * Field boundaries are found by scanning the mapped bytes directly; a field is only
+ * decoded into a String when {@link #field(int)} is called for it.
+ * Quoted fields may contain commas, newlines and escaped quotes ("").
+ */
+public class CsvTokenizer implements CsvRecord, Closeable {
+    // Files are mapped in windows so that tables larger than 2GB can still be read
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+    private static final byte NEWLINE = '\n';
+
+    private final FileChannel channel;
+    private final long end;
+    private long windowSize = WINDOW_SIZE;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+
+    private int[] fieldStarts = new int[32];
+    private int[] fieldEnds = new int[32];
+    private boolean[] fieldQuoted = new boolean[32];
+    private int fieldCount;
+    private byte[] scratch = new byte[256];
+
+    public CsvTokenizer(Path path) throws IOException {
+        this(path, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Tokenize only the bytes in [start, end)
+     * Both offsets must be record boundaries, such as those found by ParallelCsvParser.
+     */
+    public CsvTokenizer(Path path, long start, long end) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.end = Math.min(end, channel.size());
+        mapWindow(start);
+        if (start == 0) {
+            skipByteOrderMark();
+        }
+    }
+
+    /**
+     * Advance to the next non-blank record
+     * @return false once the end of the file has been reached
+     */
+    public boolean next() throws IOException {
+        while (scanRecord()) {
+            if (!isBlankRecord()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of fields in the current record
+     */
+    @Override
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * File offset at which the next record starts
+     */
+    long position() {
+        return windowStart + position;
+    }
+
+    /**
+     * Decode a field of the current record, trimmed and with quotes removed
+     */
+    @Override
+    public String field(int index) {
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+        if (!fieldQuoted[index]) {
+            while (start < end && (window.get(start) & 0xFF) <= ' ') {
+                start++;
+            }
+            while (end > start && (window.get(end - 1) & 0xFF) <= ' ') {
+                end--;
+            }
+            int length = end - start;
+            ensureScratch(length);
+            window.get(start, scratch, 0, length);
+            return new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        ensureScratch(end - start);
+        int length = 0;
+        boolean inQuotes = false;
+        for (int i = start; i < end; i++) {
+            byte b = window.get(i);
+            if (b == QUOTE) {
+                if (inQuotes && i + 1 < end && window.get(i + 1) == QUOTE) {
+                    scratch[length++] = QUOTE;
+                    i++;
+                } else {
+                    inQuotes = !inQuotes;
+                }
+            } else {
+                scratch[length++] = b;
+            }
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8).trim();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Record the field boundaries of the next record
+     * A record that runs off the end of the mapped window is rescanned from a new
+     * window starting at the record, so offsets always refer to the current window.
+     */
+    private boolean scanRecord() throws IOException {
+        while (true) {
+            int recordStart = position;
+            if (windowStart + recordStart >= end) {
+                return false;
+            }
+            int limit = window.limit();
+            boolean lastWindow = windowStart + limit >= end;
+
+            fieldCount = 0;
+            int fieldStart = recordStart;
+            boolean quoted = false;
+            boolean inQuotes = false;
+            int p = recordStart;
+            boolean complete = false;
+            while (p < limit) {
+                byte b = window.get(p);
+                if (inQuotes) {
+                    if (b == QUOTE) {
+                        if (p + 1 == limit && !lastWindow) {
+                            break; // cannot tell "" from a closing quote yet
+                        }
+                        if (p + 1 < limit && window.get(p + 1) == QUOTE) {
+                            p += 2;
+                            continue;
+                        }
+                        inQuotes = false;
+                    }
+                } else if (b == QUOTE) {
+                    inQuotes = true;
+                    quoted = true;
+                } else if (b == COMMA) {
+                    addField(fieldStart, p, quoted);
+                    fieldStart = p + 1;
+                    quoted = false;
+                } else if (b == NEWLINE) {
+                    addField(fieldStart, p, quoted);
+                    position = p + 1;
+                    complete = true;
+                    break;
+                }
+                p++;
+            }
+            if (complete) {
+                return true;
+            }
+            if (lastWindow) {
+                addField(fieldStart, limit, quoted);
+                position = limit;
+                return true;
+            }
+            if (recordStart == 0) {
+                windowSize *= 2; // a single record is larger than the window
+            }
+            mapWindow(windowStart + recordStart);
+        }
+    }
+
+    private void addField(int start, int end, boolean quoted) {
+        if (fieldCount == fieldStarts.length) {
+            int capacity = fieldCount * 2;
+            fieldStarts = Arrays.copyOf(fieldStarts, capacity);
+            fieldEnds = Arrays.copyOf(fieldEnds, capacity);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, capacity);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldQuoted[fieldCount] = quoted;
+        fieldCount++;
+    }
+
+    private boolean isBlankRecord() {
+        if (fieldCount != 1 || fieldQuoted[0]) {
+            return false;
+        }
+        for (int i = fieldStarts[0]; i < fieldEnds[0]; i++) {
+            if ((window.get(i) & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void mapWindow(long start) throws IOException {
+        long size = Math.min(windowSize, end - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowStart = start;
+        position = 0;
+    }
+
+    private void skipByteOrderMark() {
+        if (window.limit() >= 3 && window.get(0) == (byte) 0xEF
+                && window.get(1) == (byte) 0xBB && window.get(2) == (byte) 0xBF) {
+            position = 3;
+        }
+    }
+
+    private void ensureScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+    }
+}
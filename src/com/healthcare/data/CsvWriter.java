@@ -0,0 +1,106 @@
+package com.healthcare.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes a whole table back to its CSV file
+ * Rows are encoded straight into one direct buffer and written through a FileChannel
+ * to a temporary file, which is synced and then renamed over the original, so readers
+ * only ever see the old file or the complete new one.
+ */
+final class CsvWriter {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private CsvWriter() {
+    }
+
+    static <T> void writeTable(Path file, TableFormat<T> format, List<T> rows) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+            StringBuilder line = new StringBuilder(256);
+
+            line.append(format.getHeader()).append('\n');
+            encode(channel, buffer, encoder, line);
+            for (T row : rows) {
+                line.setLength(0);
+                String[] fields = format.format(row);
+                for (int i = 0; i < fields.length; i++) {
+                    if (i > 0) {
+                        line.append(',');
+                    }
+                    appendField(line, fields[i]);
+                }
+                line.append('\n');
+                encode(channel, buffer, encoder, line);
+            }
+            flush(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Quote a field if it holds a comma, quote or line break, doubling any quotes (RFC 4180)
+     */
+    private static void appendField(StringBuilder line, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    private static void encode(FileChannel channel, ByteBuffer buffer, CharsetEncoder encoder,
+                               CharSequence text) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                flush(channel, buffer);
+            } else if (result.isError()) {
+                result.throwException();
+            } else {
+                break;
+            }
+        }
+        encoder.reset();
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
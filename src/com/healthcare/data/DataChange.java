@@ -0,0 +1,36 @@
+package com.healthcare.data;
+
+/**
+ * One row of one table that was added, changed or removed
+ * Only the ID is carried: the row itself is read from the snapshot delivered with it.
+ */
+public final class DataChange {
+    public enum Type { INSERT, UPDATE, DELETE }
+
+    private final TableFormat<?> table;
+    private final Type type;
+    private final String id;
+
+    DataChange(TableFormat<?> table, Type type, String id) {
+        this.table = table;
+        this.type = type;
+        this.id = id;
+    }
+
+    public TableFormat<?> getTable() {
+        return table;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + table.getFileName() + " " + id;
+    }
+}
@@ -0,0 +1,10 @@
+package com.healthcare.data;
+
+/**
+ * Told about changes to the data shortly after they are made
+ * Called on DataManager's event thread, one delivery at a time; a Swing listener moves
+ * the work to the event dispatch thread itself.
+ */
+public interface DataChangeListener {
+    void dataChanged(DataChanges changes);
+}
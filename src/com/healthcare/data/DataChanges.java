@@ -0,0 +1,46 @@
+package com.healthcare.data;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes made since the last delivery to listeners, with a snapshot that includes them
+ * Changes to one ID are coalesced: an insert followed by updates arrives as one insert, an
+ * insert followed by a delete not at all. A delete followed by an insert arrives as both,
+ * in that order, because the new row goes to the end of the table. The snapshot may also
+ * hold later changes whose events are still to come.
+ */
+public final class DataChanges {
+    private final DataSnapshot snapshot;
+    private final boolean reload;
+    private final Map<TableFormat<?>, List<DataChange>> changes;
+
+    DataChanges(DataSnapshot snapshot, boolean reload, Map<TableFormat<?>, List<DataChange>> changes) {
+        this.snapshot = snapshot;
+        this.reload = reload;
+        this.changes = changes;
+    }
+
+    public DataSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Whether all data was replaced by a load, in which case there are no row changes
+     * and every table should be shown again from the snapshot
+     */
+    public boolean isReload() {
+        return reload;
+    }
+
+    public boolean touches(TableFormat<?> table) {
+        return reload || changes.containsKey(table);
+    }
+
+    /**
+     * The table's changes in the order they were made, one or two per ID
+     */
+    public List<DataChange> getChanges(TableFormat<?> table) {
+        return changes.getOrDefault(table, List.of());
+    }
+}
@@ -1,403 +1,1193 @@
 package com.healthcare.data;
 
 import com.healthcare.model.*;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 /**
  * Data Manager class to load and manage all healthcare data
- * Uses BufferedReader for CSV parsing
+ * Uses CsvTokenizer (memory-mapped) for CSV parsing
+ * Changes are logged as they are made and checkpointed back to the CSV files in the background
+ * Safe to share between threads: every read is answered from an immutable DataSnapshot,
+ * so readers never block. Each table has its own writer lock and, within it, the IDs are
+ * spread over striped locks, so writers only wait for others changing the same table
+ * for the moment it takes to apply a change in memory. The batch methods apply a whole
+ * collection to one table with a single log write and a single new version of the table,
+ * which is what large merges should use; BatchStats record their sizes and timings.
+ *
+ * Lock order, outermost first: the checkpoint lock, then ID stripe locks (by table in
+ * TableFormat.ALL order, then by stripe), then a table's own lock. Locks of other
+ * components, such as ReferralManager's, come after all of these: a follow-up action run
+ * under an ID's lock may take them, but nothing holding them may write to DataManager.
  */
 public class DataManager {
-    private List<Patient> patients;
-    private List<Clinician> clinicians;
-    private List<Facility> facilities;
-    private List<Appointment> appointments;
-    private List<Prescription> prescriptions;
-    private List<Referral> referrals;
-    private List<Staff> staff;
-
-    public DataManager() {
-        patients = new ArrayList<>();
-        clinicians = new ArrayList<>();
-        facilities = new ArrayList<>();
-        appointments = new ArrayList<>();
-        prescriptions = new ArrayList<>();
-        referrals = new ArrayList<>();
-        staff = new ArrayList<>();
-    }
+    private static final int TABLE_COUNT = 7;
+    private static final long CHECKPOINT_INTERVAL_SECONDS = 60;
+    // Row versions for the whole process, so an ID never gets the same version twice,
+    // even after a delete and re-add or a reload
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    // Replaced as a whole on reload; readers take one reference and use it throughout
+    private volatile Dataset data = new Dataset();
+    private WriteAheadLog log;
+    private Path logDirectory;
+    private ScheduledExecutorService checkpointer;
+    // Tables changed since the last checkpoint
+    private final Set<TableFormat<?>> dirtyTables = ConcurrentHashMap.newKeySet();
+    // Writers share the read side; a checkpoint or reload takes the write side to see a fixed state
+    private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    // Held by a load or checkpoint so that a checkpoint never rewrites files a load is reading
+    private final Semaphore maintenance = new Semaphore(1);
+    // Tables whose indexes are being compacted; each table has at most one compaction at a time
+    private final Set<TableFormat<?>> compacting = ConcurrentHashMap.newKeySet();
+    // Sizes and timings of the batch changes made so far
+    private final BatchStats batchAdds = new BatchStats();
+    private final BatchStats batchUpserts = new BatchStats();
+    private final BatchStats batchDeletes = new BatchStats();
+    private final ChangeBus changes = new ChangeBus(this::snapshot);
 
     /**
-     * Load all CSV files from the data directory
+     * Load all CSV files from the data directory, replacing whatever was loaded before
      */
     public void loadAllData(String dataDirectory) {
-        loadPatients(dataDirectory + "/patients.csv");
-        loadClinicians(dataDirectory + "/clinicians.csv");
-        loadFacilities(dataDirectory + "/facilities.csv");
-        loadAppointments(dataDirectory + "/appointments.csv");
-        loadPrescriptions(dataDirectory + "/prescriptions.csv");
-        loadReferrals(dataDirectory + "/referrals.csv");
-        loadStaff(dataDirectory + "/staff.csv");
+        maintenance.acquireUninterruptibly();
+        try {
+            Dataset next = new Dataset();
+            for (TableFormat<?> format : TableFormat.ALL) {
+                loadInto(next, format, dataDirectory + "/" + format.getFileName());
+            }
+            publish(next, dataDirectory);
+        } finally {
+            maintenance.release();
+        }
+    }
+
+    private <T> void loadInto(Dataset target, TableFormat<T> format, String filePath) {
+        try {
+            target.addLoaded(format, readTable(filePath, format));
+        } catch (IOException e) {
+            System.err.println("Error loading " + format.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load all CSV files at the same time, one task per file on a bounded pool.
+     * The returned future completes once every file has been read; its value maps
+     * each file that failed to the error it raised and is empty when all loaded.
+     * If the directory holds a snapshot of the CSVs as they are now it is read instead,
+     * and a fresh snapshot is written in the background after a load with no errors.
+     * The tables are built off to the side and replace the current ones in one step,
+     * so readers keep seeing the previous data until the load has finished.
+     */
+    public CompletableFuture<Map<String, IOException>> loadAllDataParallel(String dataDirectory) {
+        return loadAllDataParallel(dataDirectory, new LoadProgress());
     }
 
     /**
-     * Parse CSV line handling quoted fields
+     * Load as {@link #loadAllDataParallel(String)} does, reporting rows and bytes read per
+     * file to the given progress as the files are parsed. Cancelling the progress stops
+     * the parsers at their next check; the future then fails with a CancellationException
+     * and the data loaded before stays current.
      */
-    private String[] parseCSVLine(String line) {
-        List<String> fields = new ArrayList<>();
-        boolean inQuotes = false;
-        StringBuilder currentField = new StringBuilder();
-
-        for (int i = 0; i < line.length(); i++) {
-            char c = line.charAt(i);
-            if (c == '"') {
-                inQuotes = !inQuotes;
-            } else if (c == ',' && !inQuotes) {
-                fields.add(currentField.toString().trim());
-                currentField = new StringBuilder();
-            } else {
-                currentField.append(c);
+    public CompletableFuture<Map<String, IOException>> loadAllDataParallel(String dataDirectory,
+                                                                          LoadProgress progress) {
+        maintenance.acquireUninterruptibly();
+        try {
+            return loadInBackground(dataDirectory, progress).whenComplete((result, failure) -> maintenance.release());
+        } catch (RuntimeException e) {
+            maintenance.release();
+            throw e;
+        }
+    }
+
+    private CompletableFuture<Map<String, IOException>> loadInBackground(String dataDirectory,
+                                                                         LoadProgress progress) {
+        Dataset next = new Dataset();
+        SnapshotStore snapshot = new SnapshotStore(Path.of(dataDirectory));
+        try {
+            if (loadSnapshot(snapshot, next, progress)) {
+                progress.checkCancelled();
+                publish(next, dataDirectory);
+                return CompletableFuture.completedFuture(Map.of());
             }
+        } catch (CancellationException e) {
+            return CompletableFuture.failedFuture(e);
         }
-        fields.add(currentField.toString().trim());
-        return fields.toArray(new String[0]);
-    }
-
-    public void loadPatients(String filePath) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null && !line.trim().isEmpty()) {
-                String[] fields = parseCSVLine(line);
-                // Expected CSV (patients.csv):
-                // patient_id,first_name,last_name,date_of_birth,nhs_number,gender,phone_number,email,address,postcode,emergency_contact_name,emergency_contact_phone,registration_date,gp_surgery_id
-                if (fields.length >= 14) {
-                    Patient patient = new Patient(
-                            fields[0],  // patient_id
-                            fields[1],  // first_name
-                            fields[2],  // last_name
-                            fields[3],  // date_of_birth
-                            fields[5],  // gender
-                            fields[4],  // nhs_number
-                            fields[7],  // email
-                            fields[6],  // phone_number
-                            fields[8],  // address
-                            fields[9],  // postcode
-                            fields[10], // emergency_contact_name
-                            fields[11], // emergency_contact_phone
-                            fields[12], // registration_date
-                            fields[13]  // gp_surgery_id
-                    );
-                    patients.add(patient);
-                }
+
+        int threads = Math.min(TABLE_COUNT, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "csv-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, IOException> errors = new ConcurrentHashMap<>();
+        // Noted before any file is read, so a change made to one from here on leaves the snapshot stale
+        SnapshotStore.SourceFiles sources = sourceFiles(snapshot);
+        // Every file is listed before any is read, so the total size is known from the start
+        Map<TableFormat<?>, LoadProgress.FileProgress> files = new HashMap<>();
+        for (TableFormat<?> format : TableFormat.ALL) {
+            String fileName = format.getFileName();
+            files.put(format, progress.addFile(fileName, Path.of(dataDirectory, fileName).toFile().length()));
+        }
+
+        CompletableFuture<List<Patient>> patientRows =
+                readAsync(executor, errors, dataDirectory, TableFormat.PATIENTS, files.get(TableFormat.PATIENTS));
+        CompletableFuture<List<Clinician>> clinicianRows =
+                readAsync(executor, errors, dataDirectory, TableFormat.CLINICIANS, files.get(TableFormat.CLINICIANS));
+        CompletableFuture<List<Facility>> facilityRows =
+                readAsync(executor, errors, dataDirectory, TableFormat.FACILITIES, files.get(TableFormat.FACILITIES));
+        CompletableFuture<List<Appointment>> appointmentRows =
+                readAsync(executor, errors, dataDirectory, TableFormat.APPOINTMENTS, files.get(TableFormat.APPOINTMENTS));
+        CompletableFuture<List<Prescription>> prescriptionRows =
+                readAsync(executor, errors, dataDirectory, TableFormat.PRESCRIPTIONS, files.get(TableFormat.PRESCRIPTIONS));
+        CompletableFuture<List<Referral>> referralRows =
+                readAsync(executor, errors, dataDirectory, TableFormat.REFERRALS, files.get(TableFormat.REFERRALS));
+        CompletableFuture<List<Staff>> staffRows =
+                readAsync(executor, errors, dataDirectory, TableFormat.STAFF, files.get(TableFormat.STAFF));
+
+        // Results are added on the completing thread so each table is only ever written by one thread
+        return CompletableFuture.allOf(patientRows, clinicianRows, facilityRows, appointmentRows,
+                        prescriptionRows, referralRows, staffRows)
+                .thenApply(done -> {
+                    progress.checkCancelled();
+                    next.addLoaded(TableFormat.PATIENTS, patientRows.join());
+                    next.addLoaded(TableFormat.CLINICIANS, clinicianRows.join());
+                    next.addLoaded(TableFormat.FACILITIES, facilityRows.join());
+                    next.addLoaded(TableFormat.APPOINTMENTS, appointmentRows.join());
+                    next.addLoaded(TableFormat.PRESCRIPTIONS, prescriptionRows.join());
+                    next.addLoaded(TableFormat.REFERRALS, referralRows.join());
+                    next.addLoaded(TableFormat.STAFF, staffRows.join());
+                    if (errors.isEmpty() && sources != null) {
+                        SnapshotStore.Contents contents = new SnapshotStore.Contents(sources);
+                        contents.put(TableFormat.PATIENTS, patientRows.join());
+                        contents.put(TableFormat.CLINICIANS, clinicianRows.join());
+                        contents.put(TableFormat.FACILITIES, facilityRows.join());
+                        contents.put(TableFormat.APPOINTMENTS, appointmentRows.join());
+                        contents.put(TableFormat.PRESCRIPTIONS, prescriptionRows.join());
+                        contents.put(TableFormat.REFERRALS, referralRows.join());
+                        contents.put(TableFormat.STAFF, staffRows.join());
+                        executor.execute(() -> writeSnapshot(snapshot, contents));
+                    }
+                    publish(next, dataDirectory);
+                    return errors;
+                })
+                .whenComplete((result, failure) -> executor.shutdown());
+    }
+
+    /**
+     * Add every table from the snapshot if it is present and the CSVs are unchanged since
+     * it was taken; a corrupt snapshot is moved aside and the CSVs are read instead
+     * @return false if the CSV files need to be parsed instead
+     */
+    private boolean loadSnapshot(SnapshotStore snapshot, Dataset target, LoadProgress progress) {
+        try {
+            if (!snapshot.isFresh()) {
+                return false;
             }
+            LoadProgress.FileProgress file = progress.addFile(SnapshotStore.FILE_NAME, snapshot.size());
+            SnapshotStore.Contents contents = snapshot.read(file);
+            file.finish();
+            target.addLoaded(TableFormat.PATIENTS, contents.get(TableFormat.PATIENTS));
+            target.addLoaded(TableFormat.CLINICIANS, contents.get(TableFormat.CLINICIANS));
+            target.addLoaded(TableFormat.FACILITIES, contents.get(TableFormat.FACILITIES));
+            target.addLoaded(TableFormat.APPOINTMENTS, contents.get(TableFormat.APPOINTMENTS));
+            target.addLoaded(TableFormat.PRESCRIPTIONS, contents.get(TableFormat.PRESCRIPTIONS));
+            target.addLoaded(TableFormat.REFERRALS, contents.get(TableFormat.REFERRALS));
+            target.addLoaded(TableFormat.STAFF, contents.get(TableFormat.STAFF));
+            return true;
         } catch (IOException e) {
-            System.err.println("Error loading patients: " + e.getMessage());
-        }
-    }
-
-    public void loadClinicians(String filePath) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null && !line.trim().isEmpty()) {
-                String[] fields = parseCSVLine(line);
-                // Expected CSV (clinicians.csv):
-                // clinician_id,first_name,last_name,title,speciality,gmc_number,phone_number,email,workplace_id,workplace_type,employment_status,start_date
-                if (fields.length >= 12) {
-                    Clinician clinician = new Clinician(
-                            fields[0],  // clinician_id
-                            fields[1],  // first_name
-                            fields[2],  // last_name
-                            fields[3],  // title -> qualification
-                            fields[4],  // speciality -> specialty
-                            fields[5],  // gmc_number
-                            fields[8],  // workplace_id -> workplace
-                            fields[9],  // workplace_type
-                            fields[10], // employment_status
-                            fields[11], // start_date
-                            fields[7],  // email
-                            fields[6]   // phone_number
-                    );
-                    clinicians.add(clinician);
-                }
-            }
+            System.err.println("Ignoring snapshot, loading CSV files: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static SnapshotStore.SourceFiles sourceFiles(SnapshotStore snapshot) {
+        try {
+            return snapshot.sourceFiles();
         } catch (IOException e) {
-            System.err.println("Error loading clinicians: " + e.getMessage());
-        }
-    }
-
-    public void loadFacilities(String filePath) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null && !line.trim().isEmpty()) {
-                String[] fields = parseCSVLine(line);
-                // Expected CSV (facilities.csv):
-                // facility_id,facility_name,facility_type,address,postcode,phone_number,email,opening_hours,manager_name,capacity,specialities_offered
-                if (fields.length >= 11) {
-                    Facility facility = new Facility(
-                            fields[0],  // facility_id
-                            fields[1],  // facility_name
-                            fields[2],  // facility_type
-                            fields[3],  // address
-                            fields[4],  // postcode
-                            fields[5],  // phone_number
-                            fields[6],  // email
-                            fields[7],  // opening_hours
-                            fields[8],  // manager_name
-                            fields[10], // specialities_offered -> services
-                            fields[9]   // capacity
-                    );
-                    facilities.add(facility);
-                }
-            }
+            System.err.println("Not writing a snapshot, cannot check the CSV files: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeSnapshot(SnapshotStore snapshot, SnapshotStore.Contents contents) {
+        try {
+            snapshot.write(contents);
         } catch (IOException e) {
-            System.err.println("Error loading facilities: " + e.getMessage());
-        }
-    }
-
-    public void loadAppointments(String filePath) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null && !line.trim().isEmpty()) {
-                String[] fields = parseCSVLine(line);
-                // Expected CSV (appointments.csv):
-                // appointment_id,patient_id,clinician_id,facility_id,appointment_date,appointment_time,
-                // duration_minutes,appointment_type,status,reason_for_visit,notes,created_date,last_modified
-                if (fields.length >= 13) {
-                    Appointment appointment = new Appointment(
-                            fields[0],  // appointment_id
-                            fields[1],  // patient_id
-                            fields[2],  // clinician_id
-                            fields[3],  // facility_id
-                            fields[4],  // appointment_date
-                            fields[5],  // appointment_time
-                            fields[6],  // duration_minutes
-                            fields[7],  // appointment_type
-                            fields[8],  // status
-                            fields[9],  // reason_for_visit
-                            fields[10], // notes
-                            fields[11], // created_date
-                            fields[12]  // last_modified
-                    );
-                    appointments.add(appointment);
-                }
+            System.err.println("Error writing snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Make a freshly loaded dataset the current one
+     * Writers are held off while the old log is closed and the directory's log is
+     * replayed into the new dataset, so no change is lost or applied twice; readers
+     * are never blocked and see the old dataset until the reference is swapped.
+     */
+    private void publish(Dataset next, String dataDirectory) {
+        checkpointLock.writeLock().lock();
+        try {
+            dirtyTables.clear();
+            openLog(dataDirectory, next);
+            data = next;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+        changes.publishReload();
+    }
+
+    /**
+     * Replay the directory's write-ahead log on top of the loaded data, then keep
+     * it open so that every later add and delete is logged to it
+     */
+    private void openLog(String dataDirectory, Dataset target) {
+        try {
+            if (log != null) {
+                log.close();
+                log = null;
             }
         } catch (IOException e) {
-            System.err.println("Error loading appointments: " + e.getMessage());
-        }
-    }
-
-    public void loadPrescriptions(String filePath) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null && !line.trim().isEmpty()) {
-                String[] fields = parseCSVLine(line);
-                // Expected CSV (prescriptions.csv):
-                // prescription_id,patient_id,clinician_id,appointment_id,prescription_date,medication_name,
-                // dosage,frequency,duration_days,quantity,instructions,pharmacy_name,status,issue_date,collection_date
-                if (fields.length >= 15) {
-                    Prescription prescription = new Prescription(
-                            fields[0],   // prescription_id
-                            fields[1],   // patient_id
-                            fields[2],   // clinician_id
-                            fields[3],   // appointment_id
-                            fields[5],   // medication_name
-                            fields[6],   // dosage
-                            fields[7],   // frequency
-                            fields[8],   // duration_days
-                            fields[9],   // quantity
-                            fields[11],  // pharmacy_name
-                            fields[4],   // prescription_date
-                            fields[13],  // issue_date
-                            fields[14],  // collection_date
-                            fields[12],  // status -> collectionStatus
-                            fields[10]   // instructions -> notes
-                    );
-                    prescriptions.add(prescription);
+            System.err.println("Error closing write-ahead log: " + e.getMessage());
+        }
+        Path directory = Path.of(dataDirectory);
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try {
+            log = WriteAheadLog.open(directory, new WriteAheadLog.ReplayHandler() {
+                @Override
+                public void add(TableFormat<?> format, CsvRecord fields) {
+                    replayAdd(target, format, fields);
                 }
-            }
-        } catch (IOException e) {
-            System.err.println("Error loading prescriptions: " + e.getMessage());
-        }
-    }
-
-    public void loadReferrals(String filePath) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null && !line.trim().isEmpty()) {
-                String[] fields = parseCSVLine(line);
-                // Expected CSV (referrals.csv):
-                // referral_id,patient_id,referring_clinician_id,referred_to_clinician_id,
-                // referring_facility_id,referred_to_facility_id,referral_date,urgency_level,
-                // referral_reason,clinical_summary,requested_investigations,status,appointment_id,notes,created_date,last_updated
-                if (fields.length >= 16) {
-                    Referral referral = new Referral(
-                            fields[0],   // referral_id
-                            fields[1],   // patient_id
-                            fields[2],   // referring_clinician_id
-                            fields[3],   // referred_to_clinician_id
-                            fields[4],   // referring_facility_id
-                            fields[5],   // referred_to_facility_id
-                            fields[6],   // referral_date
-                            fields[7],   // urgency_level
-                            fields[8],   // referral_reason
-                            fields[9],   // clinical_summary
-                            fields[10],  // requested_investigations
-                            fields[12],  // appointment_id
-                            fields[13],  // notes
-                            fields[11],  // status
-                            fields[14],  // created_date
-                            fields[15]   // last_updated
-                    );
-                    referrals.add(referral);
+
+                @Override
+                public void update(TableFormat<?> format, CsvRecord fields) {
+                    replayUpdate(target, format, fields);
                 }
-            }
+
+                @Override
+                public void delete(TableFormat<?> format, String id) {
+                    if (target.remove(format, id) != null) {
+                        dirtyTables.add(format);
+                    }
+                }
+            });
+            logDirectory = directory;
+            startCheckpointer();
         } catch (IOException e) {
-            System.err.println("Error loading referrals: " + e.getMessage());
-        }
-    }
-
-    public void loadStaff(String filePath) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line = br.readLine(); // Skip header
-            while ((line = br.readLine()) != null && !line.trim().isEmpty()) {
-                String[] fields = parseCSVLine(line);
-                // Expected CSV (staff.csv):
-                // staff_id,first_name,last_name,role,department,facility_id,phone_number,email,employment_status,start_date,line_manager,access_level
-                if (fields.length >= 12) {
-                    Staff staffMember = new Staff(
-                            fields[0],  // staff_id
-                            fields[1],  // first_name
-                            fields[2],  // last_name
-                            fields[3],  // role
-                            fields[4],  // department
-                            fields[5],  // facility_id
-                            fields[7],  // email
-                            fields[6],  // phone_number
-                            fields[8],  // employment_status
-                            fields[9],  // start_date
-                            fields[10], // line_manager
-                            fields[11]  // access_level
-                    );
-                    staff.add(staffMember);
+            System.err.println("Error opening write-ahead log, changes will not be kept: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Re-add a logged row unless a checkpoint that was cut short already wrote it to the CSV
+     */
+    private <T> void replayAdd(Dataset target, TableFormat<T> format, CsvRecord fields) {
+        T row = format.parse(fields);
+        if (row == null) {
+            return;
+        }
+        if (target.snapshot().table(format).find(format.getId(row)) == null) {
+            target.add(format, row);
+            dirtyTables.add(format);
+        }
+    }
+
+    /**
+     * Re-apply a logged update, or add the row if it is missing
+     */
+    private <T> void replayUpdate(Dataset target, TableFormat<T> format, CsvRecord fields) {
+        T row = format.parse(fields);
+        if (row == null) {
+            return;
+        }
+        T previous = target.snapshot().table(format).find(format.getId(row));
+        if (previous == null) {
+            target.add(format, row);
+        } else {
+            format.setVersion(row, VERSIONS.incrementAndGet());
+            target.replace(format, row);
+        }
+        dirtyTables.add(format);
+    }
+
+    private void startCheckpointer() {
+        if (checkpointer != null) {
+            return;
+        }
+        checkpointer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointer.scheduleWithFixedDelay(this::scheduledCheckpoint, CHECKPOINT_INTERVAL_SECONDS,
+                CHECKPOINT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A checkpoint from the timer; anything it throws is logged, since an exception
+     * escaping a scheduled task would cancel every later run
+     */
+    private void scheduledCheckpoint() {
+        try {
+            checkpoint();
+        } catch (RuntimeException e) {
+            System.err.println("Error during checkpoint: " + e);
+        }
+    }
+
+    /**
+     * Write every table changed since the last checkpoint back to its CSV file
+     * A snapshot is taken and the log moved on to a new segment while writers are held
+     * off, so the files match one point in time; the files are then written from the
+     * snapshot without blocking anyone and the log segments they cover are deleted.
+     * @return false if the log could not move on or a file could not be written; the
+     *         changes not written stay in the log
+     */
+    public boolean checkpoint() {
+        maintenance.acquireUninterruptibly();
+        try {
+            return writeCheckpoint();
+        } finally {
+            maintenance.release();
+        }
+    }
+
+    private boolean writeCheckpoint() {
+        Map<TableFormat<?>, List<?>> changed = new HashMap<>();
+        WriteAheadLog currentLog;
+        Path directory;
+        long lastSegment;
+        checkpointLock.writeLock().lock();
+        try {
+            if (log == null || dirtyTables.isEmpty()) {
+                return true;
+            }
+            // The log moves on first, so a failed rotate leaves the tables marked as changed
+            try {
+                lastSegment = log.rotate();
+            } catch (CompletionException e) {
+                System.err.println("Error starting a new log segment, checkpoint skipped: " + e.getCause());
+                return false;
+            }
+            DataSnapshot current = snapshot();
+            for (TableFormat<?> format : dirtyTables) {
+                changed.put(format, current.table(format).rows());
+            }
+            dirtyTables.clear();
+            currentLog = log;
+            directory = logDirectory;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+
+        boolean written = true;
+        for (Map.Entry<TableFormat<?>, List<?>> entry : changed.entrySet()) {
+            try {
+                writeTable(directory, entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                System.err.println("Error writing " + entry.getKey().getFileName() + ": " + e.getMessage());
+                dirtyTables.add(entry.getKey());
+                written = false;
+            }
+        }
+        if (written) {
+            try {
+                currentLog.discardUpTo(lastSegment);
+            } catch (IOException e) {
+                System.err.println("Error removing old log segments: " + e.getMessage());
+            }
+        }
+        return written;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void writeTable(Path directory, TableFormat<T> format, List<?> rows) throws IOException {
+        CsvWriter.writeTable(directory.resolve(format.getFileName()), format, (List<T>) rows);
+    }
+
+    /**
+     * Reads one file on the given executor, recording an I/O failure against the file name
+     */
+    private <T> CompletableFuture<List<T>> readAsync(ExecutorService executor, Map<String, IOException> errors,
+                                                     String dataDirectory, TableFormat<T> format,
+                                                     LoadProgress.FileProgress progress) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                List<T> rows = readTable(dataDirectory + "/" + format.getFileName(), format, progress);
+                progress.finish();
+                return rows;
+            } catch (IOException e) {
+                errors.put(format.getFileName(), e);
+                progress.finish();
+                return Collections.emptyList();
+            }
+        }, executor);
+    }
+
+    private <T> List<T> readTable(String filePath, TableFormat<T> format) throws IOException {
+        return readTable(filePath, format, null);
+    }
+
+    /**
+     * Read every row of a CSV file, skipping the header and rows the mapper rejects
+     * Large files are split on record boundaries and parsed on all cores. Rows and bytes
+     * read are counted against the progress, if one is given.
+     */
+    private <T> List<T> readTable(String filePath, TableFormat<T> format, LoadProgress.FileProgress progress)
+            throws IOException {
+        Path path = Path.of(filePath);
+        if (Files.size(path) >= ParallelCsvParser.PARALLEL_THRESHOLD) {
+            return new ParallelCsvParser<>(path, format::parse, progress).parse();
+        }
+        List<T> rows = new ArrayList<>();
+        try (CsvTokenizer csv = new CsvTokenizer(path)) {
+            csv.next(); // Skip header
+            ParallelCsvParser.ProgressCounter counter = new ParallelCsvParser.ProgressCounter(progress, csv.position());
+            while (csv.next()) {
+                T row = format.parse(csv);
+                if (row != null) {
+                    rows.add(row);
                 }
+                counter.row(csv);
             }
-        } catch (IOException e) {
-            System.err.println("Error loading staff: " + e.getMessage());
+            counter.flush(csv);
         }
+        return rows;
+    }
+
+    /**
+     * The current state of every table; it never changes, whatever writers do after
+     */
+    public DataSnapshot snapshot() {
+        return data.snapshot();
     }
 
     // Getters
     public List<Patient> getPatients() {
-        return patients;
+        return snapshot().getPatients();
     }
 
     public List<Clinician> getClinicians() {
-        return clinicians;
+        return snapshot().getClinicians();
     }
 
     public List<Facility> getFacilities() {
-        return facilities;
+        return snapshot().getFacilities();
     }
 
     public List<Appointment> getAppointments() {
-        return appointments;
+        return snapshot().getAppointments();
     }
 
     public List<Prescription> getPrescriptions() {
-        return prescriptions;
+        return snapshot().getPrescriptions();
     }
 
     public List<Referral> getReferrals() {
-        return referrals;
+        return snapshot().getReferrals();
     }
 
     public List<Staff> getStaff() {
-        return staff;
+        return snapshot().getStaff();
     }
 
     // Add methods
     public void addPatient(Patient patient) {
-        patients.add(patient);
+        add(TableFormat.PATIENTS, patient);
     }
 
     public void addClinician(Clinician clinician) {
-        clinicians.add(clinician);
+        add(TableFormat.CLINICIANS, clinician);
     }
 
     public void addFacility(Facility facility) {
-        facilities.add(facility);
+        add(TableFormat.FACILITIES, facility);
     }
 
     public void addAppointment(Appointment appointment) {
-        appointments.add(appointment);
+        add(TableFormat.APPOINTMENTS, appointment);
     }
 
     public void addPrescription(Prescription prescription) {
-        prescriptions.add(prescription);
+        add(TableFormat.PRESCRIPTIONS, prescription);
     }
 
     public void addReferral(Referral referral) {
-        referrals.add(referral);
+        add(TableFormat.REFERRALS, referral);
+    }
+
+    /**
+     * Add a referral and, while its ID is still locked, hand it to the follow-up action
+     * No other writer can change or delete the referral until the action has finished.
+     */
+    public void addReferral(Referral referral, Consumer<Referral> then) {
+        add(TableFormat.REFERRALS, referral, then);
     }
 
     public void addStaff(Staff staffMember) {
-        staff.add(staffMember);
+        add(TableFormat.STAFF, staffMember);
+    }
+
+    // Update methods
+    public boolean updatePatient(Patient patient) {
+        return update(TableFormat.PATIENTS, patient, updated -> { });
+    }
+
+    public boolean updateClinician(Clinician clinician) {
+        return update(TableFormat.CLINICIANS, clinician, updated -> { });
+    }
+
+    public boolean updateFacility(Facility facility) {
+        return update(TableFormat.FACILITIES, facility, updated -> { });
+    }
+
+    public boolean updateAppointment(Appointment appointment) {
+        return update(TableFormat.APPOINTMENTS, appointment, updated -> { });
+    }
+
+    public boolean updatePrescription(Prescription prescription) {
+        return update(TableFormat.PRESCRIPTIONS, prescription, updated -> { });
+    }
+
+    public boolean updateReferral(Referral referral) {
+        return update(TableFormat.REFERRALS, referral, updated -> { });
+    }
+
+    /**
+     * Update a referral and, while its ID is still locked, hand it to the follow-up action
+     */
+    public boolean updateReferral(Referral referral, Consumer<Referral> then) {
+        return update(TableFormat.REFERRALS, referral, then);
+    }
+
+    public boolean updateStaff(Staff staffMember) {
+        return update(TableFormat.STAFF, staffMember, updated -> { });
     }
 
     // Delete methods
     public boolean deletePatient(String patientID) {
-        return patients.removeIf(p -> p.getPatientID().equals(patientID));
+        return delete(TableFormat.PATIENTS, patientID);
     }
 
     public boolean deleteClinician(String clinicianID) {
-        return clinicians.removeIf(c -> c.getClinicianID().equals(clinicianID));
+        return delete(TableFormat.CLINICIANS, clinicianID);
     }
 
     public boolean deleteFacility(String facilityID) {
-        return facilities.removeIf(f -> f.getFacilityID().equals(facilityID));
+        return delete(TableFormat.FACILITIES, facilityID);
     }
 
     public boolean deleteAppointment(String appointmentID) {
-        return appointments.removeIf(a -> a.getAppointmentID().equals(appointmentID));
+        return delete(TableFormat.APPOINTMENTS, appointmentID);
     }
 
     public boolean deletePrescription(String prescriptionID) {
-        return prescriptions.removeIf(p -> p.getPrescriptionID().equals(prescriptionID));
+        return delete(TableFormat.PRESCRIPTIONS, prescriptionID);
     }
 
     public boolean deleteReferral(String referralID) {
-        return referrals.removeIf(r -> r.getReferralID().equals(referralID));
+        return delete(TableFormat.REFERRALS, referralID);
     }
 
     public boolean deleteStaff(String staffID) {
-        return staff.removeIf(s -> s.getStaffID().equals(staffID));
+        return delete(TableFormat.STAFF, staffID);
+    }
+
+    // Batch methods
+    public void addPatients(Collection<Patient> patients) {
+        addAll(TableFormat.PATIENTS, patients, added -> { });
+    }
+
+    public void addClinicians(Collection<Clinician> clinicians) {
+        addAll(TableFormat.CLINICIANS, clinicians, added -> { });
+    }
+
+    public void addFacilities(Collection<Facility> facilities) {
+        addAll(TableFormat.FACILITIES, facilities, added -> { });
+    }
+
+    public void addAppointments(Collection<Appointment> appointments) {
+        addAll(TableFormat.APPOINTMENTS, appointments, added -> { });
+    }
+
+    public void addPrescriptions(Collection<Prescription> prescriptions) {
+        addAll(TableFormat.PRESCRIPTIONS, prescriptions, added -> { });
+    }
+
+    /**
+     * Add referrals and, while their IDs are still locked, hand each to the follow-up action
+     */
+    public void addReferrals(Collection<Referral> referrals, Consumer<Referral> then) {
+        addAll(TableFormat.REFERRALS, referrals, then);
+    }
+
+    public void addStaff(Collection<Staff> staffMembers) {
+        addAll(TableFormat.STAFF, staffMembers, added -> { });
+    }
+
+    public int upsertPatients(Collection<Patient> patients) {
+        return upsertAll(TableFormat.PATIENTS, patients, changed -> { });
+    }
+
+    public int upsertClinicians(Collection<Clinician> clinicians) {
+        return upsertAll(TableFormat.CLINICIANS, clinicians, changed -> { });
+    }
+
+    public int upsertFacilities(Collection<Facility> facilities) {
+        return upsertAll(TableFormat.FACILITIES, facilities, changed -> { });
+    }
+
+    public int upsertAppointments(Collection<Appointment> appointments) {
+        return upsertAll(TableFormat.APPOINTMENTS, appointments, changed -> { });
+    }
+
+    public int upsertPrescriptions(Collection<Prescription> prescriptions) {
+        return upsertAll(TableFormat.PRESCRIPTIONS, prescriptions, changed -> { });
+    }
+
+    /**
+     * Upsert referrals and, while their IDs are still locked, hand each to the follow-up action
+     */
+    public int upsertReferrals(Collection<Referral> referrals, Consumer<Referral> then) {
+        return upsertAll(TableFormat.REFERRALS, referrals, then);
+    }
+
+    public int upsertStaff(Collection<Staff> staffMembers) {
+        return upsertAll(TableFormat.STAFF, staffMembers, changed -> { });
+    }
+
+    public int deletePatients(Collection<String> patientIDs) {
+        return deleteAll(TableFormat.PATIENTS, patientIDs);
+    }
+
+    public int deleteClinicians(Collection<String> clinicianIDs) {
+        return deleteAll(TableFormat.CLINICIANS, clinicianIDs);
+    }
+
+    public int deleteFacilities(Collection<String> facilityIDs) {
+        return deleteAll(TableFormat.FACILITIES, facilityIDs);
+    }
+
+    public int deleteAppointments(Collection<String> appointmentIDs) {
+        return deleteAll(TableFormat.APPOINTMENTS, appointmentIDs);
+    }
+
+    public int deletePrescriptions(Collection<String> prescriptionIDs) {
+        return deleteAll(TableFormat.PRESCRIPTIONS, prescriptionIDs);
+    }
+
+    public int deleteReferrals(Collection<String> referralIDs) {
+        return deleteAll(TableFormat.REFERRALS, referralIDs);
+    }
+
+    public int deleteStaff(Collection<String> staffIDs) {
+        return deleteAll(TableFormat.STAFF, staffIDs);
+    }
+
+    /**
+     * Be told about every add, update and delete shortly after it is made, in coalesced
+     * batches, and about loads that replace all data
+     */
+    public void addChangeListener(DataChangeListener listener) {
+        changes.addListener(listener);
+    }
+
+    public void removeChangeListener(DataChangeListener listener) {
+        changes.removeListener(listener);
+    }
+
+    public BatchStats getBatchAddStats() {
+        return batchAdds;
+    }
+
+    public BatchStats getBatchUpsertStats() {
+        return batchUpserts;
+    }
+
+    public BatchStats getBatchDeleteStats() {
+        return batchDeletes;
+    }
+
+    private <T> void add(TableFormat<T> format, T row) {
+        add(format, row, added -> { });
+    }
+
+    /**
+     * Log the row, if a log is open, and then add it
+     * The ID's stripe lock is held throughout, so a duplicate is rejected before anything
+     * is logged, while writers to other IDs log at the same time and share an fsync.
+     * @throws IllegalArgumentException if a row with the same ID already exists
+     */
+    private <T> void add(TableFormat<T> format, T row, Consumer<T> then) {
+        String id = format.getId(row);
+        checkpointLock.readLock().lock();
+        try {
+            Dataset current = data;
+            ReentrantLock idLock = current.table(format).lockFor(id);
+            idLock.lock();
+            try {
+                if (current.snapshot().table(format).contains(id)) {
+                    throw new IllegalArgumentException("ID " + id + " already exists");
+                }
+                if (log != null) {
+                    log.logAdd(format, row);
+                }
+                format.setVersion(row, VERSIONS.incrementAndGet());
+                current.add(format, row);
+                dirtyTables.add(format);
+                changes.publish(format, DataChange.Type.INSERT, id);
+                then.accept(row);
+            } finally {
+                idLock.unlock();
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replace the stored row with the same ID in place, if it is still at the row's version
+     * The caller passes a new object carrying the version of the row it started from
+     * (as read with getVersion), so an edit based on a row someone else has since changed
+     * is refused instead of overwriting their change. On success the object becomes the
+     * stored row, at a new version.
+     * @return false if there is no row with the ID
+     * @throws IllegalStateException if the stored row is at a different version
+     * @throws IllegalArgumentException if the object is the stored row itself; stored rows
+     *         are shared with readers and must not be changed
+     */
+    private <T> boolean update(TableFormat<T> format, T row, Consumer<T> then) {
+        String id = format.getId(row);
+        checkpointLock.readLock().lock();
+        try {
+            Dataset current = data;
+            ReentrantLock idLock = current.table(format).lockFor(id);
+            idLock.lock();
+            try {
+                T stored = current.snapshot().table(format).find(id);
+                if (stored == null) {
+                    return false;
+                }
+                if (stored == row) {
+                    throw new IllegalArgumentException("Update " + id + " with a new object, not the stored one");
+                }
+                long version = format.getVersion(stored);
+                if (format.getVersion(row) != version) {
+                    throw new IllegalStateException("Record " + id + " was changed by someone else (now version "
+                            + version + ", edit based on version " + format.getVersion(row) + ")");
+                }
+                format.setVersion(row, VERSIONS.incrementAndGet());
+                try {
+                    if (log != null) {
+                        log.logUpdate(format, row);
+                    }
+                } catch (RuntimeException e) {
+                    format.setVersion(row, version);
+                    throw e;
+                }
+                current.replace(format, row);
+                dirtyTables.add(format);
+                changes.publish(format, DataChange.Type.UPDATE, id);
+                compactIfNeeded(current, format);
+                then.accept(row);
+                return true;
+            } finally {
+                idLock.unlock();
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    private boolean delete(TableFormat<?> format, String id) {
+        checkpointLock.readLock().lock();
+        try {
+            Dataset current = data;
+            ReentrantLock idLock = current.table(format).lockFor(id);
+            idLock.lock();
+            try {
+                if (!current.snapshot().table(format).contains(id)) {
+                    return false;
+                }
+                if (log != null) {
+                    log.logDelete(format, id);
+                }
+                boolean removed = current.remove(format, id) != null;
+                if (removed) {
+                    dirtyTables.add(format);
+                    changes.publish(format, DataChange.Type.DELETE, id);
+                    compactIfNeeded(current, format);
+                }
+                return removed;
+            } finally {
+                idLock.unlock();
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add a batch of new rows with one log write and one new version of the table
+     * The stripe locks of every ID in the batch are held throughout and all IDs are checked
+     * before anything is logged, so the batch is refused as a whole or added as a whole;
+     * one that cannot be logged adds nothing. The same holds on the next start: the log
+     * replays a batch only once its commit record is on disk, so a batch cut short by a
+     * crash or a failed write is not replayed at all. The one exception is a write that
+     * fails when the log cannot cut it back off either; the log then stops, and that batch
+     * may still be replayed although it was refused.
+     * @throws IllegalArgumentException if an ID already exists or appears twice in the batch
+     */
+    private <T> void addAll(TableFormat<T> format, Collection<T> rows, Consumer<T> then) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<T> batch = new ArrayList<>(rows);
+        List<String> ids = new ArrayList<>(batch.size());
+        for (T row : batch) {
+            ids.add(format.getId(row));
+        }
+        checkpointLock.readLock().lock();
+        try {
+            Dataset current = data;
+            List<ReentrantLock> idLocks = current.table(format).locksFor(ids);
+            lockAll(idLocks);
+            try {
+                TableVersion<T> table = current.snapshot().table(format);
+                Set<String> seen = new HashSet<>();
+                for (String id : ids) {
+                    if (!seen.add(id)) {
+                        throw new IllegalArgumentException("ID " + id + " appears more than once in the batch");
+                    }
+                    if (table.contains(id)) {
+                        throw new IllegalArgumentException("ID " + id + " already exists");
+                    }
+                }
+                long logStart = System.nanoTime();
+                if (log != null) {
+                    log.logAddAll(format, batch);
+                }
+                long logNanos = System.nanoTime() - logStart;
+                for (T row : batch) {
+                    format.setVersion(row, VERSIONS.incrementAndGet());
+                }
+                current.putAll(format, batch);
+                dirtyTables.add(format);
+                changes.publishAll(format, DataChange.Type.INSERT, ids);
+                batch.forEach(then);
+                batchAdds.record(batch.size(), System.nanoTime() - start, logNanos);
+            } finally {
+                unlockAll(idLocks);
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add each row, or replace the row with its ID in place, with one log write and one
+     * new version of the table
+     * Meant for merging in data from another system, which is taken as the authority:
+     * unlike update, a row is not checked against the version it was read at. Every row
+     * stored gets a new version. If an ID appears more than once in the batch the last row
+     * for it wins. Applied as a whole or not at all, now and on replay, as addAll is.
+     * @return the number of rows added rather than replacing one
+     * @throws IllegalArgumentException if a row is the stored row itself
+     */
+    private <T> int upsertAll(TableFormat<T> format, Collection<T> rows, Consumer<T> then) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        Map<String, T> byId = new LinkedHashMap<>();
+        for (T row : rows) {
+            byId.put(format.getId(row), row);
+        }
+        List<T> batch = new ArrayList<>(byId.values());
+        checkpointLock.readLock().lock();
+        try {
+            Dataset current = data;
+            List<ReentrantLock> idLocks = current.table(format).locksFor(byId.keySet());
+            lockAll(idLocks);
+            try {
+                TableVersion<T> table = current.snapshot().table(format);
+                List<String> inserted = new ArrayList<>();
+                List<String> updated = new ArrayList<>();
+                for (T row : batch) {
+                    String id = format.getId(row);
+                    T stored = table.find(id);
+                    if (stored == row) {
+                        throw new IllegalArgumentException("Upsert " + id + " with a new object, not the stored one");
+                    }
+                    (stored == null ? inserted : updated).add(id);
+                }
+                long logStart = System.nanoTime();
+                if (log != null) {
+                    log.logUpdateAll(format, batch);
+                }
+                long logNanos = System.nanoTime() - logStart;
+                for (T row : batch) {
+                    format.setVersion(row, VERSIONS.incrementAndGet());
+                }
+                int added = current.putAll(format, batch);
+                dirtyTables.add(format);
+                changes.publishAll(format, DataChange.Type.UPDATE, updated);
+                changes.publishAll(format, DataChange.Type.INSERT, inserted);
+                compactIfNeeded(current, format);
+                batch.forEach(then);
+                batchUpserts.record(batch.size(), System.nanoTime() - start, logNanos);
+                return added;
+            } finally {
+                unlockAll(idLocks);
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Delete the rows with the given IDs with one log write and one new version of the table
+     * Applied as a whole or not at all, now and on replay, as addAll is.
+     * @return the number of rows deleted; IDs with no row are ignored
+     */
+    private <T> int deleteAll(TableFormat<T> format, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        Set<String> unique = new LinkedHashSet<>(ids);
+        checkpointLock.readLock().lock();
+        try {
+            Dataset current = data;
+            List<ReentrantLock> idLocks = current.table(format).locksFor(unique);
+            lockAll(idLocks);
+            try {
+                TableVersion<T> table = current.snapshot().table(format);
+                List<String> present = new ArrayList<>(unique.size());
+                for (String id : unique) {
+                    if (table.contains(id)) {
+                        present.add(id);
+                    }
+                }
+                long logStart = System.nanoTime();
+                if (log != null && !present.isEmpty()) {
+                    log.logDeleteAll(format, present);
+                }
+                long logNanos = System.nanoTime() - logStart;
+                int removed = current.removeAll(format, present);
+                if (removed > 0) {
+                    dirtyTables.add(format);
+                    changes.publishAll(format, DataChange.Type.DELETE, present);
+                    compactIfNeeded(current, format);
+                }
+                batchDeletes.record(unique.size(), System.nanoTime() - start, logNanos);
+                return removed;
+            } finally {
+                unlockAll(idLocks);
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    private static void lockAll(List<ReentrantLock> locks) {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    private static void unlockAll(List<ReentrantLock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+
+    private void compactIfNeeded(Dataset current, TableFormat<?> format) {
+        if (current.needsCompaction(format) && compacting.add(format)) {
+            CompletableFuture.runAsync(() -> compact(current, format));
+        }
+    }
+
+    /**
+     * Rebuild one table's indexes without the entries for removed rows
+     * Index entries are kept after a delete or update because older snapshots may still read them;
+     * once they outnumber the table's live rows its indexes are built afresh off to the side.
+     * Writers to that table wait only while the new indexes are swapped in, writers to other
+     * tables not at all, and readers carry on with the snapshots they hold. Changes made
+     * meanwhile do not schedule another compaction of the table, so it is checked again
+     * once this one is done.
+     */
+    private void compact(Dataset current, TableFormat<?> format) {
+        boolean compacted = false;
+        try {
+            current.compact(format);
+            compacted = true;
+        } catch (RuntimeException e) {
+            System.err.println("Error compacting " + format.getFileName() + " indexes: " + e);
+        } finally {
+            compacting.remove(format);
+        }
+        // After a failure the next change to the table tries again, not this thread in a loop
+        if (compacted && data == current) {
+            compactIfNeeded(current, format);
+        }
     }
 
     // Find methods
     public Patient findPatient(String patientID) {
-        return patients.stream()
-                .filter(p -> p.getPatientID().equals(patientID))
-                .findFirst()
-                .orElse(null);
+        return snapshot().findPatient(patientID);
     }
 
     public Clinician findClinician(String clinicianID) {
-        return clinicians.stream()
-                .filter(c -> c.getClinicianID().equals(clinicianID))
-                .findFirst()
-                .orElse(null);
+        return snapshot().findClinician(clinicianID);
     }
 
     public Facility findFacility(String facilityID) {
-        return facilities.stream()
-                .filter(f -> f.getFacilityID().equals(facilityID))
-                .findFirst()
-                .orElse(null);
+        return snapshot().findFacility(facilityID);
+    }
+
+    public Appointment findAppointment(String appointmentID) {
+        return snapshot().findAppointment(appointmentID);
+    }
+
+    public Prescription findPrescription(String prescriptionID) {
+        return snapshot().findPrescription(prescriptionID);
+    }
+
+    public Referral findReferral(String referralID) {
+        return snapshot().findReferral(referralID);
+    }
+
+    public Staff findStaff(String staffID) {
+        return snapshot().findStaff(staffID);
+    }
+
+    // Foreign-key queries
+    public List<Appointment> getAppointmentsForPatient(String patientID) {
+        return snapshot().getAppointmentsForPatient(patientID);
+    }
+
+    public List<Appointment> getAppointmentsForClinician(String clinicianID) {
+        return snapshot().getAppointmentsForClinician(clinicianID);
+    }
+
+    public List<Appointment> getAppointmentsAtFacility(String facilityID) {
+        return snapshot().getAppointmentsAtFacility(facilityID);
+    }
+
+    public List<Prescription> getPrescriptionsForPatient(String patientID) {
+        return snapshot().getPrescriptionsForPatient(patientID);
     }
-}
 
+    public List<Prescription> getPrescriptionsByClinician(String clinicianID) {
+        return snapshot().getPrescriptionsByClinician(clinicianID);
+    }
+
+    public List<Prescription> getPrescriptionsForAppointment(String appointmentID) {
+        return snapshot().getPrescriptionsForAppointment(appointmentID);
+    }
+
+    public List<Referral> getReferralsForPatient(String patientID) {
+        return snapshot().getReferralsForPatient(patientID);
+    }
+
+    public List<Referral> getReferralsFromClinician(String clinicianID) {
+        return snapshot().getReferralsFromClinician(clinicianID);
+    }
+
+    public List<Referral> getReferralsToClinician(String clinicianID) {
+        return snapshot().getReferralsToClinician(clinicianID);
+    }
+
+    public List<Referral> getReferralsFromFacility(String facilityID) {
+        return snapshot().getReferralsFromFacility(facilityID);
+    }
+
+    public List<Referral> getReferralsToFacility(String facilityID) {
+        return snapshot().getReferralsToFacility(facilityID);
+    }
+
+    // Schedule queries
+    /**
+     * Appointments at a facility starting in [from, to), in start order
+     */
+    public List<Appointment> getAppointmentsAtFacility(String facilityID, LocalDateTime from, LocalDateTime to) {
+        return snapshot().getAppointmentsAtFacility(facilityID, from, to);
+    }
+
+    /**
+     * Appointments for a clinician starting in [from, to), in start order
+     */
+    public List<Appointment> getAppointmentsForClinician(String clinicianID, LocalDateTime from, LocalDateTime to) {
+        return snapshot().getAppointmentsForClinician(clinicianID, from, to);
+    }
+
+    public List<Appointment> getFacilitySchedule(String facilityID, LocalDate day) {
+        return snapshot().getFacilitySchedule(facilityID, day);
+    }
+
+    public List<Appointment> getClinicianSchedule(String clinicianID, LocalDate day) {
+        return snapshot().getClinicianSchedule(clinicianID, day);
+    }
+
+    public List<Appointment> getNextAppointmentsAtFacility(String facilityID, LocalDateTime from, int count) {
+        return snapshot().getNextAppointmentsAtFacility(facilityID, from, count);
+    }
+
+    public List<Appointment> getNextAppointmentsForClinician(String clinicianID, LocalDateTime from, int count) {
+        return snapshot().getNextAppointmentsForClinician(clinicianID, from, count);
+    }
+
+    /**
+     * Up to {@code limit} patients whose last name, first name, postcode or NHS number
+     * starts with the prefix; case and spaces are ignored
+     */
+    public List<Patient> searchPatients(String prefix, int limit) {
+        return snapshot().searchPatients(prefix, limit);
+    }
 
+    // Text search
+    /**
+     * IDs of prescriptions whose medication or notes match the query
+     * Words are ANDed, OR separates alternatives and "quotes" match a phrase; case is ignored.
+     */
+    public List<String> searchPrescriptions(String query) {
+        return snapshot().searchPrescriptions(query);
+    }
 
+    /**
+     * IDs of referrals whose clinical summary, reason or notes match the query
+     * Words are ANDed, OR separates alternatives and "quotes" match a phrase; case is ignored.
+     */
+    public List<String> searchReferrals(String query) {
+        return snapshot().searchReferrals(query);
+    }
+}
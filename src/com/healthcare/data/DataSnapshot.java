@@ -0,0 +1,286 @@
+package com.healthcare.data;
+
+import com.healthcare.model.*;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * A consistent, read-only view of all seven tables at one moment
+ *
+ * Taking a snapshot costs one volatile read and never blocks. Nothing in it changes
+ * afterwards: the row lists are immutable and every lookup, index query and search
+ * answers as of the moment the snapshot was taken, even while writers carry on. Use one
+ * snapshot for a group of reads that must agree with each other, such as a referral and
+ * the patient and clinicians it names.
+ */
+public final class DataSnapshot {
+    private final long version;
+    private final TableVersion<?>[] tables = new TableVersion<?>[TableFormat.ALL.size()];
+    // The index set that went with each table's version
+    private final IndexSet<?>[] indexes = new IndexSet<?>[TableFormat.ALL.size()];
+    private final TableVersion<Patient> patients;
+    private final TableVersion<Clinician> clinicians;
+    private final TableVersion<Facility> facilities;
+    private final TableVersion<Appointment> appointments;
+    private final TableVersion<Prescription> prescriptions;
+    private final TableVersion<Referral> referrals;
+    private final TableVersion<Staff> staff;
+    private final Dataset.PatientIndexes patientIndexes;
+    private final Dataset.AppointmentIndexes appointmentIndexes;
+    private final Dataset.PrescriptionIndexes prescriptionIndexes;
+    private final Dataset.ReferralIndexes referralIndexes;
+
+    // Index entries added after the snapshot, or for rows removed since, fail these
+    private final Predicate<Patient> currentPatient;
+    private final Predicate<Appointment> currentAppointment;
+    private final Predicate<Prescription> currentPrescription;
+    private final Predicate<Referral> currentReferral;
+
+    /**
+     * Capture the current version of every table of the dataset
+     */
+    DataSnapshot(Dataset data, long version) {
+        this(version, currentTables(data), currentIndexes(data));
+    }
+
+    private DataSnapshot(long version, TableVersion<?>[] tables, IndexSet<?>[] indexes) {
+        this.version = version;
+        System.arraycopy(tables, 0, this.tables, 0, tables.length);
+        System.arraycopy(indexes, 0, this.indexes, 0, indexes.length);
+        patients = table(TableFormat.PATIENTS);
+        clinicians = table(TableFormat.CLINICIANS);
+        facilities = table(TableFormat.FACILITIES);
+        appointments = table(TableFormat.APPOINTMENTS);
+        prescriptions = table(TableFormat.PRESCRIPTIONS);
+        referrals = table(TableFormat.REFERRALS);
+        staff = table(TableFormat.STAFF);
+        patientIndexes = (Dataset.PatientIndexes) indexes(TableFormat.PATIENTS);
+        appointmentIndexes = (Dataset.AppointmentIndexes) indexes(TableFormat.APPOINTMENTS);
+        prescriptionIndexes = (Dataset.PrescriptionIndexes) indexes(TableFormat.PRESCRIPTIONS);
+        referralIndexes = (Dataset.ReferralIndexes) indexes(TableFormat.REFERRALS);
+
+        currentPatient = row -> patients.isCurrent(row.getPatientID(), row);
+        currentAppointment = row -> appointments.isCurrent(row.getAppointmentID(), row);
+        currentPrescription = row -> prescriptions.isCurrent(row.getPrescriptionID(), row);
+        currentReferral = row -> referrals.isCurrent(row.getReferralID(), row);
+    }
+
+    private static TableVersion<?>[] currentTables(Dataset data) {
+        TableVersion<?>[] tables = new TableVersion<?>[TableFormat.ALL.size()];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = data.table(TableFormat.ALL.get(i)).current();
+        }
+        return tables;
+    }
+
+    private static IndexSet<?>[] currentIndexes(Dataset data) {
+        IndexSet<?>[] indexes = new IndexSet<?>[TableFormat.ALL.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = data.table(TableFormat.ALL.get(i)).indexes();
+        }
+        return indexes;
+    }
+
+    /**
+     * The next snapshot: this one with a new version of one table and its indexes
+     */
+    <T> DataSnapshot with(TableFormat<T> format, TableVersion<T> table, IndexSet<T> tableIndexes) {
+        int position = TableFormat.ALL.indexOf(format);
+        TableVersion<?>[] nextTables = tables.clone();
+        nextTables[position] = table;
+        IndexSet<?>[] nextIndexes = indexes.clone();
+        nextIndexes[position] = tableIndexes;
+        return new DataSnapshot(version + 1, nextTables, nextIndexes);
+    }
+
+    /**
+     * Increases by one with every change published to the dataset
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> TableVersion<T> table(TableFormat<T> format) {
+        return (TableVersion<T>) tables[TableFormat.ALL.indexOf(format)];
+    }
+
+    private IndexSet<?> indexes(TableFormat<?> format) {
+        return indexes[TableFormat.ALL.indexOf(format)];
+    }
+
+    /**
+     * The rows of any table, in the same order as its own getter returns them
+     */
+    public <T> List<T> getRows(TableFormat<T> format) {
+        return table(format).rows();
+    }
+
+    /**
+     * Position of the row with the ID in getRows(format), or -1 if there is none
+     */
+    public int indexOf(TableFormat<?> format, String id) {
+        return table(format).indexOf(id);
+    }
+
+    // Getters
+    public List<Patient> getPatients() {
+        return patients.rows();
+    }
+
+    public List<Clinician> getClinicians() {
+        return clinicians.rows();
+    }
+
+    public List<Facility> getFacilities() {
+        return facilities.rows();
+    }
+
+    public List<Appointment> getAppointments() {
+        return appointments.rows();
+    }
+
+    public List<Prescription> getPrescriptions() {
+        return prescriptions.rows();
+    }
+
+    public List<Referral> getReferrals() {
+        return referrals.rows();
+    }
+
+    public List<Staff> getStaff() {
+        return staff.rows();
+    }
+
+    // Find methods
+    public Patient findPatient(String patientID) {
+        return patients.find(patientID);
+    }
+
+    public Clinician findClinician(String clinicianID) {
+        return clinicians.find(clinicianID);
+    }
+
+    public Facility findFacility(String facilityID) {
+        return facilities.find(facilityID);
+    }
+
+    public Appointment findAppointment(String appointmentID) {
+        return appointments.find(appointmentID);
+    }
+
+    public Prescription findPrescription(String prescriptionID) {
+        return prescriptions.find(prescriptionID);
+    }
+
+    public Referral findReferral(String referralID) {
+        return referrals.find(referralID);
+    }
+
+    public Staff findStaff(String staffID) {
+        return staff.find(staffID);
+    }
+
+    // Foreign-key queries
+    public List<Appointment> getAppointmentsForPatient(String patientID) {
+        return appointmentIndexes.byPatient.get(patientID, currentAppointment);
+    }
+
+    public List<Appointment> getAppointmentsForClinician(String clinicianID) {
+        return appointmentIndexes.byClinician.get(clinicianID, currentAppointment);
+    }
+
+    public List<Appointment> getAppointmentsAtFacility(String facilityID) {
+        return appointmentIndexes.byFacility.get(facilityID, currentAppointment);
+    }
+
+    public List<Prescription> getPrescriptionsForPatient(String patientID) {
+        return prescriptionIndexes.byPatient.get(patientID, currentPrescription);
+    }
+
+    public List<Prescription> getPrescriptionsByClinician(String clinicianID) {
+        return prescriptionIndexes.byClinician.get(clinicianID, currentPrescription);
+    }
+
+    public List<Prescription> getPrescriptionsForAppointment(String appointmentID) {
+        return prescriptionIndexes.byAppointment.get(appointmentID, currentPrescription);
+    }
+
+    public List<Referral> getReferralsForPatient(String patientID) {
+        return referralIndexes.byPatient.get(patientID, currentReferral);
+    }
+
+    public List<Referral> getReferralsFromClinician(String clinicianID) {
+        return referralIndexes.byReferringClinician.get(clinicianID, currentReferral);
+    }
+
+    public List<Referral> getReferralsToClinician(String clinicianID) {
+        return referralIndexes.byReceivingClinician.get(clinicianID, currentReferral);
+    }
+
+    public List<Referral> getReferralsFromFacility(String facilityID) {
+        return referralIndexes.byReferringFacility.get(facilityID, currentReferral);
+    }
+
+    public List<Referral> getReferralsToFacility(String facilityID) {
+        return referralIndexes.byReceivingFacility.get(facilityID, currentReferral);
+    }
+
+    // Schedule queries
+    /**
+     * Appointments at a facility starting in [from, to), in start order
+     */
+    public List<Appointment> getAppointmentsAtFacility(String facilityID, LocalDateTime from, LocalDateTime to) {
+        return appointmentIndexes.facilitySchedules.between(facilityID, from, to, currentAppointment);
+    }
+
+    /**
+     * Appointments for a clinician starting in [from, to), in start order
+     */
+    public List<Appointment> getAppointmentsForClinician(String clinicianID, LocalDateTime from, LocalDateTime to) {
+        return appointmentIndexes.clinicianSchedules.between(clinicianID, from, to, currentAppointment);
+    }
+
+    public List<Appointment> getFacilitySchedule(String facilityID, LocalDate day) {
+        return appointmentIndexes.facilitySchedules.onDay(facilityID, day, currentAppointment);
+    }
+
+    public List<Appointment> getClinicianSchedule(String clinicianID, LocalDate day) {
+        return appointmentIndexes.clinicianSchedules.onDay(clinicianID, day, currentAppointment);
+    }
+
+    public List<Appointment> getNextAppointmentsAtFacility(String facilityID, LocalDateTime from, int count) {
+        return appointmentIndexes.facilitySchedules.next(facilityID, from, count, currentAppointment);
+    }
+
+    public List<Appointment> getNextAppointmentsForClinician(String clinicianID, LocalDateTime from, int count) {
+        return appointmentIndexes.clinicianSchedules.next(clinicianID, from, count, currentAppointment);
+    }
+
+    /**
+     * Up to {@code limit} patients whose last name, first name, postcode or NHS number
+     * starts with the prefix; case and spaces are ignored
+     */
+    public List<Patient> searchPatients(String prefix, int limit) {
+        return patientIndexes.prefixes.search(prefix, limit, currentPatient);
+    }
+
+    // Text search
+    /**
+     * IDs of prescriptions whose medication or notes match the query
+     * Words are ANDed, OR separates alternatives and "quotes" match a phrase; case is ignored.
+     */
+    public List<String> searchPrescriptions(String query) {
+        return prescriptionIndexes.text.search(query, currentPrescription);
+    }
+
+    /**
+     * IDs of referrals whose clinical summary, reason or notes match the query
+     * Words are ANDed, OR separates alternatives and "quotes" match a phrase; case is ignored.
+     */
+    public List<String> searchReferrals(String query) {
+        return referralIndexes.text.search(query, currentReferral);
+    }
+}
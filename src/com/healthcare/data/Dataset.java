@@ -0,0 +1,226 @@
+package com.healthcare.data;
+
+import com.healthcare.model.*;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One complete set of the seven tables together with their indexes
+ * A load fills a new Dataset off to the side and DataManager then publishes it in a
+ * single reference swap, so readers only ever see a whole dataset.
+ *
+ * Each table has its own writer lock, so changes to different tables run side by side.
+ * A change updates the table's indexes, builds the next version of the table and, still
+ * holding the table's lock, swaps it into the latest DataSnapshot with a compare-and-set.
+ * Readers only ever look at a published snapshot, so they never block and never see a
+ * change half made.
+ *
+ * The secondary indexes of each table form an IndexSet, declared here. A snapshot keeps
+ * the set that went with its version of each table, so a table can be compacted on its
+ * own, with a new set swapped in, while older snapshots carry on with the old one.
+ */
+final class Dataset {
+    // Removed rows an index may hold, below which compacting is not worth it
+    private static final int MIN_COMPACTION_GARBAGE = 10_000;
+
+    final EntityTable<Patient> patients = new EntityTable<>(TableFormat.PATIENTS, PatientIndexes::new);
+    final EntityTable<Clinician> clinicians = new EntityTable<>(TableFormat.CLINICIANS);
+    final EntityTable<Facility> facilities = new EntityTable<>(TableFormat.FACILITIES);
+    final EntityTable<Appointment> appointments =
+            new EntityTable<>(TableFormat.APPOINTMENTS, AppointmentIndexes::new);
+    final EntityTable<Prescription> prescriptions =
+            new EntityTable<>(TableFormat.PRESCRIPTIONS, PrescriptionIndexes::new);
+    final EntityTable<Referral> referrals = new EntityTable<>(TableFormat.REFERRALS, ReferralIndexes::new);
+    final EntityTable<Staff> staff = new EntityTable<>(TableFormat.STAFF);
+    private final Map<TableFormat<?>, EntityTable<?>> tables = new HashMap<>();
+    private final AtomicReference<DataSnapshot> latest = new AtomicReference<>();
+
+    /**
+     * Type-ahead search over patient names, postcode and NHS number
+     */
+    static final class PatientIndexes extends IndexSet<Patient> {
+        final PrefixIndex<Patient> prefixes = add(new PrefixIndex<>(List.of(
+                Patient::getLastName, Patient::getFirstName, Patient::getPostcode, Patient::getNhsNumber)));
+    }
+
+    /**
+     * Foreign keys, and start times per facility and per clinician
+     */
+    static final class AppointmentIndexes extends IndexSet<Appointment> {
+        final MultiValueIndex<Appointment> byPatient = add(new MultiValueIndex<>(Appointment::getPatientID));
+        final MultiValueIndex<Appointment> byClinician = add(new MultiValueIndex<>(Appointment::getClinicianID));
+        final MultiValueIndex<Appointment> byFacility = add(new MultiValueIndex<>(Appointment::getFacilityID));
+        final ScheduleIndex facilitySchedules = add(new ScheduleIndex(Appointment::getFacilityID));
+        final ScheduleIndex clinicianSchedules = add(new ScheduleIndex(Appointment::getClinicianID));
+    }
+
+    /**
+     * Foreign keys and free-text search
+     */
+    static final class PrescriptionIndexes extends IndexSet<Prescription> {
+        final MultiValueIndex<Prescription> byPatient = add(new MultiValueIndex<>(Prescription::getPatientID));
+        final MultiValueIndex<Prescription> byClinician = add(new MultiValueIndex<>(Prescription::getClinicianID));
+        final MultiValueIndex<Prescription> byAppointment =
+                add(new MultiValueIndex<>(Prescription::getAppointmentID));
+        final TextIndex<Prescription> text = add(new TextIndex<>(Prescription::getPrescriptionID,
+                List.of(Prescription::getMedication, Prescription::getNotes)));
+    }
+
+    /**
+     * Foreign keys and free-text search
+     */
+    static final class ReferralIndexes extends IndexSet<Referral> {
+        final MultiValueIndex<Referral> byPatient = add(new MultiValueIndex<>(Referral::getPatientID));
+        final MultiValueIndex<Referral> byReferringClinician =
+                add(new MultiValueIndex<>(Referral::getReferringClinicianID));
+        final MultiValueIndex<Referral> byReceivingClinician =
+                add(new MultiValueIndex<>(Referral::getReceivingClinicianID));
+        final MultiValueIndex<Referral> byReferringFacility =
+                add(new MultiValueIndex<>(Referral::getReferringFacility));
+        final MultiValueIndex<Referral> byReceivingFacility =
+                add(new MultiValueIndex<>(Referral::getReceivingFacility));
+        final TextIndex<Referral> text = add(new TextIndex<>(Referral::getReferralID,
+                List.of(Referral::getClinicalSummary, Referral::getReferralReason, Referral::getNotes)));
+    }
+
+    Dataset() {
+        tables.put(TableFormat.PATIENTS, patients);
+        tables.put(TableFormat.CLINICIANS, clinicians);
+        tables.put(TableFormat.FACILITIES, facilities);
+        tables.put(TableFormat.APPOINTMENTS, appointments);
+        tables.put(TableFormat.PRESCRIPTIONS, prescriptions);
+        tables.put(TableFormat.REFERRALS, referrals);
+        tables.put(TableFormat.STAFF, staff);
+        latest.set(new DataSnapshot(this, 0));
+    }
+
+    /**
+     * The latest published state of every table
+     */
+    DataSnapshot snapshot() {
+        return latest.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> EntityTable<T> table(TableFormat<T> format) {
+        return (EntityTable<T>) tables.get(format);
+    }
+
+    /**
+     * Add rows read from a file or snapshot, reporting any whose ID was already present
+     */
+    <T> void addLoaded(TableFormat<T> format, List<T> rows) {
+        EntityTable<T> table = table(format);
+        int skipped;
+        synchronized (table) {
+            skipped = table.addAll(rows);
+            publish(format, table);
+        }
+        if (skipped > 0) {
+            System.err.println("Skipped " + skipped + " rows with duplicate IDs in " + format.getFileName());
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a row with the same ID is already present
+     */
+    <T> void add(TableFormat<T> format, T row) {
+        EntityTable<T> table = table(format);
+        synchronized (table) {
+            table.add(row);
+            publish(format, table);
+        }
+    }
+
+    /**
+     * @return the replaced row, or null if there was none
+     */
+    <T> T replace(TableFormat<T> format, T row) {
+        EntityTable<T> table = table(format);
+        synchronized (table) {
+            T previous = table.replace(row);
+            if (previous != null) {
+                publish(format, table);
+            }
+            return previous;
+        }
+    }
+
+    /**
+     * @return the removed row, or null if there was none
+     */
+    <T> T remove(TableFormat<T> format, String id) {
+        EntityTable<T> table = table(format);
+        synchronized (table) {
+            T row = table.remove(id);
+            if (row != null) {
+                publish(format, table);
+            }
+            return row;
+        }
+    }
+
+    /**
+     * Add or replace a batch of rows, published as one change
+     * @return the number of rows that were added rather than replacing one
+     */
+    <T> int putAll(TableFormat<T> format, List<T> rows) {
+        EntityTable<T> table = table(format);
+        synchronized (table) {
+            int added = table.putAll(rows);
+            publish(format, table);
+            return added;
+        }
+    }
+
+    /**
+     * Remove a batch of rows, published as one change
+     * @return the number of rows removed
+     */
+    <T> int removeAll(TableFormat<T> format, Collection<String> ids) {
+        EntityTable<T> table = table(format);
+        synchronized (table) {
+            int removed = table.removeAll(ids);
+            if (removed > 0) {
+                publish(format, table);
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * Swap the table's new version into the latest snapshot
+     * Called holding the table's lock, so its versions are published in order; writers
+     * to other tables may publish in between, which only costs a retry.
+     */
+    private <T> void publish(TableFormat<T> format, EntityTable<T> table) {
+        TableVersion<T> version = table.current();
+        IndexSet<T> indexes = table.indexes();
+        latest.updateAndGet(previous -> previous.with(format, version, indexes));
+    }
+
+    /**
+     * Whether the table's indexes hold more removed rows than live ones
+     */
+    boolean needsCompaction(TableFormat<?> format) {
+        EntityTable<?> table = table(format);
+        int garbage = table.garbage();
+        return garbage > MIN_COMPACTION_GARBAGE && garbage > table.current().size();
+    }
+
+    /**
+     * Rebuild the table's indexes without their removed rows and publish them
+     * Writers to the table wait only for the swap, and other tables are not held up at all.
+     */
+    <T> void compact(TableFormat<T> format) {
+        EntityTable<T> table = table(format);
+        if (table.compact()) {
+            synchronized (table) {
+                publish(format, table);
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.healthcare.data;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Rows of one entity type in load order, with a hash index on the primary key
+ * IDs are unique: an add for an ID that is already present is rejected.
+ *
+ * The table is a chain of immutable TableVersions. Changes are made by one writer at a
+ * time, which builds the next version and publishes it; readers take the current
+ * version and use it for as long as they like without locking.
+ *
+ * Locking: the table's monitor is its write lock and is only held while a change is
+ * applied in memory. A change to one ID, from the duplicate check through logging to
+ * applying it, holds that ID's stripe lock instead, so writers to different IDs of the
+ * same table overlap their logging and only queue for the short apply.
+ *
+ * Secondary indexes keep entries for rows that have since been removed or replaced. Once
+ * they pile up the table is compacted: a fresh IndexSet is filled from the current rows
+ * without holding the table's lock, and only the rows indexed meanwhile are added to it
+ * under the lock before it replaces the old set.
+ */
+class EntityTable<T> {
+    private final TableFormat<T> format;
+    private static final int STRIPES = 64;
+
+    private volatile TableVersion<T> current = TableVersion.empty();
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final Supplier<? extends IndexSet<T>> newIndexes;
+    private volatile IndexSet<T> indexes;
+    // Index entries left behind by rows that have since been removed or replaced
+    private int garbage;
+    // Rows indexed while a compaction builds the next index set, null when none is running
+    private List<T> indexedDuringCompaction;
+
+    EntityTable(TableFormat<T> format) {
+        this(format, IndexSet::new);
+    }
+
+    EntityTable(TableFormat<T> format, Supplier<? extends IndexSet<T>> newIndexes) {
+        this.format = format;
+        this.newIndexes = newIndexes;
+        this.indexes = newIndexes.get();
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    TableVersion<T> current() {
+        return current;
+    }
+
+    /**
+     * The index set that goes with the current version
+     */
+    IndexSet<T> indexes() {
+        return indexes;
+    }
+
+    /**
+     * Lock covering every change to rows with the given ID
+     */
+    ReentrantLock lockFor(String id) {
+        return stripes[stripe(id)];
+    }
+
+    /**
+     * Position of the ID's lock among this table's stripes, for taking several in order
+     */
+    static int stripe(String id) {
+        int h = id.hashCode();
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % STRIPES;
+    }
+
+    /**
+     * Stripe locks covering every change to rows with the given IDs, in the order to take them
+     */
+    List<ReentrantLock> locksFor(Collection<String> ids) {
+        boolean[] needed = new boolean[STRIPES];
+        for (String id : ids) {
+            needed[stripe(id)] = true;
+        }
+        List<ReentrantLock> locks = new ArrayList<>();
+        for (int i = 0; i < STRIPES; i++) {
+            if (needed[i]) {
+                locks.add(stripes[i]);
+            }
+        }
+        return locks;
+    }
+
+    /**
+     * Add a row
+     * @throws IllegalArgumentException if a row with the same ID is already present
+     */
+    synchronized void add(T row) {
+        String id = format.getId(row);
+        if (current.contains(id)) {
+            throw new IllegalArgumentException("ID " + id + " already exists");
+        }
+        indexRow(row);
+        current = current.plus(id, row);
+    }
+
+    /**
+     * Add loaded rows, keeping the first row for each ID
+     * @return the number of rows skipped as duplicates
+     */
+    synchronized int addAll(Collection<T> loaded) {
+        List<T> added = new ArrayList<>(loaded.size());
+        TableVersion<T> next = current.plusAll(loaded, format, added);
+        indexAll(added);
+        current = next;
+        return loaded.size() - added.size();
+    }
+
+    /**
+     * Replace the row that has the same ID in place
+     * @return the row it replaced, or null if there was none and nothing changed
+     */
+    synchronized T replace(T row) {
+        String id = format.getId(row);
+        T previous = current.find(id);
+        if (previous != null) {
+            indexRow(row);
+            current = current.replace(id, row);
+            if (!indexes.isEmpty()) {
+                garbage++;
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Add or replace a batch of rows, building one new version and updating each index once
+     * @return the number of rows that were added rather than replacing one
+     */
+    synchronized int putAll(List<T> rows) {
+        List<T> added = new ArrayList<>();
+        TableVersion<T> next = current.putAll(rows, format, added);
+        indexAll(rows);
+        if (!indexes.isEmpty()) {
+            garbage += rows.size() - added.size();
+        }
+        current = next;
+        return added.size();
+    }
+
+    /**
+     * Remove the row with the given ID
+     * @return the removed row, or null if there was none
+     */
+    synchronized T remove(String id) {
+        T row = current.find(id);
+        if (row != null) {
+            current = current.minus(id);
+            if (!indexes.isEmpty()) {
+                garbage++;
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Remove the rows with the given IDs, building one new version
+     * @return the number of rows removed
+     */
+    synchronized int removeAll(Collection<String> ids) {
+        List<T> removed = new ArrayList<>();
+        current = current.minusAll(ids, removed);
+        if (!indexes.isEmpty()) {
+            garbage += removed.size();
+        }
+        return removed.size();
+    }
+
+    /**
+     * Index entries that point at removed rows; they go when the table is compacted
+     */
+    synchronized int garbage() {
+        return garbage;
+    }
+
+    /**
+     * Replace the index set with one built from the current rows only
+     * Writers are held off only while the rows indexed during the build are added to the
+     * new set and it is swapped in; the caller then publishes the table so later
+     * snapshots use it.
+     * @return false if the table has no indexes or is already being compacted
+     */
+    boolean compact() {
+        TableVersion<T> source;
+        int garbageBefore;
+        synchronized (this) {
+            if (indexedDuringCompaction != null || indexes.isEmpty()) {
+                return false;
+            }
+            source = current;
+            garbageBefore = garbage;
+            indexedDuringCompaction = new ArrayList<>();
+        }
+        IndexSet<T> next = newIndexes.get();
+        try {
+            next.addAll(source.rows());
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                indexedDuringCompaction = null;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            next.addAll(indexedDuringCompaction);
+            indexedDuringCompaction = null;
+            indexes = next;
+            // Rows removed since the build started are still in the new set
+            garbage -= garbageBefore;
+        }
+        return true;
+    }
+
+    private void indexRow(T row) {
+        indexes.add(row);
+        if (indexedDuringCompaction != null) {
+            indexedDuringCompaction.add(row);
+        }
+    }
+
+    private void indexAll(List<T> rows) {
+        indexes.addAll(rows);
+        if (indexedDuringCompaction != null) {
+            indexedDuringCompaction.addAll(rows);
+        }
+    }
+}
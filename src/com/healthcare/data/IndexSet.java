@@ -0,0 +1,38 @@
+package com.healthcare.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The secondary indexes of one table, kept in step with it and replaced together
+ * A table starts with an empty set and gets a freshly built one each time it is compacted.
+ * Every snapshot keeps the set that was current for its version of the table, so a
+ * compaction never changes what an older snapshot's queries find.
+ */
+class IndexSet<T> {
+    private final List<TableIndex<T>> indexes = new ArrayList<>();
+
+    /**
+     * Keep the index in step with the table; subclasses call this as their fields are set up
+     */
+    protected final <I extends TableIndex<T>> I add(I index) {
+        indexes.add(index);
+        return index;
+    }
+
+    boolean isEmpty() {
+        return indexes.isEmpty();
+    }
+
+    void add(T row) {
+        for (TableIndex<T> index : indexes) {
+            index.add(row);
+        }
+    }
+
+    void addAll(List<T> rows) {
+        for (TableIndex<T> index : indexes) {
+            index.addAll(rows);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.healthcare.data;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How far a load has got, file by file, and a way to stop it
+ * The loader threads update the counters as they parse; anyone may read them at any
+ * time, typically a UI timer. Cancelling makes the parsers give up at their next check,
+ * and the load then fails with a CancellationException, leaving the data as it was.
+ */
+public final class LoadProgress {
+    // Rows parsed between updates of the shared counters and checks for cancellation
+    static final int REPORT_INTERVAL_ROWS = 4096;
+
+    private final long started = System.nanoTime();
+    private final List<FileProgress> files = new CopyOnWriteArrayList<>();
+    private final Map<String, FileProgress> byName = new ConcurrentHashMap<>();
+    private volatile boolean cancelled;
+
+    /**
+     * Progress through one file
+     */
+    public static final class FileProgress {
+        private final String fileName;
+        private final long size;
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong rows = new AtomicLong();
+        private volatile boolean done;
+        private final LoadProgress load;
+
+        private FileProgress(LoadProgress load, String fileName, long size) {
+            this.load = load;
+            this.fileName = fileName;
+            this.size = size;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getBytesRead() {
+            return bytesRead.get();
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Count rows and bytes parsed since the last call
+         * @throws java.util.concurrent.CancellationException if the load was cancelled
+         */
+        void advance(long moreRows, long moreBytes) {
+            load.checkCancelled();
+            rows.addAndGet(moreRows);
+            bytesRead.addAndGet(moreBytes);
+        }
+
+        void finish() {
+            bytesRead.set(size);
+            done = true;
+        }
+    }
+
+    /**
+     * Register a file about to be read; files are listed in the order they are added
+     */
+    FileProgress addFile(String fileName, long size) {
+        FileProgress file = new FileProgress(this, fileName, size);
+        files.add(file);
+        byName.put(fileName, file);
+        return file;
+    }
+
+    public List<FileProgress> getFiles() {
+        return List.copyOf(files);
+    }
+
+    public FileProgress getFile(String fileName) {
+        return byName.get(fileName);
+    }
+
+    public long getRows() {
+        long rows = 0;
+        for (FileProgress file : files) {
+            rows += file.getRows();
+        }
+        return rows;
+    }
+
+    public long getBytesRead() {
+        long bytes = 0;
+        for (FileProgress file : files) {
+            bytes += file.getBytesRead();
+        }
+        return bytes;
+    }
+
+    public long getSize() {
+        long size = 0;
+        for (FileProgress file : files) {
+            size += file.getSize();
+        }
+        return size;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    public double getRowsPerSecond() {
+        long elapsed = System.nanoTime() - started;
+        return elapsed == 0 ? 0 : getRows() * 1e9 / elapsed;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws java.util.concurrent.CancellationException if the load was cancelled
+     */
+    void checkCancelled() {
+        if (cancelled) {
+            throw new java.util.concurrent.CancellationException("Load cancelled");
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.healthcare.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Hash index from a foreign key, such as an appointment's patient ID, to every row that holds it
+ * Rows with a null or empty key are not indexed.
+ */
+class MultiValueIndex<T> implements TableIndex<T> {
+    private final Function<T, String> keyGetter;
+    private final Map<String, AppendOnlyList<T>> rowsByKey = new ConcurrentHashMap<>();
+
+    MultiValueIndex(Function<T, String> keyGetter) {
+        this.keyGetter = keyGetter;
+    }
+
+    @Override
+    public void add(T row) {
+        String key = keyGetter.apply(row);
+        if (key != null && !key.isEmpty()) {
+            rowsByKey.computeIfAbsent(key, k -> new AppendOnlyList<>(2)).add(row);
+        }
+    }
+
+    /**
+     * Visible rows holding the key, in the order they were added
+     */
+    List<T> get(String key, Predicate<T> visible) {
+        List<T> result = new ArrayList<>();
+        AppendOnlyList<T> rows = rowsByKey.get(key);
+        if (rows != null) {
+            for (int i = 0, size = rows.size(); i < size; i++) {
+                T row = rows.get(i);
+                if (visible.test(row)) {
+                    result.add(row);
+                }
+            }
+        }
+        return result;
+    }
+}
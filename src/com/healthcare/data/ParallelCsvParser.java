@@ -0,0 +1,238 @@
+package com.healthcare.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * Parses a single large CSV file on a ForkJoinPool
+ * The file is cut into byte ranges and each cut is moved forward to the next record
+ * boundary. Whether a cut falls inside a quoted field is worked out from the parity of
+ * the quote characters before it (an escaped "" never changes the parity), so quoted
+ * newlines are never mistaken for record ends. Ranges are parsed independently and
+ * the rows are merged back in file order.
+ */
+class ParallelCsvParser<T> {
+    // Files smaller than this are parsed on the calling thread
+    static final long PARALLEL_THRESHOLD = 32L * 1024 * 1024;
+
+    private static final long MIN_RANGE_SIZE = 8L * 1024 * 1024;
+    private static final long SCAN_WINDOW = 64L * 1024 * 1024;
+
+    private final Path path;
+    private final Function<CsvRecord, T> rowMapper;
+    private final ForkJoinPool pool;
+    // Rows and bytes parsed are counted here as the ranges go, if it is set
+    private final LoadProgress.FileProgress progress;
+
+    ParallelCsvParser(Path path, Function<CsvRecord, T> rowMapper) {
+        this(path, rowMapper, ForkJoinPool.commonPool(), null);
+    }
+
+    ParallelCsvParser(Path path, Function<CsvRecord, T> rowMapper, LoadProgress.FileProgress progress) {
+        this(path, rowMapper, ForkJoinPool.commonPool(), progress);
+    }
+
+    ParallelCsvParser(Path path, Function<CsvRecord, T> rowMapper, ForkJoinPool pool,
+                      LoadProgress.FileProgress progress) {
+        this.path = path;
+        this.rowMapper = rowMapper;
+        this.pool = pool;
+        this.progress = progress;
+    }
+
+    /**
+     * Parse all rows after the header, in file order
+     */
+    List<T> parse() throws IOException {
+        try {
+            long[] bounds = recordBoundaries();
+            return pool.invoke(new RangeTask(bounds, 0, bounds.length - 1));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Offsets of the range cuts, starting after the header and ending at the file size
+     */
+    private long[] recordBoundaries() throws IOException {
+        long headerEnd;
+        try (CsvTokenizer header = new CsvTokenizer(path)) {
+            header.next();
+            headerEnd = header.position();
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int ranges = (int) Math.max(1, Math.min((size - headerEnd) / MIN_RANGE_SIZE,
+                    pool.getParallelism() * 4L));
+            long step = (size - headerEnd) / ranges;
+            long[] cuts = new long[ranges + 1];
+            for (int i = 0; i < ranges; i++) {
+                cuts[i] = headerEnd + i * step;
+            }
+            cuts[ranges] = size;
+
+            // Quote counts per range, in parallel, then a prefix parity for the state at each cut
+            long[] quotes = new long[ranges];
+            runParallel(ranges, i -> quotes[i] = countQuotes(channel, cuts[i], cuts[i + 1]));
+            boolean[] inQuotes = new boolean[ranges];
+            for (int i = 1; i < ranges; i++) {
+                inQuotes[i] = inQuotes[i - 1] ^ (quotes[i - 1] & 1) == 1;
+            }
+
+            long[] bounds = new long[ranges + 1];
+            bounds[0] = headerEnd;
+            bounds[ranges] = size;
+            runParallel(ranges - 1, i -> bounds[i + 1] = nextRecordStart(channel, cuts[i + 1], inQuotes[i + 1], size));
+            // A record longer than one range pushes its cut past the next one
+            for (int i = 1; i < ranges; i++) {
+                bounds[i] = Math.max(bounds[i], bounds[i - 1]);
+            }
+            return bounds;
+        }
+    }
+
+    private void runParallel(int count, IOIntConsumer action) {
+        pool.submit(() -> IntStream.range(0, count).parallel().forEach(i -> {
+            try {
+                action.accept(i);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        })).join();
+    }
+
+    private static long countQuotes(FileChannel channel, long from, long to) throws IOException {
+        long count = 0;
+        for (long offset = from; offset < to; offset += SCAN_WINDOW) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                    Math.min(SCAN_WINDOW, to - offset));
+            for (int i = 0, limit = buffer.limit(); i < limit; i++) {
+                if (buffer.get(i) == '"') {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Offset just after the first newline at or after {@code from} that is outside quotes
+     */
+    private static long nextRecordStart(FileChannel channel, long from, boolean inQuotes, long size)
+            throws IOException {
+        for (long offset = from; offset < size; offset += SCAN_WINDOW) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                    Math.min(SCAN_WINDOW, size - offset));
+            for (int i = 0, limit = buffer.limit(); i < limit; i++) {
+                byte b = buffer.get(i);
+                if (b == '"') {
+                    inQuotes = !inQuotes;
+                } else if (b == '\n' && !inQuotes) {
+                    return offset + i + 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    @FunctionalInterface
+    private interface IOIntConsumer {
+        void accept(int index) throws IOException;
+    }
+
+    /**
+     * Parses ranges [from, to) of the cut list, splitting in half until one range is left
+     */
+    private class RangeTask extends RecursiveTask<List<T>> {
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+
+        RangeTask(long[] bounds, int from, int to) {
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<T> compute() {
+            if (to - from == 1) {
+                return parseRange(bounds[from], bounds[to]);
+            }
+            int middle = (from + to) >>> 1;
+            RangeTask left = new RangeTask(bounds, from, middle);
+            RangeTask right = new RangeTask(bounds, middle, to);
+            left.fork();
+            List<T> rightRows = right.compute();
+            List<T> rows = left.join();
+            rows.addAll(rightRows);
+            return rows;
+        }
+
+        private List<T> parseRange(long start, long end) {
+            List<T> rows = new ArrayList<>();
+            if (start >= end) {
+                return rows;
+            }
+            try (CsvTokenizer csv = new CsvTokenizer(path, start, end)) {
+                ProgressCounter counter = new ProgressCounter(progress, start);
+                while (csv.next()) {
+                    T row = rowMapper.apply(csv);
+                    if (row != null) {
+                        rows.add(row);
+                    }
+                    counter.row(csv);
+                }
+                counter.flush(csv);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * Batches one parser's rows and bytes into occasional updates of the shared progress,
+     * so the parse loop does not touch shared counters on every row
+     */
+    static final class ProgressCounter {
+        private final LoadProgress.FileProgress progress;
+        private long reported;
+        private int rows;
+
+        ProgressCounter(LoadProgress.FileProgress progress, long start) {
+            this.progress = progress;
+            this.reported = start;
+        }
+
+        /**
+         * Count a parsed record; throws CancellationException if the load was cancelled
+         */
+        void row(CsvTokenizer csv) {
+            if (progress != null && ++rows == LoadProgress.REPORT_INTERVAL_ROWS) {
+                flush(csv);
+            }
+        }
+
+        void flush(CsvTokenizer csv) {
+            if (progress != null) {
+                long position = csv.position();
+                progress.advance(rows, position - reported);
+                reported = position;
+                rows = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.healthcare.data;
+
+/**
+ * Immutable hash map from String keys, shared between versions (hash array mapped trie)
+ * Each node covers five bits of the key's hash and stores its entries and child nodes
+ * in an array sized to a bitmap of the slots in use, so an update copies only the nodes
+ * on the path to the key: at most seven small arrays, whatever the size of the map.
+ * A Builder updates nodes it created itself in place, which makes bulk loads cheap.
+ */
+final class PersistentMap<V> {
+    private static final PersistentMap<?> EMPTY = new PersistentMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentMap<V> empty() {
+        return (PersistentMap<V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(String key) {
+        return root == null ? null : (V) root.find(0, hash(key), key);
+    }
+
+    PersistentMap<V> plus(String key, V value) {
+        return new Builder<>(this, null).put(key, value).build();
+    }
+
+    PersistentMap<V> minus(String key) {
+        return new Builder<>(this, null).remove(key).build();
+    }
+
+    /**
+     * Builder starting from this map; it never changes nodes this map can see
+     */
+    Builder<V> builder() {
+        return new Builder<>(this, new Object());
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Applies a run of changes; with an edit token, nodes it has already copied are
+     * changed in place instead of being copied again
+     */
+    static final class Builder<V> {
+        private final Object edit;
+        private Node root;
+        private int size;
+        private final boolean[] changed = new boolean[1];
+
+        private Builder(PersistentMap<V> base, Object edit) {
+            this.edit = edit;
+            this.root = base.root;
+            this.size = base.size;
+        }
+
+        Builder<V> put(String key, V value) {
+            changed[0] = false;
+            Node start = root == null ? BitmapNode.EMPTY : root;
+            root = start.put(edit, 0, hash(key), key, value, changed);
+            if (changed[0]) {
+                size++;
+            }
+            return this;
+        }
+
+        Builder<V> remove(String key) {
+            if (root != null) {
+                changed[0] = false;
+                root = root.remove(edit, 0, hash(key), key, changed);
+                if (changed[0]) {
+                    size--;
+                }
+            }
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(String key) {
+            return root == null ? null : (V) root.find(0, hash(key), key);
+        }
+
+        PersistentMap<V> build() {
+            return new PersistentMap<>(root, size);
+        }
+    }
+
+    private interface Node {
+        Object find(int shift, int hash, String key);
+
+        /**
+         * @param added set to true if the key was not present before
+         */
+        Node put(Object edit, int shift, int hash, String key, Object value, boolean[] added);
+
+        /**
+         * @param removed set to true if the key was present
+         * @return the node without the key, or null if it is now empty
+         */
+        Node remove(Object edit, int shift, int hash, String key, boolean[] removed);
+    }
+
+    /**
+     * Node holding, for each slot in use, either a key and its value or (null, child node)
+     */
+    private static final class BitmapNode implements Node {
+        static final BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+        private final Object edit;
+        private int bitmap;
+        private Object[] array;
+
+        BitmapNode(Object edit, int bitmap, Object[] array) {
+            this.edit = edit;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        @Override
+        public Object find(int shift, int hash, String key) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int index = Integer.bitCount(bitmap & (bit - 1)) * 2;
+            Object storedKey = array[index];
+            if (storedKey == null) {
+                return ((Node) array[index + 1]).find(shift + 5, hash, key);
+            }
+            return key.equals(storedKey) ? array[index + 1] : null;
+        }
+
+        @Override
+        public Node put(Object edit, int shift, int hash, String key, Object value, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            int index = Integer.bitCount(bitmap & (bit - 1)) * 2;
+            if ((bitmap & bit) != 0) {
+                Object storedKey = array[index];
+                Object stored = array[index + 1];
+                if (storedKey == null) {
+                    Node child = ((Node) stored).put(edit, shift + 5, hash, key, value, added);
+                    return child == stored ? this : withSlot(edit, index, null, child);
+                }
+                if (key.equals(storedKey)) {
+                    return stored == value ? this : withSlot(edit, index, storedKey, value);
+                }
+                added[0] = true;
+                Node child = pair(edit, shift + 5, (String) storedKey, stored, hash, key, value);
+                return withSlot(edit, index, null, child);
+            }
+
+            added[0] = true;
+            Object[] grown = new Object[array.length + 2];
+            System.arraycopy(array, 0, grown, 0, index);
+            grown[index] = key;
+            grown[index + 1] = value;
+            System.arraycopy(array, index, grown, index + 2, array.length - index);
+            if (editable(edit)) {
+                bitmap |= bit;
+                array = grown;
+                return this;
+            }
+            return new BitmapNode(edit, bitmap | bit, grown);
+        }
+
+        @Override
+        public Node remove(Object edit, int shift, int hash, String key, boolean[] removed) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = Integer.bitCount(bitmap & (bit - 1)) * 2;
+            Object storedKey = array[index];
+            Object stored = array[index + 1];
+            if (storedKey == null) {
+                Node child = ((Node) stored).remove(edit, shift + 5, hash, key, removed);
+                if (child == stored) {
+                    return this;
+                }
+                if (child != null) {
+                    return withSlot(edit, index, null, child);
+                }
+            } else if (key.equals(storedKey)) {
+                removed[0] = true;
+            } else {
+                return this;
+            }
+
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] shrunk = new Object[array.length - 2];
+            System.arraycopy(array, 0, shrunk, 0, index);
+            System.arraycopy(array, index + 2, shrunk, index, array.length - index - 2);
+            if (editable(edit)) {
+                bitmap ^= bit;
+                array = shrunk;
+                return this;
+            }
+            return new BitmapNode(edit, bitmap ^ bit, shrunk);
+        }
+
+        private boolean editable(Object edit) {
+            return edit != null && edit == this.edit;
+        }
+
+        private Node withSlot(Object edit, int index, Object key, Object value) {
+            if (editable(edit)) {
+                array[index] = key;
+                array[index + 1] = value;
+                return this;
+            }
+            Object[] copy = array.clone();
+            copy[index] = key;
+            copy[index + 1] = value;
+            return new BitmapNode(edit, bitmap, copy);
+        }
+
+        private static Node pair(Object edit, int shift, String key1, Object value1,
+                                 int hash2, String key2, Object value2) {
+            int hash1 = hash(key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+            }
+            boolean[] ignored = new boolean[1];
+            return new BitmapNode(edit, 0, new Object[0])
+                    .put(edit, shift, hash1, key1, value1, ignored)
+                    .put(edit, shift, hash2, key2, value2, ignored);
+        }
+    }
+
+    /**
+     * Keys whose whole hash is the same, searched linearly
+     */
+    private static final class CollisionNode implements Node {
+        private final int hash;
+        private final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        @Override
+        public Object find(int shift, int hash, String key) {
+            int index = indexOf(key);
+            return index < 0 ? null : array[index + 1];
+        }
+
+        @Override
+        public Node put(Object edit, int shift, int hash, String key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // Push this node down a level beside the new key
+                BitmapNode parent = new BitmapNode(null, 1 << ((this.hash >>> shift) & 31), new Object[]{null, this});
+                return parent.put(edit, shift, hash, key, value, added);
+            }
+            int index = indexOf(key);
+            if (index >= 0) {
+                if (array[index + 1] == value) {
+                    return this;
+                }
+                Object[] copy = array.clone();
+                copy[index + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+            added[0] = true;
+            Object[] grown = new Object[array.length + 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            grown[array.length] = key;
+            grown[array.length + 1] = value;
+            return new CollisionNode(hash, grown);
+        }
+
+        @Override
+        public Node remove(Object edit, int shift, int hash, String key, boolean[] removed) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            removed[0] = true;
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] shrunk = new Object[array.length - 2];
+            System.arraycopy(array, 0, shrunk, 0, index);
+            System.arraycopy(array, index + 2, shrunk, index, array.length - index - 2);
+            return new CollisionNode(hash, shrunk);
+        }
+
+        private int indexOf(String key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.healthcare.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Prefix index over some short fields of a table, for type-ahead search
+ *
+ * Keys are the field values lower-cased with whitespace removed, so "b11" finds postcode
+ * "B1 1AA". The bulk of the keys live in one sorted array searched by binary search;
+ * rows added since the last merge sit in a small skip list, and are folded into a new
+ * array once they grow past a fraction of it. Loaded files are sorted and merged in a
+ * single pass. The arrays and skip list are published together as one immutable state,
+ * so searches never lock and never see a merge half done.
+ */
+class PrefixIndex<T> implements TableIndex<T> {
+    private static final int MIN_MERGE_SIZE = 4096;
+
+    private final List<Function<T, String>> keyGetters;
+    private volatile State<T> state = new State<>(new String[0], new Object[0]);
+    // Only used by the writer
+    private int recentCount;
+
+    PrefixIndex(List<Function<T, String>> keyGetters) {
+        this.keyGetters = keyGetters;
+    }
+
+    @Override
+    public void add(T row) {
+        State<T> current = state;
+        for (Function<T, String> getter : keyGetters) {
+            String key = normalize(getter.apply(row));
+            if (!key.isEmpty()) {
+                current.recent.computeIfAbsent(key, k -> new AppendOnlyList<>(1)).add(row);
+                recentCount++;
+            }
+        }
+        if (recentCount > Math.max(MIN_MERGE_SIZE, current.keys.length / 8)) {
+            merge(new ArrayList<>());
+        }
+    }
+
+    @Override
+    public void addAll(List<T> loaded) {
+        List<Entry> entries = new ArrayList<>(loaded.size() * keyGetters.size());
+        for (T row : loaded) {
+            for (Function<T, String> getter : keyGetters) {
+                String key = normalize(getter.apply(row));
+                if (!key.isEmpty()) {
+                    entries.add(new Entry(key, row));
+                }
+            }
+        }
+        merge(entries);
+    }
+
+    /**
+     * Up to {@code limit} distinct visible rows with a key starting with the prefix, in key order
+     */
+    @SuppressWarnings("unchecked")
+    List<T> search(String prefix, int limit, Predicate<T> visible) {
+        String key = normalize(prefix);
+        List<T> result = new ArrayList<>(Math.min(limit, 64));
+        if (key.isEmpty() || limit <= 0) {
+            return result;
+        }
+        State<T> current = state;
+        String[] keys = current.keys;
+        Object[] rows = current.rows;
+        Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        int i = lowerBound(keys, key);
+        Iterator<Map.Entry<String, AppendOnlyList<T>>> added =
+                current.recent.subMap(key, true, key + Character.MAX_VALUE, false).entrySet().iterator();
+        Map.Entry<String, AppendOnlyList<T>> next = added.hasNext() ? added.next() : null;
+
+        // Merge the sorted array and the recent entries in key order
+        while (result.size() < limit) {
+            boolean arrayHas = i < keys.length && keys[i].startsWith(key);
+            if (!arrayHas && next == null) {
+                break;
+            }
+            if (arrayHas && (next == null || keys[i].compareTo(next.getKey()) <= 0)) {
+                T row = (T) rows[i++];
+                if (visible.test(row) && seen.add(row)) {
+                    result.add(row);
+                }
+            } else {
+                AppendOnlyList<T> matches = next.getValue();
+                for (int m = 0, size = matches.size(); m < size && result.size() < limit; m++) {
+                    T row = matches.get(m);
+                    if (visible.test(row) && seen.add(row)) {
+                        result.add(row);
+                    }
+                }
+                next = added.hasNext() ? added.next() : null;
+            }
+        }
+        return result;
+    }
+
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        int space = 0;
+        while (space < value.length() && !Character.isWhitespace(value.charAt(space))) {
+            space++;
+        }
+        if (space == value.length()) {
+            return value.toLowerCase(Locale.ROOT);
+        }
+        StringBuilder key = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                key.append(c);
+            }
+        }
+        return key.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static int lowerBound(String[] keys, String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Publish a new sorted array holding the current one, the recent entries and the given ones
+     */
+    private void merge(List<Entry> entries) {
+        State<T> current = state;
+        current.recent.forEach((key, matches) -> {
+            for (int m = 0, size = matches.size(); m < size; m++) {
+                entries.add(new Entry(key, matches.get(m)));
+            }
+        });
+        Entry[] sorted = entries.toArray(new Entry[0]);
+        Arrays.parallelSort(sorted, (a, b) -> a.key.compareTo(b.key));
+
+        String[] keys = current.keys;
+        Object[] rows = current.rows;
+        String[] mergedKeys = new String[keys.length + sorted.length];
+        Object[] mergedRows = new Object[mergedKeys.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < sorted.length) {
+            if (j == sorted.length || (i < keys.length && keys[i].compareTo(sorted[j].key) <= 0)) {
+                mergedKeys[count] = keys[i];
+                mergedRows[count++] = rows[i++];
+            } else {
+                mergedKeys[count] = sorted[j].key;
+                mergedRows[count++] = sorted[j++].row;
+            }
+        }
+        state = new State<>(mergedKeys, mergedRows);
+        recentCount = 0;
+    }
+
+    /**
+     * Sorted keys with their rows, and the entries added since they were sorted
+     */
+    private static class State<T> {
+        private final String[] keys;
+        private final Object[] rows;
+        private final ConcurrentSkipListMap<String, AppendOnlyList<T>> recent = new ConcurrentSkipListMap<>();
+
+        State(String[] keys, Object[] rows) {
+            this.keys = keys;
+            this.rows = rows;
+        }
+    }
+
+    private static class Entry {
+        private final String key;
+        private final Object row;
+
+        Entry(String key, Object row) {
+            this.key = key;
+            this.row = row;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.healthcare.data;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable row order for one version of a table: an AVL tree keyed by the sequence
+ * number each row got when it was added, with subtree sizes so a row can be fetched by
+ * position or its position found from its sequence number
+ * Every change copies only the path from the root to the row, so a new version costs
+ * O(log n) and shares the rest of the tree with the version before it.
+ */
+final class RowTree<T> implements Iterable<T> {
+    private static final RowTree<?> EMPTY = new RowTree<>(null);
+    // A batch touching at least 1/REBUILD_RATIO of the rows is merged and rebuilt instead
+    private static final int REBUILD_RATIO = 16;
+
+    private final Node root;
+
+    private RowTree(Node root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> RowTree<T> empty() {
+        return (RowTree<T>) EMPTY;
+    }
+
+    /**
+     * Balanced tree over rows that are already in order, numbered from firstSequence
+     */
+    static <T> RowTree<T> of(Object[] rows, int count, long firstSequence) {
+        return new RowTree<>(build(rows, 0, count, firstSequence));
+    }
+
+    int size() {
+        return size(root);
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of range for " + size() + " rows");
+        }
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return (T) node.row;
+            }
+        }
+    }
+
+    /**
+     * Position of the row with the given sequence number, or -1 if it is not in the tree
+     */
+    int indexOf(long sequence) {
+        int index = 0;
+        Node node = root;
+        while (node != null) {
+            if (sequence < node.sequence) {
+                node = node.left;
+            } else if (sequence > node.sequence) {
+                index += size(node.left) + 1;
+                node = node.right;
+            } else {
+                return index + size(node.left);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tree with the row inserted, or replaced if the sequence number is already present
+     */
+    RowTree<T> with(long sequence, T row) {
+        return new RowTree<>(insert(root, sequence, row));
+    }
+
+    RowTree<T> without(long sequence) {
+        return new RowTree<>(delete(root, sequence));
+    }
+
+    /**
+     * Tree with every row put at its sequence number; a later pair wins over an earlier one
+     * A batch that is large next to the tree is merged with the rows in one ordered pass
+     * and rebuilt balanced, instead of copying a path for every row.
+     */
+    RowTree<T> withAll(long[] sequences, Object[] rows, int count) {
+        int size = size();
+        if ((long) count * REBUILD_RATIO < size) {
+            Node node = root;
+            for (int i = 0; i < count; i++) {
+                node = insert(node, sequences[i], rows[i]);
+            }
+            return new RowTree<>(node);
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        // Stable, so of two pairs with the same sequence number the later stays last
+        Arrays.sort(order, Comparator.comparingLong(i -> sequences[i]));
+
+        long[] oldSequences = new long[size];
+        Object[] oldRows = new Object[size];
+        flatten(root, oldSequences, oldRows, 0);
+        long[] mergedSequences = new long[size + count];
+        Object[] mergedRows = new Object[size + count];
+        int from = 0;
+        int merged = 0;
+        for (int b = 0; b < count; b++) {
+            int pair = order[b];
+            long sequence = sequences[pair];
+            if (b + 1 < count && sequences[order[b + 1]] == sequence) {
+                continue;
+            }
+            while (from < size && oldSequences[from] < sequence) {
+                mergedSequences[merged] = oldSequences[from];
+                mergedRows[merged++] = oldRows[from++];
+            }
+            if (from < size && oldSequences[from] == sequence) {
+                from++;
+            }
+            mergedSequences[merged] = sequence;
+            mergedRows[merged++] = rows[pair];
+        }
+        while (from < size) {
+            mergedSequences[merged] = oldSequences[from];
+            mergedRows[merged++] = oldRows[from++];
+        }
+        return new RowTree<>(build(mergedSequences, mergedRows, 0, merged));
+    }
+
+    /**
+     * Tree without the rows at the given sequence numbers; numbers not in it are ignored
+     */
+    RowTree<T> withoutAll(long[] sequences, int count) {
+        int size = size();
+        if ((long) count * REBUILD_RATIO < size) {
+            Node node = root;
+            for (int i = 0; i < count; i++) {
+                node = delete(node, sequences[i]);
+            }
+            return new RowTree<>(node);
+        }
+        long[] removed = Arrays.copyOf(sequences, count);
+        Arrays.sort(removed);
+        long[] keptSequences = new long[size];
+        Object[] keptRows = new Object[size];
+        flatten(root, keptSequences, keptRows, 0);
+        int next = 0;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            while (next < count && removed[next] < keptSequences[i]) {
+                next++;
+            }
+            if (next < count && removed[next] == keptSequences[i]) {
+                continue;
+            }
+            keptSequences[kept] = keptSequences[i];
+            keptRows[kept++] = keptRows[i];
+        }
+        return new RowTree<>(build(keptSequences, keptRows, 0, kept));
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private final ArrayDeque<Node> path = new ArrayDeque<>();
+
+            {
+                pushLeft(root);
+            }
+
+            private void pushLeft(Node node) {
+                for (; node != null; node = node.left) {
+                    path.push(node);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (path.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node node = path.pop();
+                pushLeft(node.right);
+                return (T) node.row;
+            }
+        };
+    }
+
+    private static Node build(Object[] rows, int from, int to, long firstSequence) {
+        if (from >= to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        return new Node(firstSequence + middle, rows[middle],
+                build(rows, from, middle, firstSequence), build(rows, middle + 1, to, firstSequence));
+    }
+
+    private static Node build(long[] sequences, Object[] rows, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int middle = (from + to) >>> 1;
+        return new Node(sequences[middle], rows[middle],
+                build(sequences, rows, from, middle), build(sequences, rows, middle + 1, to));
+    }
+
+    /**
+     * Copy the subtree's sequence numbers and rows out in order
+     * @return the position after the last one copied
+     */
+    private static int flatten(Node node, long[] sequences, Object[] rows, int position) {
+        if (node == null) {
+            return position;
+        }
+        position = flatten(node.left, sequences, rows, position);
+        sequences[position] = node.sequence;
+        rows[position++] = node.row;
+        return flatten(node.right, sequences, rows, position);
+    }
+
+    private static Node insert(Node node, long sequence, Object row) {
+        if (node == null) {
+            return new Node(sequence, row, null, null);
+        }
+        if (sequence < node.sequence) {
+            return balance(node.sequence, node.row, insert(node.left, sequence, row), node.right);
+        }
+        if (sequence > node.sequence) {
+            return balance(node.sequence, node.row, node.left, insert(node.right, sequence, row));
+        }
+        return new Node(sequence, row, node.left, node.right);
+    }
+
+    private static Node delete(Node node, long sequence) {
+        if (node == null) {
+            return null;
+        }
+        if (sequence < node.sequence) {
+            return balance(node.sequence, node.row, delete(node.left, sequence), node.right);
+        }
+        if (sequence > node.sequence) {
+            return balance(node.sequence, node.row, node.left, delete(node.right, sequence));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(successor.sequence, successor.row, node.left, delete(node.right, successor.sequence));
+    }
+
+    private static Node balance(long sequence, Object row, Node left, Node right) {
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node(left.sequence, left.row, left.left, new Node(sequence, row, left.right, right));
+            }
+            Node pivot = left.right;
+            return new Node(pivot.sequence, pivot.row,
+                    new Node(left.sequence, left.row, left.left, pivot.left),
+                    new Node(sequence, row, pivot.right, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node(right.sequence, right.row, new Node(sequence, row, left, right.left), right.right);
+            }
+            Node pivot = right.left;
+            return new Node(pivot.sequence, pivot.row,
+                    new Node(sequence, row, left, pivot.left),
+                    new Node(right.sequence, right.row, pivot.right, right.right));
+        }
+        return new Node(sequence, row, left, right);
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static final class Node {
+        final long sequence;
+        final Object row;
+        final Node left;
+        final Node right;
+        final int size;
+        final int height;
+
+        Node(long sequence, Object row, Node left, Node right) {
+            this.sequence = sequence;
+            this.row = row;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + size(right) + 1;
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+    }
+}
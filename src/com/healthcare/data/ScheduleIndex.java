@@ -0,0 +1,146 @@
+package com.healthcare.data;
+
+import com.healthcare.model.Appointment;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Appointments of each facility or clinician, sorted by start time
+ * Start times are packed into minutes since the epoch, so range, day and next-N queries
+ * are a tree descent plus a walk over the matching appointments only. Appointments whose
+ * date or time cannot be read are not indexed.
+ */
+class ScheduleIndex implements TableIndex<Appointment> {
+    private static final long MINUTES_PER_DAY = 24 * 60;
+    static final long NO_TIME = Long.MIN_VALUE;
+
+    private final Function<Appointment, String> ownerGetter;
+    private final Map<String, ConcurrentSkipListMap<Long, AppendOnlyList<Appointment>>> schedules =
+            new ConcurrentHashMap<>();
+
+    ScheduleIndex(Function<Appointment, String> ownerGetter) {
+        this.ownerGetter = ownerGetter;
+    }
+
+    @Override
+    public void add(Appointment appointment) {
+        String owner = ownerGetter.apply(appointment);
+        long start = epochMinute(appointment.getDate(), appointment.getTime());
+        if (owner == null || owner.isEmpty() || start == NO_TIME) {
+            return;
+        }
+        schedules.computeIfAbsent(owner, k -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(start, k -> new AppendOnlyList<>(1))
+                .add(appointment);
+    }
+
+    /**
+     * Visible appointments starting in [from, to), in start order
+     */
+    List<Appointment> between(String owner, LocalDateTime from, LocalDateTime to, Predicate<Appointment> visible) {
+        List<Appointment> result = new ArrayList<>();
+        NavigableMap<Long, AppendOnlyList<Appointment>> schedule = schedules.get(owner);
+        if (schedule != null) {
+            for (AppendOnlyList<Appointment> slot
+                    : schedule.subMap(epochMinute(from), true, epochMinute(to), false).values()) {
+                collect(slot, visible, result, Integer.MAX_VALUE);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Visible appointments on the given day, in start order
+     */
+    List<Appointment> onDay(String owner, LocalDate day, Predicate<Appointment> visible) {
+        return between(owner, day.atStartOfDay(), day.plusDays(1).atStartOfDay(), visible);
+    }
+
+    /**
+     * The first {@code count} visible appointments starting at or after {@code from}
+     */
+    List<Appointment> next(String owner, LocalDateTime from, int count, Predicate<Appointment> visible) {
+        List<Appointment> result = new ArrayList<>(Math.min(count, 64));
+        NavigableMap<Long, AppendOnlyList<Appointment>> schedule = schedules.get(owner);
+        if (schedule == null) {
+            return result;
+        }
+        for (AppendOnlyList<Appointment> slot : schedule.tailMap(epochMinute(from), true).values()) {
+            if (result.size() == count) {
+                break;
+            }
+            collect(slot, visible, result, count);
+        }
+        return result;
+    }
+
+    private static void collect(AppendOnlyList<Appointment> slot, Predicate<Appointment> visible,
+                                List<Appointment> result, int limit) {
+        for (int i = 0, size = slot.size(); i < size && result.size() < limit; i++) {
+            Appointment appointment = slot.get(i);
+            if (visible.test(appointment)) {
+                result.add(appointment);
+            }
+        }
+    }
+
+    static long epochMinute(LocalDateTime time) {
+        return time.toLocalDate().toEpochDay() * MINUTES_PER_DAY + time.getHour() * 60L + time.getMinute();
+    }
+
+    /**
+     * Pack a yyyy-MM-dd date and an H:mm or HH:mm time into minutes since the epoch
+     * A blank time counts as midnight.
+     * @return NO_TIME if either value cannot be read
+     */
+    static long epochMinute(String date, String time) {
+        if (date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+            return NO_TIME;
+        }
+        int year = digits(date, 0, 4);
+        int month = digits(date, 5, 7);
+        int day = digits(date, 8, 10);
+        int minutes = 0;
+        if (time != null && !time.isEmpty()) {
+            int colon = time.indexOf(':');
+            if (colon < 1 || colon > 2 || time.length() < colon + 3) {
+                return NO_TIME;
+            }
+            int hour = digits(time, 0, colon);
+            int minute = digits(time, colon + 1, colon + 3);
+            if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+                return NO_TIME;
+            }
+            minutes = hour * 60 + minute;
+        }
+        if (year < 0 || month < 0 || day < 0) {
+            return NO_TIME;
+        }
+        try {
+            return LocalDate.of(year, month, day).toEpochDay() * MINUTES_PER_DAY + minutes;
+        } catch (DateTimeException e) {
+            return NO_TIME;
+        }
+    }
+
+    private static int digits(String text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,473 @@
+package com.healthcare.data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Binary columnar snapshot of all seven tables, used to skip CSV parsing on warm starts
+ *
+ * Layout: magic, version and table count, the size and modification time each CSV file
+ * had when the load that wrote the snapshot began, then for each table its file name,
+ * column and row counts and a run of row groups, each with its own CRC32. The snapshot
+ * is only used while every CSV file still has the size and time recorded, so a checkpoint
+ * that rewrites a file at any point after that load started, even before the snapshot
+ * itself is written, makes it stale.
+ * A row group stores its columns one after another; each column is either plain
+ * (a length-prefixed UTF-8 value per row) or, when values repeat, dictionary encoded
+ * (the distinct values once, then a varint code per row). Row groups keep memory use
+ * bounded on both write and read, and each one is read through its own file mapping.
+ * A group's checksum is checked before any of it is decoded. A snapshot found to be
+ * corrupt is renamed to healthcare.snapshot.corrupt, so the CSV files are read instead
+ * and the next clean load writes a new one.
+ */
+class SnapshotStore {
+    static final String FILE_NAME = "healthcare.snapshot";
+    static final String CORRUPT_FILE_NAME = FILE_NAME + ".corrupt";
+
+    private static final int MAGIC = 0x48435348; // "HCSH"
+    private static final int FORMAT_VERSION = 3;
+    private static final int ROWS_PER_GROUP = 64 * 1024;
+    private static final byte PLAIN = 0;
+    private static final byte DICTIONARY = 1;
+
+    private final Path dataDirectory;
+    private final Path file;
+
+    SnapshotStore(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
+        this.file = dataDirectory.resolve(FILE_NAME);
+    }
+
+    /**
+     * True if a snapshot exists and every CSV file is as it was when the snapshot's rows
+     * were read from it
+     */
+    boolean isFresh() throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        SourceFiles recorded;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Reader reader = new Reader(channel);
+            if (reader.readInt() != MAGIC || reader.readInt() != FORMAT_VERSION
+                    || reader.readInt() != TableFormat.ALL.size()) {
+                return false;
+            }
+            recorded = SourceFiles.read(reader);
+        }
+        return recorded.equals(sourceFiles());
+    }
+
+    /**
+     * The current size and modification time of every CSV file
+     * Taken before the files are read, and written into the snapshot built from them.
+     */
+    SourceFiles sourceFiles() throws IOException {
+        SourceFiles sources = new SourceFiles();
+        for (int i = 0; i < TableFormat.ALL.size(); i++) {
+            Path csv = dataDirectory.resolve(TableFormat.ALL.get(i).getFileName());
+            if (Files.exists(csv)) {
+                sources.sizes[i] = Files.size(csv);
+                sources.modified[i] = Files.getLastModifiedTime(csv).to(TimeUnit.NANOSECONDS);
+            } else {
+                sources.sizes[i] = -1;
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Write every table to a temporary file and move it into place atomically
+     */
+    void write(Contents contents) throws IOException {
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(TableFormat.ALL.size());
+            contents.sources.write(out);
+            for (TableFormat<?> format : TableFormat.ALL) {
+                writeTable(out, format, contents);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Size of the snapshot file in bytes
+     */
+    long size() throws IOException {
+        return Files.size(file);
+    }
+
+    /**
+     * Read every table, failing with an IOException if the snapshot is corrupt or
+     * was written for a different table layout
+     */
+    Contents read() throws IOException {
+        return read(null);
+    }
+
+    /**
+     * Read every table, counting each row group against the given progress, if any
+     * A corrupt snapshot is moved aside before the IOException is thrown.
+     */
+    Contents read(LoadProgress.FileProgress progress) throws IOException {
+        try {
+            return readFile(progress);
+        } catch (CorruptSnapshotException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    private Contents readFile(LoadProgress.FileProgress progress) throws IOException {
+        Contents contents = new Contents();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Reader reader = new Reader(channel);
+            if (reader.readInt() != MAGIC || reader.readInt() != FORMAT_VERSION) {
+                throw new CorruptSnapshotException("not a snapshot file: " + file);
+            }
+            if (reader.readInt() != TableFormat.ALL.size()) {
+                throw new CorruptSnapshotException("different table count");
+            }
+            contents.sources = SourceFiles.read(reader);
+            for (TableFormat<?> format : TableFormat.ALL) {
+                readTable(reader, format, contents, progress);
+            }
+        } catch (RuntimeException e) {
+            // Bytes that passed their checksum but still do not decode or parse
+            throw new CorruptSnapshotException(e.toString(), e);
+        }
+        return contents;
+    }
+
+    /**
+     * Move a corrupt snapshot out of the way so later loads do not trip over it again
+     */
+    private void discard() {
+        try {
+            Files.move(file, file.resolveSibling(CORRUPT_FILE_NAME), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Error moving aside corrupt snapshot: " + e.getMessage());
+        }
+    }
+
+    private static <T> void writeTable(DataOutputStream out, TableFormat<T> format, Contents contents)
+            throws IOException {
+        List<T> rows = contents.get(format);
+        int columns = format.getColumnCount();
+        byte[] name = format.getFileName().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(name.length);
+        out.write(name);
+        out.writeInt(columns);
+        out.writeLong(rows.size());
+
+        CRC32 crc = new CRC32();
+        GroupBuffer group = new GroupBuffer();
+        String[][] values = new String[columns][];
+        for (int start = 0; start < rows.size(); start += ROWS_PER_GROUP) {
+            int count = Math.min(ROWS_PER_GROUP, rows.size() - start);
+            for (int c = 0; c < columns; c++) {
+                values[c] = new String[count];
+            }
+            for (int r = 0; r < count; r++) {
+                String[] fields = format.format(rows.get(start + r));
+                for (int c = 0; c < columns; c++) {
+                    values[c][r] = fields[c];
+                }
+            }
+            group.reset();
+            for (int c = 0; c < columns; c++) {
+                writeColumn(group, values[c]);
+            }
+            crc.reset();
+            group.updateChecksum(crc);
+            out.writeInt(count);
+            out.writeInt(group.size());
+            out.writeLong(crc.getValue());
+            group.writeTo(out);
+        }
+        out.writeInt(0); // end of row groups
+    }
+
+    private static void writeColumn(ByteArrayOutputStream out, String[] values) {
+        Map<String, Integer> codes = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        int maxDistinct = values.length / 2;
+        for (String value : values) {
+            if (!codes.containsKey(value)) {
+                if (dictionary.size() >= maxDistinct) {
+                    dictionary = null;
+                    break;
+                }
+                codes.put(value, dictionary.size());
+                dictionary.add(value);
+            }
+        }
+
+        if (dictionary == null) {
+            out.write(PLAIN);
+            for (String value : values) {
+                BinaryIO.writeString(out, value);
+            }
+        } else {
+            out.write(DICTIONARY);
+            BinaryIO.writeVarInt(out, dictionary.size());
+            for (String value : dictionary) {
+                BinaryIO.writeString(out, value);
+            }
+            for (String value : values) {
+                BinaryIO.writeVarInt(out, codes.get(value));
+            }
+        }
+    }
+
+    private static <T> void readTable(Reader reader, TableFormat<T> format, Contents contents,
+                                      LoadProgress.FileProgress progress) throws IOException {
+        String name = reader.readString(reader.readInt());
+        int columns = reader.readInt();
+        long rowCount = reader.readLong();
+        if (!name.equals(format.getFileName()) || columns != format.getColumnCount()) {
+            throw new CorruptSnapshotException("layout does not match " + format.getFileName());
+        }
+        // Every row takes at least a byte per column, so a larger count cannot be genuine
+        if (rowCount < 0 || rowCount > reader.remaining()) {
+            throw new CorruptSnapshotException("bad row count in table " + name);
+        }
+
+        List<T> rows = new ArrayList<>((int) rowCount);
+        CRC32 crc = new CRC32();
+        String[][] values = new String[columns][];
+        ColumnRecord record = new ColumnRecord(values);
+        int count;
+        while ((count = reader.readInt()) > 0) {
+            int groupSize = reader.readInt();
+            long checksum = reader.readLong();
+            MappedByteBuffer group = reader.mapNext(groupSize);
+            crc.reset();
+            crc.update(group.duplicate());
+            if (crc.getValue() != checksum) {
+                throw new CorruptSnapshotException("checksum mismatch in table " + name);
+            }
+            for (int c = 0; c < columns; c++) {
+                values[c] = readColumn(group, count);
+            }
+            for (int r = 0; r < count; r++) {
+                record.row = r;
+                T row = format.parse(record);
+                if (row != null) {
+                    rows.add(row);
+                }
+            }
+            if (progress != null) {
+                progress.advance(count, groupSize + 8L);
+            }
+        }
+        if (rows.size() != rowCount) {
+            throw new CorruptSnapshotException("row count mismatch in table " + name);
+        }
+        contents.put(format, rows);
+    }
+
+    private static String[] readColumn(ByteBuffer in, int count) throws IOException {
+        String[] values = new String[count];
+        byte encoding = in.get();
+        if (encoding == PLAIN) {
+            for (int r = 0; r < count; r++) {
+                values[r] = BinaryIO.readString(in);
+            }
+        } else if (encoding == DICTIONARY) {
+            String[] dictionary = new String[BinaryIO.readVarInt(in)];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = BinaryIO.readString(in);
+            }
+            for (int r = 0; r < count; r++) {
+                values[r] = dictionary[BinaryIO.readVarInt(in)];
+            }
+        } else {
+            throw new CorruptSnapshotException("unknown column encoding " + encoding);
+        }
+        return values;
+    }
+
+    /**
+     * Tables read from or written to a snapshot, keyed by their format
+     */
+    static class Contents {
+        private final Map<TableFormat<?>, List<?>> tables = new HashMap<>();
+        private SourceFiles sources;
+
+        Contents() {
+            this(new SourceFiles());
+        }
+
+        /**
+         * Contents read from CSV files that were as described when reading began
+         */
+        Contents(SourceFiles sources) {
+            this.sources = sources;
+        }
+
+        <T> void put(TableFormat<T> format, List<T> rows) {
+            tables.put(format, rows);
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> List<T> get(TableFormat<T> format) {
+            List<?> rows = tables.get(format);
+            return rows == null ? new ArrayList<>() : (List<T>) rows;
+        }
+    }
+
+    /**
+     * Size and modification time of each table's CSV file, in TableFormat.ALL order;
+     * a size of -1 means the file was missing
+     */
+    static final class SourceFiles {
+        private final long[] sizes = new long[TableFormat.ALL.size()];
+        private final long[] modified = new long[TableFormat.ALL.size()];
+
+        private void write(DataOutputStream out) throws IOException {
+            for (int i = 0; i < sizes.length; i++) {
+                out.writeLong(sizes[i]);
+                out.writeLong(modified[i]);
+            }
+        }
+
+        private static SourceFiles read(Reader reader) throws IOException {
+            SourceFiles sources = new SourceFiles();
+            for (int i = 0; i < sources.sizes.length; i++) {
+                sources.sizes[i] = reader.readLong();
+                sources.modified[i] = reader.readLong();
+            }
+            return sources;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof SourceFiles files
+                    && Arrays.equals(sizes, files.sizes) && Arrays.equals(modified, files.modified);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(sizes) + Arrays.hashCode(modified);
+        }
+    }
+
+    /**
+     * The snapshot's own bytes are wrong, as opposed to the file being unreadable
+     */
+    private static class CorruptSnapshotException extends IOException {
+        CorruptSnapshotException(String message) {
+            super("Corrupt snapshot: " + message);
+        }
+
+        CorruptSnapshotException(String message, Throwable cause) {
+            super("Corrupt snapshot: " + message, cause);
+        }
+    }
+
+    /**
+     * Row group bytes being encoded, checksummed without copying them out
+     */
+    private static class GroupBuffer extends ByteArrayOutputStream {
+        GroupBuffer() {
+            super(1 << 20);
+        }
+
+        void updateChecksum(CRC32 crc) {
+            crc.update(buf, 0, count);
+        }
+    }
+
+    /**
+     * Presents one row of decoded column arrays to a TableFormat parser
+     */
+    private static class ColumnRecord implements CsvRecord {
+        private final String[][] columns;
+        private int row;
+
+        ColumnRecord(String[][] columns) {
+            this.columns = columns;
+        }
+
+        @Override
+        public int fieldCount() {
+            return columns.length;
+        }
+
+        @Override
+        public String field(int index) {
+            return columns[index][row];
+        }
+    }
+
+    /**
+     * Sequential reader over the snapshot file that maps each row group separately
+     */
+    private static class Reader {
+        private final FileChannel channel;
+        private final ByteBuffer scratch = ByteBuffer.allocate(8);
+        private long position;
+
+        Reader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        int readInt() throws IOException {
+            return fill(4).getInt();
+        }
+
+        long readLong() throws IOException {
+            return fill(8).getLong();
+        }
+
+        String readString(int length) throws IOException {
+            return StandardCharsets.UTF_8.decode(mapNext(length)).toString();
+        }
+
+        long remaining() throws IOException {
+            return channel.size() - position;
+        }
+
+        MappedByteBuffer mapNext(int length) throws IOException {
+            if (length < 0 || position + length > channel.size()) {
+                throw new CorruptSnapshotException("truncated");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            position += length;
+            return buffer;
+        }
+
+        private ByteBuffer fill(int length) throws IOException {
+            scratch.clear().limit(length);
+            while (scratch.hasRemaining()) {
+                if (channel.read(scratch, position + scratch.position()) < 0) {
+                    throw new CorruptSnapshotException("truncated");
+                }
+            }
+            position += length;
+            return scratch.flip();
+        }
+    }
+}
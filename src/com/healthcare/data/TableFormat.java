@@ -0,0 +1,336 @@
+package com.healthcare.data;
+
+import com.healthcare.model.*;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ObjLongConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * CSV layout of one entity table: its file name, header, and the mapping
+ * between a record's fields (in header order) and the model object
+ */
+public final class TableFormat<T> {
+    public static final TableFormat<Patient> PATIENTS = new TableFormat<>("patients.csv",
+            "patient_id,first_name,last_name,date_of_birth,nhs_number,gender,phone_number,email,address,postcode,emergency_contact_name,emergency_contact_phone,registration_date,gp_surgery_id",
+            Patient::getPatientID, TableFormat::parsePatient, TableFormat::formatPatient,
+            Patient::getVersion, Patient::setVersion);
+    public static final TableFormat<Clinician> CLINICIANS = new TableFormat<>("clinicians.csv",
+            "clinician_id,first_name,last_name,title,speciality,gmc_number,phone_number,email,workplace_id,workplace_type,employment_status,start_date",
+            Clinician::getClinicianID, TableFormat::parseClinician, TableFormat::formatClinician,
+            Clinician::getVersion, Clinician::setVersion);
+    public static final TableFormat<Facility> FACILITIES = new TableFormat<>("facilities.csv",
+            "facility_id,facility_name,facility_type,address,postcode,phone_number,email,opening_hours,manager_name,capacity,specialities_offered",
+            Facility::getFacilityID, TableFormat::parseFacility, TableFormat::formatFacility,
+            Facility::getVersion, Facility::setVersion);
+    public static final TableFormat<Appointment> APPOINTMENTS = new TableFormat<>("appointments.csv",
+            "appointment_id,patient_id,clinician_id,facility_id,appointment_date,appointment_time,duration_minutes,appointment_type,status,reason_for_visit,notes,created_date,last_modified",
+            Appointment::getAppointmentID, TableFormat::parseAppointment, TableFormat::formatAppointment,
+            Appointment::getVersion, Appointment::setVersion);
+    public static final TableFormat<Prescription> PRESCRIPTIONS = new TableFormat<>("prescriptions.csv",
+            "prescription_id,patient_id,clinician_id,appointment_id,prescription_date,medication_name,dosage,frequency,duration_days,quantity,instructions,pharmacy_name,status,issue_date,collection_date",
+            Prescription::getPrescriptionID, TableFormat::parsePrescription, TableFormat::formatPrescription,
+            Prescription::getVersion, Prescription::setVersion);
+    public static final TableFormat<Referral> REFERRALS = new TableFormat<>("referrals.csv",
+            "referral_id,patient_id,referring_clinician_id,referred_to_clinician_id,referring_facility_id,referred_to_facility_id,referral_date,urgency_level,referral_reason,clinical_summary,requested_investigations,status,appointment_id,notes,created_date,last_updated",
+            Referral::getReferralID, TableFormat::parseReferral, TableFormat::formatReferral,
+            Referral::getVersion, Referral::setVersion);
+    public static final TableFormat<Staff> STAFF = new TableFormat<>("staff.csv",
+            "staff_id,first_name,last_name,role,department,facility_id,phone_number,email,employment_status,start_date,line_manager,access_level",
+            Staff::getStaffID, TableFormat::parseStaff, TableFormat::formatStaff,
+            Staff::getVersion, Staff::setVersion);
+
+    // All tables, in load order
+    public static final List<TableFormat<?>> ALL = List.of(
+            PATIENTS, CLINICIANS, FACILITIES, APPOINTMENTS, PRESCRIPTIONS, REFERRALS, STAFF);
+
+    private final String fileName;
+    private final String header;
+    private final int columnCount;
+    private final Function<T, String> idGetter;
+    private final Function<CsvRecord, T> parser;
+    private final Function<T, String[]> formatter;
+    private final ToLongFunction<T> versionGetter;
+    private final ObjLongConsumer<T> versionSetter;
+
+    private TableFormat(String fileName, String header, Function<T, String> idGetter,
+                        Function<CsvRecord, T> parser, Function<T, String[]> formatter,
+                        ToLongFunction<T> versionGetter, ObjLongConsumer<T> versionSetter) {
+        this.fileName = fileName;
+        this.header = header;
+        this.columnCount = header.split(",").length;
+        this.idGetter = idGetter;
+        this.parser = parser;
+        this.formatter = formatter;
+        this.versionGetter = versionGetter;
+        this.versionSetter = versionSetter;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Primary key of a model object (the first column)
+     */
+    public String getId(T row) {
+        return idGetter.apply(row);
+    }
+
+    /**
+     * Number of updates made to the row since it was loaded
+     */
+    public long getVersion(T row) {
+        return versionGetter.applyAsLong(row);
+    }
+
+    void setVersion(T row, long version) {
+        versionSetter.accept(row, version);
+    }
+
+    /**
+     * Build the model object for a record, or null if the record has too few fields
+     */
+    public T parse(CsvRecord record) {
+        return parser.apply(record);
+    }
+
+    /**
+     * Field values of a model object, in header order
+     */
+    public String[] format(T row) {
+        return formatter.apply(row);
+    }
+
+    private static Patient parsePatient(CsvRecord csv) {
+        // Expected CSV (patients.csv):
+        // patient_id,first_name,last_name,date_of_birth,nhs_number,gender,phone_number,email,address,postcode,emergency_contact_name,emergency_contact_phone,registration_date,gp_surgery_id
+        if (csv.fieldCount() < 14) {
+            return null;
+        }
+        return new Patient(
+                csv.field(0),  // patient_id
+                csv.field(1),  // first_name
+                csv.field(2),  // last_name
+                csv.field(3),  // date_of_birth
+                csv.field(5),  // gender
+                csv.field(4),  // nhs_number
+                csv.field(7),  // email
+                csv.field(6),  // phone_number
+                csv.field(8),  // address
+                csv.field(9),  // postcode
+                csv.field(10), // emergency_contact_name
+                csv.field(11), // emergency_contact_phone
+                csv.field(12), // registration_date
+                csv.field(13)  // gp_surgery_id
+        );
+    }
+
+    private static String[] formatPatient(Patient p) {
+        return new String[] {
+                p.getPatientID(), p.getFirstName(), p.getLastName(), p.getDateOfBirth(), p.getNhsNumber(),
+                p.getGender(), p.getPhone(), p.getEmail(), p.getAddress(), p.getPostcode(),
+                p.getEmergencyContactName(), p.getEmergencyContactPhone(), p.getRegistrationDate(), p.getGpSurgery()
+        };
+    }
+
+    private static Clinician parseClinician(CsvRecord csv) {
+        // Expected CSV (clinicians.csv):
+        // clinician_id,first_name,last_name,title,speciality,gmc_number,phone_number,email,workplace_id,workplace_type,employment_status,start_date
+        if (csv.fieldCount() < 12) {
+            return null;
+        }
+        return new Clinician(
+                csv.field(0),  // clinician_id
+                csv.field(1),  // first_name
+                csv.field(2),  // last_name
+                csv.field(3),  // title -> qualification
+                csv.field(4),  // speciality -> specialty
+                csv.field(5),  // gmc_number
+                csv.field(8),  // workplace_id -> workplace
+                csv.field(9),  // workplace_type
+                csv.field(10), // employment_status
+                csv.field(11), // start_date
+                csv.field(7),  // email
+                csv.field(6)   // phone_number
+        );
+    }
+
+    private static String[] formatClinician(Clinician c) {
+        return new String[] {
+                c.getClinicianID(), c.getFirstName(), c.getLastName(), c.getQualification(), c.getSpecialty(),
+                c.getGmcNumber(), c.getPhone(), c.getEmail(), c.getWorkplace(), c.getWorkplaceType(),
+                c.getEmploymentStatus(), c.getStartDate()
+        };
+    }
+
+    private static Facility parseFacility(CsvRecord csv) {
+        // Expected CSV (facilities.csv):
+        // facility_id,facility_name,facility_type,address,postcode,phone_number,email,opening_hours,manager_name,capacity,specialities_offered
+        if (csv.fieldCount() < 11) {
+            return null;
+        }
+        return new Facility(
+                csv.field(0),  // facility_id
+                csv.field(1),  // facility_name
+                csv.field(2),  // facility_type
+                csv.field(3),  // address
+                csv.field(4),  // postcode
+                csv.field(5),  // phone_number
+                csv.field(6),  // email
+                csv.field(7),  // opening_hours
+                csv.field(8),  // manager_name
+                csv.field(10), // specialities_offered -> services
+                csv.field(9)   // capacity
+        );
+    }
+
+    private static String[] formatFacility(Facility f) {
+        return new String[] {
+                f.getFacilityID(), f.getName(), f.getType(), f.getAddress(), f.getPostcode(), f.getPhone(),
+                f.getEmail(), f.getOpeningHours(), f.getManagerName(), f.getCapacity(), f.getServices()
+        };
+    }
+
+    private static Appointment parseAppointment(CsvRecord csv) {
+        // Expected CSV (appointments.csv):
+        // appointment_id,patient_id,clinician_id,facility_id,appointment_date,appointment_time,
+        // duration_minutes,appointment_type,status,reason_for_visit,notes,created_date,last_modified
+        if (csv.fieldCount() < 13) {
+            return null;
+        }
+        return new Appointment(
+                csv.field(0),  // appointment_id
+                csv.field(1),  // patient_id
+                csv.field(2),  // clinician_id
+                csv.field(3),  // facility_id
+                csv.field(4),  // appointment_date
+                csv.field(5),  // appointment_time
+                csv.field(6),  // duration_minutes
+                csv.field(7),  // appointment_type
+                csv.field(8),  // status
+                csv.field(9),  // reason_for_visit
+                csv.field(10), // notes
+                csv.field(11), // created_date
+                csv.field(12)  // last_modified
+        );
+    }
+
+    private static String[] formatAppointment(Appointment a) {
+        return new String[] {
+                a.getAppointmentID(), a.getPatientID(), a.getClinicianID(), a.getFacilityID(), a.getDate(),
+                a.getTime(), a.getDurationMinutes(), a.getAppointmentType(), a.getStatus(), a.getReason(),
+                a.getNotes(), a.getCreatedDate(), a.getLastModified()
+        };
+    }
+
+    private static Prescription parsePrescription(CsvRecord csv) {
+        // Expected CSV (prescriptions.csv):
+        // prescription_id,patient_id,clinician_id,appointment_id,prescription_date,medication_name,
+        // dosage,frequency,duration_days,quantity,instructions,pharmacy_name,status,issue_date,collection_date
+        if (csv.fieldCount() < 15) {
+            return null;
+        }
+        return new Prescription(
+                csv.field(0),   // prescription_id
+                csv.field(1),   // patient_id
+                csv.field(2),   // clinician_id
+                csv.field(3),   // appointment_id
+                csv.field(5),   // medication_name
+                csv.field(6),   // dosage
+                csv.field(7),   // frequency
+                csv.field(8),   // duration_days
+                csv.field(9),   // quantity
+                csv.field(11),  // pharmacy_name
+                csv.field(4),   // prescription_date
+                csv.field(13),  // issue_date
+                csv.field(14),  // collection_date
+                csv.field(12),  // status -> collectionStatus
+                csv.field(10)   // instructions -> notes
+        );
+    }
+
+    private static String[] formatPrescription(Prescription p) {
+        return new String[] {
+                p.getPrescriptionID(), p.getPatientID(), p.getClinicianID(), p.getAppointmentID(),
+                p.getDatePrescribed(), p.getMedication(), p.getDosage(), p.getFrequency(), p.getDurationDays(),
+                p.getQuantity(), p.getNotes(), p.getPharmacy(), p.getCollectionStatus(), p.getIssueDate(),
+                p.getCollectionDate()
+        };
+    }
+
+    private static Referral parseReferral(CsvRecord csv) {
+        // Expected CSV (referrals.csv):
+        // referral_id,patient_id,referring_clinician_id,referred_to_clinician_id,
+        // referring_facility_id,referred_to_facility_id,referral_date,urgency_level,
+        // referral_reason,clinical_summary,requested_investigations,status,appointment_id,notes,created_date,last_updated
+        if (csv.fieldCount() < 16) {
+            return null;
+        }
+        return new Referral(
+                csv.field(0),   // referral_id
+                csv.field(1),   // patient_id
+                csv.field(2),   // referring_clinician_id
+                csv.field(3),   // referred_to_clinician_id
+                csv.field(4),   // referring_facility_id
+                csv.field(5),   // referred_to_facility_id
+                csv.field(6),   // referral_date
+                csv.field(7),   // urgency_level
+                csv.field(8),   // referral_reason
+                csv.field(9),   // clinical_summary
+                csv.field(10),  // requested_investigations
+                csv.field(12),  // appointment_id
+                csv.field(13),  // notes
+                csv.field(11),  // status
+                csv.field(14),  // created_date
+                csv.field(15)   // last_updated
+        );
+    }
+
+    private static String[] formatReferral(Referral r) {
+        return new String[] {
+                r.getReferralID(), r.getPatientID(), r.getReferringClinicianID(), r.getReceivingClinicianID(),
+                r.getReferringFacility(), r.getReceivingFacility(), r.getDate(), r.getUrgency(),
+                r.getReferralReason(), r.getClinicalSummary(), r.getRequestedInvestigations(), r.getStatus(),
+                r.getAppointmentID(), r.getNotes(), r.getCreatedDate(), r.getLastUpdated()
+        };
+    }
+
+    private static Staff parseStaff(CsvRecord csv) {
+        // Expected CSV (staff.csv):
+        // staff_id,first_name,last_name,role,department,facility_id,phone_number,email,employment_status,start_date,line_manager,access_level
+        if (csv.fieldCount() < 12) {
+            return null;
+        }
+        return new Staff(
+                csv.field(0),  // staff_id
+                csv.field(1),  // first_name
+                csv.field(2),  // last_name
+                csv.field(3),  // role
+                csv.field(4),  // department
+                csv.field(5),  // facility_id
+                csv.field(7),  // email
+                csv.field(6),  // phone_number
+                csv.field(8),  // employment_status
+                csv.field(9),  // start_date
+                csv.field(10), // line_manager
+                csv.field(11)  // access_level
+        );
+    }
+
+    private static String[] formatStaff(Staff s) {
+        return new String[] {
+                s.getStaffID(), s.getFirstName(), s.getLastName(), s.getRole(), s.getDepartment(),
+                s.getFacilityID(), s.getPhone(), s.getEmail(), s.getEmploymentStatus(), s.getStartDate(),
+                s.getLineManager(), s.getAccessLevel()
+        };
+    }
+}
@@ -0,0 +1,23 @@
+package com.healthcare.data;
+
+import java.util.List;
+
+/**
+ * Secondary index kept in step with an EntityTable
+ * The table's single writer calls these once for every row it adds, before publishing
+ * the version that holds the row. Entries are never taken out, because older snapshots
+ * may still need them: queries take a filter and skip rows that are not current in the
+ * caller's snapshot, and the garbage goes when the table is compacted.
+ */
+interface TableIndex<T> {
+    void add(T row);
+
+    /**
+     * Add a batch of rows; indexes that can build faster in bulk override this
+     */
+    default void addAll(List<T> rows) {
+        for (T row : rows) {
+            add(row);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.healthcare.data;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * One immutable version of a table: its rows in order and the primary key index
+ * Changes return a new version that shares almost all of its structure with this one,
+ * so a reader holding a version can keep using it however the table changes after.
+ */
+final class TableVersion<T> {
+    private static final TableVersion<?> EMPTY =
+            new TableVersion<>(RowTree.empty(), PersistentMap.empty(), 0);
+
+    private final RowTree<T> rows;
+    private final PersistentMap<Entry<T>> byId;
+    private final long nextSequence;
+    private final List<T> view = new RowList();
+
+    private TableVersion(RowTree<T> rows, PersistentMap<Entry<T>> byId, long nextSequence) {
+        this.rows = rows;
+        this.byId = byId;
+        this.nextSequence = nextSequence;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> TableVersion<T> empty() {
+        return (TableVersion<T>) EMPTY;
+    }
+
+    /**
+     * A row and the sequence number that fixes its place in the table
+     */
+    static final class Entry<T> {
+        final T row;
+        final long sequence;
+
+        Entry(T row, long sequence) {
+            this.row = row;
+            this.sequence = sequence;
+        }
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    /**
+     * The rows in order, as an unmodifiable list that never changes
+     */
+    List<T> rows() {
+        return view;
+    }
+
+    T find(String id) {
+        Entry<T> entry = byId.get(id);
+        return entry == null ? null : entry.row;
+    }
+
+    boolean contains(String id) {
+        return byId.get(id) != null;
+    }
+
+    /**
+     * Whether this exact row object is the current one for its ID in this version
+     * Index entries for rows deleted or replaced later are filtered out with this.
+     */
+    boolean isCurrent(String id, T row) {
+        Entry<T> entry = byId.get(id);
+        return entry != null && entry.row == row;
+    }
+
+    /**
+     * Position of the row with the given ID, or -1 if there is none
+     */
+    int indexOf(String id) {
+        Entry<T> entry = byId.get(id);
+        return entry == null ? -1 : rows.indexOf(entry.sequence);
+    }
+
+    TableVersion<T> plus(String id, T row) {
+        return new TableVersion<>(rows.with(nextSequence, row),
+                byId.plus(id, new Entry<>(row, nextSequence)), nextSequence + 1);
+    }
+
+    /**
+     * Swap in a new row for an ID that is present, keeping its place in the order
+     */
+    TableVersion<T> replace(String id, T row) {
+        Entry<T> entry = byId.get(id);
+        return new TableVersion<>(rows.with(entry.sequence, row),
+                byId.plus(id, new Entry<>(row, entry.sequence)), nextSequence);
+    }
+
+    /**
+     * @return this version unchanged if there is no row with the ID
+     */
+    TableVersion<T> minus(String id) {
+        Entry<T> entry = byId.get(id);
+        if (entry == null) {
+            return this;
+        }
+        return new TableVersion<>(rows.without(entry.sequence), byId.minus(id), nextSequence);
+    }
+
+    /**
+     * Add loaded rows after the existing ones, skipping any whose ID is already present
+     * @param added receives the rows that were added
+     */
+    TableVersion<T> plusAll(Collection<T> loaded, TableFormat<T> format, List<T> added) {
+        PersistentMap.Builder<Entry<T>> index = byId.builder();
+        long sequence = nextSequence;
+        for (T row : loaded) {
+            String id = format.getId(row);
+            if (index.get(id) == null) {
+                index.put(id, new Entry<>(row, sequence++));
+                added.add(row);
+            }
+        }
+        if (added.isEmpty()) {
+            return this;
+        }
+        RowTree<T> tree;
+        if (rows.size() == 0) {
+            tree = RowTree.of(added.toArray(), added.size(), nextSequence);
+        } else {
+            long[] sequences = new long[added.size()];
+            for (int i = 0; i < sequences.length; i++) {
+                sequences[i] = nextSequence + i;
+            }
+            tree = rows.withAll(sequences, added.toArray(), sequences.length);
+        }
+        return new TableVersion<>(tree, index.build(), sequence);
+    }
+
+    /**
+     * Add or replace every row in one pass; a replaced row keeps its place in the order
+     * Of two rows with the same ID the later one wins.
+     * @param added receives the rows whose ID was not present
+     */
+    TableVersion<T> putAll(List<T> changed, TableFormat<T> format, List<T> added) {
+        if (changed.isEmpty()) {
+            return this;
+        }
+        PersistentMap.Builder<Entry<T>> index = byId.builder();
+        long[] sequences = new long[changed.size()];
+        Object[] values = new Object[changed.size()];
+        long sequence = nextSequence;
+        int count = 0;
+        for (T row : changed) {
+            String id = format.getId(row);
+            Entry<T> entry = index.get(id);
+            long at = entry == null ? sequence++ : entry.sequence;
+            if (entry == null) {
+                added.add(row);
+            }
+            index.put(id, new Entry<>(row, at));
+            sequences[count] = at;
+            values[count++] = row;
+        }
+        return new TableVersion<>(rows.withAll(sequences, values, count), index.build(), sequence);
+    }
+
+    /**
+     * Remove the rows with the given IDs in one pass; IDs that are not present are ignored
+     * @param removed receives the rows that were removed
+     */
+    TableVersion<T> minusAll(Collection<String> ids, List<T> removed) {
+        PersistentMap.Builder<Entry<T>> index = byId.builder();
+        long[] sequences = new long[ids.size()];
+        int count = 0;
+        for (String id : ids) {
+            Entry<T> entry = index.get(id);
+            if (entry != null) {
+                index.remove(id);
+                sequences[count++] = entry.sequence;
+                removed.add(entry.row);
+            }
+        }
+        if (count == 0) {
+            return this;
+        }
+        return new TableVersion<>(rows.withoutAll(sequences, count), index.build(), nextSequence);
+    }
+
+    private final class RowList extends AbstractList<T> implements RandomAccess {
+        @Override
+        public T get(int index) {
+            return rows.get(index);
+        }
+
+        @Override
+        public int size() {
+            return rows.size();
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return rows.iterator();
+        }
+    }
+}
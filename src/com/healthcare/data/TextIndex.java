@@ -0,0 +1,323 @@
+package com.healthcare.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Inverted full-text index over some free-text fields of a table
+ *
+ * Text is split into runs of letters and digits and case-folded. Each row gets an
+ * increasing document number, and each term keeps a posting list of the documents it
+ * appears in and its positions there, stored as delta-encoded varints. Fields are
+ * joined with a gap of one position so a phrase never spans two of them. There is one
+ * writer; each posting list publishes its document count after the bytes it covers, so
+ * searches read without locking.
+ *
+ * Queries: words are ANDed, {@code OR} between groups unions them and "double quotes"
+ * match a phrase, e.g. {@code chest pain OR "heart murmur"}.
+ */
+class TextIndex<T> implements TableIndex<T> {
+    private final Function<T, String> idGetter;
+    private final List<Function<T, String>> textGetters;
+    private final Map<String, Postings> terms = new ConcurrentHashMap<>();
+    // Row for each document number
+    private final AppendOnlyList<T> documents = new AppendOnlyList<>();
+
+    TextIndex(Function<T, String> idGetter, List<Function<T, String>> textGetters) {
+        this.idGetter = idGetter;
+        this.textGetters = textGetters;
+    }
+
+    @Override
+    public void add(T row) {
+        int document = documents.size();
+        documents.add(row);
+
+        Map<String, List<Integer>> positions = new HashMap<>();
+        int position = 0;
+        for (Function<T, String> getter : textGetters) {
+            for (String term : tokenize(getter.apply(row))) {
+                positions.computeIfAbsent(term, k -> new ArrayList<>(2)).add(position++);
+            }
+            position++;
+        }
+        positions.forEach((term, at) -> terms.computeIfAbsent(term, k -> new Postings()).append(document, at));
+    }
+
+    /**
+     * IDs of the visible rows matching the query, in the order the rows were added
+     */
+    List<String> search(String query, Predicate<T> visible) {
+        int[] matches = new int[0];
+        for (String group : query.split("\\s+OR\\s+")) {
+            int[] groupMatches = searchGroup(group);
+            if (groupMatches != null) {
+                matches = union(matches, groupMatches);
+            }
+        }
+        List<String> ids = new ArrayList<>(matches.length);
+        for (int document : matches) {
+            T row = documents.get(document);
+            if (visible.test(row)) {
+                ids.add(idGetter.apply(row));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Documents matching every word and phrase of one OR group, or null if it has none
+     */
+    private int[] searchGroup(String group) {
+        int[] matches = null;
+        int i = 0;
+        while (i < group.length()) {
+            String part;
+            if (group.charAt(i) == '"') {
+                int close = group.indexOf('"', i + 1);
+                int end = close < 0 ? group.length() : close;
+                part = group.substring(i + 1, end);
+                i = end + 1;
+            } else {
+                int end = i;
+                while (end < group.length() && !Character.isWhitespace(group.charAt(end)) && group.charAt(end) != '"') {
+                    end++;
+                }
+                part = group.substring(i, end);
+                i = end == i ? i + 1 : end;
+            }
+            // A word such as "co-amoxiclav" splits into several terms and is matched as a phrase
+            List<String> tokens = tokenize(part);
+            if (!tokens.isEmpty()) {
+                int[] partMatches = matchPhrase(tokens);
+                matches = matches == null ? partMatches : intersect(matches, partMatches);
+            }
+        }
+        return matches;
+    }
+
+    private int[] matchPhrase(List<String> tokens) {
+        if (tokens.size() == 1) {
+            Postings postings = terms.get(tokens.get(0));
+            return postings == null ? new int[0] : postings.documents();
+        }
+        DecodedPostings[] lists = new DecodedPostings[tokens.size()];
+        for (int t = 0; t < lists.length; t++) {
+            Postings postings = terms.get(tokens.get(t));
+            if (postings == null) {
+                return new int[0];
+            }
+            lists[t] = postings.decode();
+        }
+        int[] candidates = lists[0].documents;
+        for (int t = 1; t < lists.length; t++) {
+            candidates = intersect(candidates, lists[t].documents);
+        }
+
+        int[] matches = new int[candidates.length];
+        int count = 0;
+        for (int document : candidates) {
+            if (containsPhrase(lists, document)) {
+                matches[count++] = document;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    private static boolean containsPhrase(DecodedPostings[] lists, int document) {
+        int[][] positions = new int[lists.length][];
+        for (int t = 0; t < lists.length; t++) {
+            positions[t] = lists[t].positionsOf(document);
+        }
+        for (int start : positions[0]) {
+            boolean found = true;
+            for (int t = 1; t < lists.length && found; t++) {
+                found = Arrays.binarySearch(positions[t], start + t) >= 0;
+            }
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Case-folded runs of letters and digits
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(fold(text.substring(start, i)));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static String fold(String word) {
+        return word.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[count++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Posting list of one term: for each document, in increasing order, the gap from the
+     * previous document, the number of positions and the gaps between the positions
+     */
+    private static class Postings {
+        private volatile byte[] data = new byte[8];
+        private volatile int documentCount;
+        // Only used by the writer
+        private int length;
+        private int lastDocument = -1;
+
+        void append(int document, List<Integer> positions) {
+            writeVarInt(document - lastDocument);
+            writeVarInt(positions.size());
+            int previous = 0;
+            for (int position : positions) {
+                writeVarInt(position - previous);
+                previous = position;
+            }
+            lastDocument = document;
+            documentCount++;
+        }
+
+        /**
+         * Document numbers only, skipping over the positions
+         */
+        int[] documents() {
+            int documentCount = this.documentCount;
+            byte[] data = this.data;
+            int[] documents = new int[documentCount];
+            int[] offset = {0};
+            int document = -1;
+            for (int d = 0; d < documentCount; d++) {
+                document += readVarInt(data, offset);
+                for (int count = readVarInt(data, offset); count > 0; count--) {
+                    while ((data[offset[0]++] & 0x80) != 0) {
+                        // skip one varint
+                    }
+                }
+                documents[d] = document;
+            }
+            return documents;
+        }
+
+        DecodedPostings decode() {
+            int documentCount = this.documentCount;
+            byte[] data = this.data;
+            DecodedPostings decoded = new DecodedPostings(documentCount);
+            int[] offset = {0};
+            int document = -1;
+            int[] positions = new int[Math.max(documentCount, 16)];
+            int positionCount = 0;
+            for (int d = 0; d < documentCount; d++) {
+                document += readVarInt(data, offset);
+                int count = readVarInt(data, offset);
+                decoded.documents[d] = document;
+                decoded.positionStarts[d] = positionCount;
+                if (positionCount + count > positions.length) {
+                    positions = Arrays.copyOf(positions, Math.max(positions.length * 2, positionCount + count));
+                }
+                int position = 0;
+                for (int p = 0; p < count; p++) {
+                    position += readVarInt(data, offset);
+                    positions[positionCount++] = position;
+                }
+            }
+            decoded.positionStarts[documentCount] = positionCount;
+            decoded.positions = positions;
+            return decoded;
+        }
+
+        private void writeVarInt(int value) {
+            byte[] data = this.data;
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+                this.data = data;
+            }
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        private static int readVarInt(byte[] data, int[] offset) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset[0]++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+
+    private static class DecodedPostings {
+        private final int[] documents;
+        private final int[] positionStarts;
+        private int[] positions;
+
+        DecodedPostings(int documentCount) {
+            documents = new int[documentCount];
+            positionStarts = new int[documentCount + 1];
+        }
+
+        int[] positionsOf(int document) {
+            int d = Arrays.binarySearch(documents, document);
+            return Arrays.copyOfRange(positions, positionStarts[d], positionStarts[d + 1]);
+        }
+    }
+}
@@ -0,0 +1,615 @@
+package com.healthcare.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of every add, update and delete made through DataManager
+ *
+ * Each record is [payload length][CRC32 of payload][payload], where the payload is the
+ * operation, the table and either the row's fields or the deleted ID. Writers hand their
+ * record to a single log thread and wait; the thread takes everything queued, writes it
+ * with one call and covers the whole batch with one fsync (group commit).
+ *
+ * A batch of changes is framed the same way, record by record, but handed over in pieces
+ * of about a megabyte, so a large merge costs a few big writes instead of a queue entry
+ * per row. Each of its records carries the batch's number, and a commit record follows
+ * once every piece is on disk. Replay holds a batch's records back until it reaches the
+ * commit record, so a batch cut short by a crash or a failed write, whose pieces may sit
+ * in the file among other writers' records, comes back whole or not at all.
+ *
+ * The log is a series of numbered segment files. A checkpoint rotates to a new segment
+ * and, once the CSV files are rewritten, discards the segments before it. On open every
+ * segment is replayed in order; a torn record at the tail from a crash is cut off.
+ *
+ * A write or fsync that fails may leave part of its batch in the file. The segment is cut
+ * back to the end of the last batch known to be on disk before the batch's writers are
+ * told, so later records never follow torn bytes that replay would stop at. If the cut
+ * itself fails the log refuses every later write rather than acknowledge records that
+ * could not be replayed.
+ */
+class WriteAheadLog implements Closeable {
+    private static final String SEGMENT_PREFIX = "healthcare-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+    private static final byte UPDATE = 3;
+    // [BATCHED][batch number][record as above]
+    private static final byte BATCHED = 4;
+    // [COMMIT][batch number]: every record of the batch is in the file before it
+    private static final byte COMMIT = 5;
+    private static final int HEADER_SIZE = 8;
+    private static final int BATCH_PIECE_SIZE = 1 << 20;
+
+    private final Path directory;
+    private final BlockingQueue<PendingRecord> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private boolean closed;
+    // Numbers batches; starts after the highest found on replay so none is reused in a segment
+    private final AtomicInteger batchNumbers;
+    // Only touched by the log thread once it has started
+    private FileChannel channel;
+    private long segment;
+    // Offset just after the last batch known to be on disk in the current segment
+    private long committedEnd;
+    // Set once a failed batch could not be cut off; every later write fails with it
+    private IOException failure;
+
+    /**
+     * Receives the operations found in the log while it is being replayed
+     */
+    interface ReplayHandler {
+        void add(TableFormat<?> format, CsvRecord fields);
+
+        void delete(TableFormat<?> format, String id);
+
+        void update(TableFormat<?> format, CsvRecord fields);
+    }
+
+    private WriteAheadLog(Path directory, FileChannel channel, long segment, int lastBatch) throws IOException {
+        this.directory = directory;
+        this.channel = channel;
+        this.segment = segment;
+        this.batchNumbers = new AtomicInteger(lastBatch);
+        this.committedEnd = channel.position();
+        writer = new Thread(this::runWriter, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Replay every log segment in the data directory into the handler, then open the
+     * newest one for appending
+     */
+    static WriteAheadLog open(Path dataDirectory, ReplayHandler handler) throws IOException {
+        List<Long> segments = listSegments(dataDirectory);
+        long last = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+        Replay replay = new Replay(handler);
+        for (long number : segments) {
+            if (number != last) {
+                try (FileChannel channel = FileChannel.open(segmentPath(dataDirectory, number),
+                        StandardOpenOption.READ)) {
+                    if (replay.segment(channel) < channel.size()) {
+                        System.err.println("Log segment " + number + " ends with an incomplete record");
+                    }
+                }
+            }
+        }
+
+        FileChannel channel = FileChannel.open(segmentPath(dataDirectory, last),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long end = replay.segment(channel);
+            if (end < channel.size()) {
+                System.err.println("Discarding " + (channel.size() - end) + " bytes of incomplete log records");
+                channel.truncate(end);
+            }
+            channel.position(end);
+            return new WriteAheadLog(dataDirectory, channel, last, replay.lastBatch);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Log an added row; returns once the record is on disk
+     */
+    <T> void logAdd(TableFormat<T> format, T row) {
+        logRow(ADD, format, row);
+    }
+
+    /**
+     * Log the new contents of an updated row; returns once the record is on disk
+     */
+    <T> void logUpdate(TableFormat<T> format, T row) {
+        logRow(UPDATE, format, row);
+    }
+
+    private <T> void logRow(byte operation, TableFormat<T> format, T row) {
+        append(rowPayload(operation, format, row));
+    }
+
+    /**
+     * Log a deleted ID; returns once the record is on disk
+     */
+    void logDelete(TableFormat<?> format, String id) {
+        append(deletePayload(format, id));
+    }
+
+    /**
+     * Log a batch of added rows; returns once every record is on disk
+     */
+    <T> void logAddAll(TableFormat<T> format, Collection<T> rows) {
+        RecordBatch batch = new RecordBatch();
+        for (T row : rows) {
+            batch.add(writeRow(batch.startRecord(), ADD, format, row));
+        }
+        batch.commit();
+    }
+
+    /**
+     * Log the new contents of a batch of rows, each replayed as an update of the row with
+     * its ID or as an add if there is none; returns once every record is on disk
+     */
+    <T> void logUpdateAll(TableFormat<T> format, Collection<T> rows) {
+        RecordBatch batch = new RecordBatch();
+        for (T row : rows) {
+            batch.add(writeRow(batch.startRecord(), UPDATE, format, row));
+        }
+        batch.commit();
+    }
+
+    /**
+     * Log a batch of deleted IDs; returns once every record is on disk
+     */
+    void logDeleteAll(TableFormat<?> format, Collection<String> ids) {
+        RecordBatch batch = new RecordBatch();
+        for (String id : ids) {
+            batch.add(writeDelete(batch.startRecord(), format, id));
+        }
+        batch.commit();
+    }
+
+    /**
+     * Start a new segment; later records go to it
+     * @return the number of the segment that was just finished
+     */
+    long rotate() {
+        PendingRecord marker = new PendingRecord(PendingRecord.ROTATE, null);
+        submit(marker);
+        return marker.done.join().longValue();
+    }
+
+    /**
+     * Delete every segment up to and including the given one
+     */
+    void discardUpTo(long lastSegment) throws IOException {
+        for (long number : listSegments(directory)) {
+            if (number <= lastSegment) {
+                Files.deleteIfExists(segmentPath(directory, number));
+            }
+        }
+    }
+
+    /**
+     * Flush anything still queued and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        PendingRecord marker = new PendingRecord(PendingRecord.CLOSE, null);
+        submit(marker);
+        synchronized (pending) {
+            closed = true;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> ByteArrayOutputStream rowPayload(byte operation, TableFormat<T> format, T row) {
+        return writeRow(new ByteArrayOutputStream(128), operation, format, row);
+    }
+
+    private static ByteArrayOutputStream deletePayload(TableFormat<?> format, String id) {
+        return writeDelete(new ByteArrayOutputStream(128), format, id);
+    }
+
+    private static <T> ByteArrayOutputStream writeRow(ByteArrayOutputStream payload, byte operation,
+                                                      TableFormat<T> format, T row) {
+        writeOperation(payload, operation, format);
+        String[] fields = format.format(row);
+        BinaryIO.writeVarInt(payload, fields.length);
+        for (String field : fields) {
+            BinaryIO.writeString(payload, field);
+        }
+        return payload;
+    }
+
+    private static ByteArrayOutputStream writeDelete(ByteArrayOutputStream payload, TableFormat<?> format,
+                                                     String id) {
+        writeOperation(payload, DELETE, format);
+        BinaryIO.writeString(payload, id);
+        return payload;
+    }
+
+    private static void writeOperation(ByteArrayOutputStream payload, byte operation, TableFormat<?> format) {
+        payload.write(operation);
+        payload.write(TableFormat.ALL.indexOf(format));
+    }
+
+    private void append(ByteArrayOutputStream payload) {
+        PendingRecord entry = new PendingRecord(PendingRecord.WRITE, frame(payload));
+        submit(entry);
+        await(entry);
+    }
+
+    /**
+     * The record as written to the file: header, then payload
+     */
+    private static ByteBuffer frame(ByteArrayOutputStream payload) {
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+        record.putInt(bytes.length).putInt((int) crc.getValue()).put(bytes).flip();
+        return record;
+    }
+
+    private static void await(PendingRecord entry) {
+        try {
+            entry.done.join();
+        } catch (CompletionException e) {
+            throw new UncheckedIOException("Error writing to log", (IOException) e.getCause());
+        }
+    }
+
+    private void submit(PendingRecord entry) {
+        synchronized (pending) {
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+            pending.add(entry);
+        }
+    }
+
+    private void runWriter() {
+        List<PendingRecord> batch = new ArrayList<>();
+        List<PendingRecord> writes = new ArrayList<>();
+        boolean closing = false;
+        while (!closing) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            pending.drainTo(batch);
+            // Records before a rotate or close marker belong to the current segment
+            for (PendingRecord entry : batch) {
+                if (entry.type == PendingRecord.WRITE) {
+                    writes.add(entry);
+                    continue;
+                }
+                writeBatch(writes);
+                writes.clear();
+                if (entry.type == PendingRecord.ROTATE) {
+                    startNextSegment(entry);
+                } else {
+                    closing = true;
+                    closeChannel(entry);
+                }
+            }
+            writeBatch(writes);
+            writes.clear();
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<PendingRecord> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        if (failure != null) {
+            batch.forEach(entry -> entry.done.completeExceptionally(failure));
+            return;
+        }
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = batch.get(i).record;
+        }
+        try {
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(false);
+            committedEnd = channel.position();
+            batch.forEach(entry -> entry.done.complete(segment));
+        } catch (IOException e) {
+            discardFailedBatch(e);
+            batch.forEach(entry -> entry.done.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * Cut whatever part of a failed batch reached the file, or stop the log if that fails too
+     */
+    private void discardFailedBatch(IOException cause) {
+        try {
+            channel.truncate(committedEnd);
+            channel.position(committedEnd);
+            channel.force(false);
+        } catch (IOException e) {
+            System.err.println("Error discarding a failed log write, the log is stopped: " + e.getMessage());
+            failure = new IOException("Write-ahead log stopped after a failed write", cause);
+            failure.addSuppressed(e);
+        }
+    }
+
+    private void startNextSegment(PendingRecord marker) {
+        if (failure != null) {
+            marker.done.completeExceptionally(failure);
+            return;
+        }
+        try {
+            FileChannel next = FileChannel.open(segmentPath(directory, segment + 1),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.force(false);
+            channel.close();
+            channel = next;
+            committedEnd = 0;
+            marker.done.complete(segment++);
+        } catch (IOException e) {
+            marker.done.completeExceptionally(e);
+        }
+    }
+
+    private void closeChannel(PendingRecord marker) {
+        try {
+            channel.close();
+            marker.done.complete(segment);
+        } catch (IOException e) {
+            marker.done.completeExceptionally(e);
+        }
+    }
+
+    private static Path segmentPath(Path directory, long number) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Applies the records of one segment after another to a handler, holding each batch's
+     * records back until its commit record
+     */
+    private static class Replay {
+        private final ReplayHandler handler;
+        private final Map<Integer, List<ByteBuffer>> openBatches = new HashMap<>();
+        private int lastBatch;
+
+        Replay(ReplayHandler handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * Apply every complete record of the segment; a batch it leaves without a commit
+         * record is dropped
+         * @return the offset just after the last complete record
+         */
+        long segment(FileChannel channel) throws IOException {
+            long end = records(channel);
+            if (!openBatches.isEmpty()) {
+                System.err.println("Ignoring " + openBatches.size() + " log batches that were never committed");
+                openBatches.clear();
+            }
+            return end;
+        }
+
+        private long records(FileChannel channel) throws IOException {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (position + HEADER_SIZE <= size) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                int length = header.getInt();
+                int checksum = header.getInt();
+                if (length < 2 || position + HEADER_SIZE + length > size) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                while (payload.hasRemaining()) {
+                    channel.read(payload, position + HEADER_SIZE + payload.position());
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload.array());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                payload.flip();
+                record(payload);
+                position += HEADER_SIZE + length;
+            }
+            return position;
+        }
+
+        private void record(ByteBuffer payload) throws IOException {
+            byte operation = payload.get(payload.position());
+            if (operation != BATCHED && operation != COMMIT) {
+                applyRecord(payload, handler);
+                return;
+            }
+            payload.get();
+            int batch = BinaryIO.readVarInt(payload);
+            lastBatch = Math.max(lastBatch, batch);
+            if (operation == BATCHED) {
+                openBatches.computeIfAbsent(batch, number -> new ArrayList<>()).add(payload.slice());
+                return;
+            }
+            List<ByteBuffer> records = openBatches.remove(batch);
+            if (records != null) {
+                for (ByteBuffer record : records) {
+                    applyRecord(record, handler);
+                }
+            }
+        }
+    }
+
+    private static void applyRecord(ByteBuffer payload, ReplayHandler handler) throws IOException {
+        byte operation = payload.get();
+        int table = payload.get();
+        if (table < 0 || table >= TableFormat.ALL.size()) {
+            throw new IOException("Log record for unknown table " + table);
+        }
+        TableFormat<?> format = TableFormat.ALL.get(table);
+        if (operation == ADD || operation == UPDATE) {
+            String[] fields = new String[BinaryIO.readVarInt(payload)];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = BinaryIO.readString(payload);
+            }
+            if (operation == ADD) {
+                handler.add(format, new ArrayRecord(fields));
+            } else {
+                handler.update(format, new ArrayRecord(fields));
+            }
+        } else if (operation == DELETE) {
+            handler.delete(format, BinaryIO.readString(payload));
+        } else {
+            throw new IOException("Unknown log operation " + operation);
+        }
+    }
+
+    /**
+     * A record waiting for the log thread, or a rotate/close request
+     * Completes with the segment the record was written to.
+     */
+    private static class PendingRecord {
+        static final int WRITE = 0;
+        static final int ROTATE = 1;
+        static final int CLOSE = 2;
+
+        private final int type;
+        private final ByteBuffer record;
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        PendingRecord(int type, ByteBuffer record) {
+            this.type = type;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Records collected into large pieces, each handed to the log thread once it is full
+     * so the log thread writes earlier pieces while later ones are still being framed
+     */
+    private class RecordBatch {
+        private final int number = batchNumbers.incrementAndGet();
+        private final List<PendingRecord> submitted = new ArrayList<>();
+        private final ByteArrayOutputStream piece = new ByteArrayOutputStream(8192);
+
+        /**
+         * A payload already marked as belonging to this batch, for a record to be added
+         */
+        ByteArrayOutputStream startRecord() {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+            payload.write(BATCHED);
+            BinaryIO.writeVarInt(payload, number);
+            return payload;
+        }
+
+        void add(ByteArrayOutputStream payload) {
+            ByteBuffer record = frame(payload);
+            piece.write(record.array(), 0, record.limit());
+            if (piece.size() >= BATCH_PIECE_SIZE) {
+                submitPiece();
+            }
+        }
+
+        /**
+         * Wait until every earlier piece is on disk, then hand over the last piece with the
+         * commit record and wait for that
+         * A failed piece fails the commit before the commit record is written, so replay
+         * ignores whatever reached the file.
+         */
+        void commit() {
+            for (PendingRecord entry : submitted) {
+                await(entry);
+            }
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(8);
+            payload.write(COMMIT);
+            BinaryIO.writeVarInt(payload, number);
+            ByteBuffer record = frame(payload);
+            piece.write(record.array(), 0, record.limit());
+            submitPiece();
+            await(submitted.get(submitted.size() - 1));
+        }
+
+        private void submitPiece() {
+            if (piece.size() == 0) {
+                return;
+            }
+            PendingRecord entry = new PendingRecord(PendingRecord.WRITE, ByteBuffer.wrap(piece.toByteArray()));
+            submit(entry);
+            submitted.add(entry);
+            piece.reset();
+        }
+    }
+
+    private static class ArrayRecord implements CsvRecord {
+        private final String[] fields;
+
+        ArrayRecord(String[] fields) {
+            this.fields = fields;
+        }
+
+        @Override
+        public int fieldCount() {
+            return fields.length;
+        }
+
+        @Override
+        public String field(int index) {
+            return fields[index];
+        }
+    }
+}
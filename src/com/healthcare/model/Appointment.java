@@ -17,6 +17,8 @@ public class Appointment {
     private String notes;
     private String createdDate;
     private String lastModified;
+    // Set by DataManager on every add and update, never reused; not part of the CSV file
+    private long version;
 
     public Appointment() {
     }
@@ -149,6 +151,14 @@ public class Appointment {
         this.lastModified = lastModified;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return appointmentID + " - " + date + " " + time + " (" + status + ")";
@@ -16,6 +16,8 @@ public class Clinician {
     private String startDate;
     private String email;
     private String phone;
+    // Set by DataManager on every add and update, never reused; not part of the CSV file
+    private long version;
 
     public Clinician() {
     }
@@ -139,6 +141,14 @@ public class Clinician {
         this.startDate = startDate;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return firstName + " " + lastName + " - " + specialty + " (" + clinicianID + ")";
@@ -15,6 +15,8 @@ public class Facility {
     private String managerName;
     private String services;
     private String capacity;
+    // Set by DataManager on every add and update, never reused; not part of the CSV file
+    private long version;
 
     public Facility() {
     }
@@ -129,6 +131,14 @@ public class Facility {
         this.managerName = managerName;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return name + " (" + facilityID + ")";
@@ -18,6 +18,8 @@ public class Patient {
     private String emergencyContactPhone;
     private String registrationDate;
     private String gpSurgery;
+    // Set by DataManager on every add and update, never reused; not part of the CSV file
+    private long version;
 
     public Patient() {
     }
@@ -160,6 +162,14 @@ public class Patient {
         this.registrationDate = registrationDate;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return firstName + " " + lastName + " (" + patientID + ")";
@@ -19,6 +19,8 @@ public class Prescription {
     private String collectionDate;
     private String collectionStatus;
     private String notes;
+    // Set by DataManager on every add and update, never reused; not part of the CSV file
+    private long version;
 
     public Prescription() {
     }
@@ -171,6 +173,14 @@ public class Prescription {
         this.collectionDate = collectionDate;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return prescriptionID + " - " + medication + " (" + datePrescribed + ")";
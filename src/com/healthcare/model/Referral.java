@@ -20,6 +20,8 @@ public class Referral {
     private String status;
     private String createdDate;
     private String lastUpdated;
+    // Set by DataManager on every add and update, never reused; not part of the CSV file
+    private long version;
 
     public Referral() {
     }
@@ -183,6 +185,14 @@ public class Referral {
         this.lastUpdated = lastUpdated;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return referralID + " - " + date + " (" + urgency + ")";
@@ -16,6 +16,8 @@ public class Staff {
     private String startDate;
     private String lineManager;
     private String accessLevel;
+    // Set by DataManager on every add and update, never reused; not part of the CSV file
+    private long version;
 
     public Staff() {
     }
@@ -139,6 +141,14 @@ public class Staff {
         this.accessLevel = accessLevel;
     }
 
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return firstName + " " + lastName + " - " + role + " (" + staffID + ")";
@@ -0,0 +1,31 @@
+package com.healthcare.referral;
+
+/**
+ * One entry of an audit log: its position in the log, when it was logged and its text
+ */
+public final class AuditEntry {
+    private final long sequence;
+    private final long timeMillis;
+    private final String text;
+
+    AuditEntry(long sequence, long timeMillis, String text) {
+        this.sequence = sequence;
+        this.timeMillis = timeMillis;
+        this.text = text;
+    }
+
+    /**
+     * Position in the log, counting from 0; the next page starts after the last one read
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
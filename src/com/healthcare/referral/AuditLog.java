@@ -0,0 +1,371 @@
+package com.healthcare.referral;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only log of generated communications with bounded memory use
+ * The most recent entries are kept in a fixed-size ring in memory. Once a directory is
+ * set, every entry is also appended to segment files there: a segment is closed when it
+ * reaches its size cap and the oldest segments are deleted once the total passes the
+ * retention cap, so disk use is bounded too.
+ *
+ * Reads return one page at a time, by sequence or by time, and only the entries on that
+ * page are copied. Recent entries come from the ring; older ones are read back from the
+ * segments, which are located from a small in-memory index of each segment's first and
+ * last entry. Entries that have aged out of both are gone.
+ *
+ * Segment layout: records of sequence (long), time (long), text length (int) and the
+ * text as UTF-8. A record cut short by a crash ends the segment.
+ */
+public class AuditLog {
+    static final int DEFAULT_MEMORY_ENTRIES = 1000;
+    static final long DEFAULT_SEGMENT_BYTES = 4L * 1024 * 1024;
+    static final long DEFAULT_RETAINED_BYTES = 64L * 1024 * 1024;
+
+    private final String name;
+    private final AuditEntry[] ring;
+    private final long segmentBytes;
+    private final long retainedBytes;
+    // Index into ring of the oldest entry, and how many entries it holds
+    private int ringStart;
+    private int ringCount;
+    private long nextSequence;
+
+    private Path directory;
+    private final List<Segment> segments = new ArrayList<>();
+    private DataOutputStream out;
+    private long segmentNumber;
+
+    /**
+     * A segment file and the range of entries in it
+     */
+    private static final class Segment {
+        private final Path file;
+        private final long firstSequence;
+        private final long firstMillis;
+        private long lastSequence;
+        private long lastMillis;
+        private long size;
+
+        Segment(Path file, long firstSequence, long firstMillis) {
+            this.file = file;
+            this.firstSequence = firstSequence;
+            this.firstMillis = firstMillis;
+            this.lastSequence = firstSequence - 1;
+            this.lastMillis = firstMillis;
+        }
+    }
+
+    AuditLog(String name) {
+        this(name, DEFAULT_MEMORY_ENTRIES, DEFAULT_SEGMENT_BYTES, DEFAULT_RETAINED_BYTES);
+    }
+
+    AuditLog(String name, int memoryEntries, long segmentBytes, long retainedBytes) {
+        this.name = name;
+        this.ring = new AuditEntry[memoryEntries];
+        this.segmentBytes = segmentBytes;
+        this.retainedBytes = retainedBytes;
+    }
+
+    /**
+     * Keep entries in segment files in the directory from now on, continuing after any
+     * segments of this log already there
+     * @throws IllegalStateException if entries have been logged already
+     */
+    synchronized void openDirectory(Path dir) throws IOException {
+        if (nextSequence > 0 || directory != null) {
+            throw new IllegalStateException("The audit directory must be set before anything is logged");
+        }
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, name + "-*.log")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        for (Path file : files) {
+            Segment segment = scan(file);
+            if (segment != null) {
+                segments.add(segment);
+                nextSequence = segment.lastSequence + 1;
+            } else {
+                Files.delete(file);
+            }
+            segmentNumber = Math.max(segmentNumber, segmentNumber(file));
+        }
+        directory = dir;
+        // The ring starts with the newest entries already on disk, so reads need not go back to it
+        for (AuditEntry entry : read(Math.max(0, nextSequence - ring.length), ring.length)) {
+            remember(entry);
+        }
+    }
+
+    /**
+     * The file's range of entries, or null if it holds none
+     */
+    private static Segment scan(Path file) throws IOException {
+        Segment segment = null;
+        long size = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                AuditEntry entry = readEntry(in);
+                if (entry == null) {
+                    break;
+                }
+                if (segment == null) {
+                    segment = new Segment(file, entry.getSequence(), entry.getTimeMillis());
+                }
+                segment.lastSequence = entry.getSequence();
+                segment.lastMillis = entry.getTimeMillis();
+                size += recordSize(entry.getText().getBytes(StandardCharsets.UTF_8).length);
+            }
+        }
+        if (segment != null) {
+            segment.size = size;
+        }
+        return segment;
+    }
+
+    private static long segmentNumber(Path file) {
+        String fileName = file.getFileName().toString();
+        try {
+            return Long.parseLong(fileName.substring(fileName.lastIndexOf('-') + 1, fileName.length() - 4));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Log a batch of texts, writing them through to the current segment
+     */
+    synchronized void append(List<String> texts) {
+        long now = System.currentTimeMillis();
+        for (String text : texts) {
+            AuditEntry entry = new AuditEntry(nextSequence++, now, text);
+            remember(entry);
+            if (directory != null) {
+                write(entry);
+            }
+        }
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("Error writing " + name + " audit log: " + e.getMessage());
+            }
+        }
+    }
+
+    private void remember(AuditEntry entry) {
+        if (ringCount < ring.length) {
+            ring[(ringStart + ringCount++) % ring.length] = entry;
+        } else {
+            ring[ringStart] = entry;
+            ringStart = (ringStart + 1) % ring.length;
+        }
+    }
+
+    private void write(AuditEntry entry) {
+        byte[] text = entry.getText().getBytes(StandardCharsets.UTF_8);
+        try {
+            Segment current = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (out == null || current.size >= segmentBytes) {
+                current = startSegment(entry);
+            }
+            out.writeLong(entry.getSequence());
+            out.writeLong(entry.getTimeMillis());
+            out.writeInt(text.length);
+            out.write(text);
+            current.lastSequence = entry.getSequence();
+            current.lastMillis = entry.getTimeMillis();
+            current.size += recordSize(text.length);
+        } catch (IOException e) {
+            System.err.println("Error writing " + name + " audit log: " + e.getMessage());
+        }
+    }
+
+    private Segment startSegment(AuditEntry first) throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        Path file = directory.resolve(String.format("%s-%06d.log", name, ++segmentNumber));
+        Segment segment = new Segment(file, first.getSequence(), first.getTimeMillis());
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        segments.add(segment);
+        dropOldSegments();
+        return segment;
+    }
+
+    /**
+     * Delete the oldest segments, never the current one, until the rest fit the retention cap
+     */
+    private void dropOldSegments() throws IOException {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.size;
+        }
+        while (segments.size() > 1 && total > retainedBytes) {
+            Segment oldest = segments.remove(0);
+            total -= oldest.size;
+            Files.deleteIfExists(oldest.file);
+        }
+    }
+
+    private static long recordSize(int textLength) {
+        return 8 + 8 + 4 + textLength;
+    }
+
+    /**
+     * The most recent entries' texts, oldest first, as many as are kept in memory
+     */
+    public synchronized List<String> getRecentTexts() {
+        List<String> texts = new ArrayList<>(ringCount);
+        for (int i = 0; i < ringCount; i++) {
+            texts.add(ring[(ringStart + i) % ring.length].getText());
+        }
+        return texts;
+    }
+
+    /**
+     * Sequence number the next entry will get; the log holds entries below it
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Up to {@code limit} entries in order, starting with the given sequence number or,
+     * if that has aged out, the oldest entry still kept
+     */
+    public List<AuditEntry> read(long fromSequence, int limit) {
+        return read(fromSequence, Long.MIN_VALUE, Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * Up to {@code limit} entries logged in [fromMillis, toMillis), in order
+     * For the next page, call again with the time of the last entry returned and skip
+     * the entries with that sequence number or below, or use {@link #read(long, int)}.
+     */
+    public List<AuditEntry> readBetween(long fromMillis, long toMillis, int limit) {
+        return read(0, fromMillis, toMillis, limit);
+    }
+
+    private List<AuditEntry> read(long fromSequence, long fromMillis, long toMillis, int limit) {
+        List<AuditEntry> page = new ArrayList<>(Math.min(limit, 1024));
+        List<Segment> onDisk = new ArrayList<>();
+        long ringFirst;
+        synchronized (this) {
+            ringFirst = ringCount == 0 ? nextSequence : ring[ringStart].getSequence();
+            if (fromSequence < ringFirst && fromMillis < ringFirstMillis()) {
+                for (Segment segment : segments) {
+                    if (segment.lastSequence >= fromSequence && segment.firstSequence < ringFirst
+                            && segment.lastMillis >= fromMillis && segment.firstMillis < toMillis) {
+                        onDisk.add(segment);
+                    }
+                }
+            }
+        }
+
+        // Older entries are read back from disk without holding the lock
+        long next = fromSequence;
+        for (Segment segment : onDisk) {
+            if (page.size() >= limit) {
+                return page;
+            }
+            next = readSegment(segment, next, Math.min(ringFirst, segment.lastSequence + 1),
+                    fromMillis, toMillis, limit, page);
+        }
+
+        synchronized (this) {
+            for (int i = 0; i < ringCount && page.size() < limit; i++) {
+                AuditEntry entry = ring[(ringStart + i) % ring.length];
+                if (entry.getSequence() >= next && entry.getTimeMillis() >= fromMillis
+                        && entry.getTimeMillis() < toMillis) {
+                    page.add(entry);
+                }
+            }
+        }
+        return page;
+    }
+
+    private long ringFirstMillis() {
+        return ringCount == 0 ? Long.MAX_VALUE : ring[ringStart].getTimeMillis();
+    }
+
+    /**
+     * Add the segment's entries in [from, to) that fall in the time range to the page
+     * @return the sequence number to continue from
+     */
+    private long readSegment(Segment segment, long from, long to, long fromMillis, long toMillis,
+                             int limit, List<AuditEntry> page) {
+        long next = from;
+        try (InputStream file = Files.newInputStream(segment.file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            AuditEntry entry;
+            while (page.size() < limit && (entry = readEntry(in)) != null && entry.getSequence() < to) {
+                if (entry.getSequence() >= from && entry.getTimeMillis() >= fromMillis
+                        && entry.getTimeMillis() < toMillis) {
+                    page.add(entry);
+                }
+                next = entry.getSequence() + 1;
+            }
+        } catch (NoSuchFileException e) {
+            // Deleted to make room since the index was read; its entries are gone
+        } catch (IOException e) {
+            System.err.println("Error reading " + name + " audit log: " + e.getMessage());
+        }
+        return Math.max(next, to);
+    }
+
+    /**
+     * The next entry, or null at the end of the segment or at a record cut short
+     */
+    private static AuditEntry readEntry(DataInputStream in) throws IOException {
+        try {
+            long sequence = in.readLong();
+            long millis = in.readLong();
+            byte[] text = new byte[in.readInt()];
+            in.readFully(text);
+            return new AuditEntry(sequence, millis, new String(text, StandardCharsets.UTF_8));
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Forget every entry, in memory and on disk
+     */
+    synchronized void clear() {
+        ringStart = 0;
+        ringCount = 0;
+        Arrays.fill(ring, null);
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            for (Segment segment : segments) {
+                Files.deleteIfExists(segment.file);
+            }
+        } catch (IOException e) {
+            System.err.println("Error clearing " + name + " audit log: " + e.getMessage());
+        }
+        segments.clear();
+    }
+}
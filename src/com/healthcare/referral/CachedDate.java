@@ -0,0 +1,57 @@
+package com.healthcare.referral;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Today's date as ISO text, formatted once per day
+ * Each call compares the clock with the bounds of the day last formatted, so the date is
+ * only worked out again when the day changes (or the clock jumps).
+ */
+final class CachedDate {
+    private final ZoneId zone;
+    private volatile Day day;
+
+    /**
+     * A day's text and the span of clock time it covers
+     */
+    private static final class Day {
+        private final String text;
+        private final long startMillis;
+        private final long endMillis;
+
+        Day(String text, long startMillis, long endMillis) {
+            this.text = text;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+    }
+
+    CachedDate() {
+        this(ZoneId.systemDefault());
+    }
+
+    CachedDate(ZoneId zone) {
+        this.zone = zone;
+        this.day = dayOf(System.currentTimeMillis());
+    }
+
+    String today() {
+        long now = System.currentTimeMillis();
+        Day current = day;
+        if (now < current.startMillis || now >= current.endMillis) {
+            current = dayOf(now);
+            day = current;
+        }
+        return current.text;
+    }
+
+    private Day dayOf(long millis) {
+        LocalDate date = Instant.ofEpochMilli(millis).atZone(zone).toLocalDate();
+        long start = date.atStartOfDay(zone).toInstant().toEpochMilli();
+        long end = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        return new Day(date.format(DateTimeFormatter.ISO_DATE), start, end);
+    }
+}
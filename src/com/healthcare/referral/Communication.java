@@ -0,0 +1,44 @@
+package com.healthcare.referral;
+
+/**
+ * One generated message about a referral, on its way to the systems that take it
+ */
+public final class Communication {
+    public enum Type { EMAIL, EHR }
+
+    private final Type type;
+    private final String referralID;
+    private final String recipient;
+    private final String text;
+    private final long createdMillis = System.currentTimeMillis();
+
+    public Communication(Type type, String referralID, String recipient, String text) {
+        this.type = type;
+        this.referralID = referralID;
+        this.recipient = recipient;
+        this.text = text;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getReferralID() {
+        return referralID;
+    }
+
+    /**
+     * Who the message is for: the receiving facility for an email, the patient for an EHR update
+     */
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+}
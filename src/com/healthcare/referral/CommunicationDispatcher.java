@@ -0,0 +1,222 @@
+package com.healthcare.referral;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers communications to sinks in the background, in batches
+ * Each sink has its own bounded queue and delivery thread, so a slow or failing sink
+ * only holds up its own messages. A delivery thread takes whatever has queued up, to a
+ * batch size limit, and hands it to the sink in one call. A batch that fails is retried
+ * with a growing pause and dropped, with an error printed, after the last attempt. When
+ * the sink reports that the start of the batch went through, only the rest is retried,
+ * so each message is delivered at most once.
+ *
+ * Backpressure: submitting blocks while a sink's queue is full. Communications are
+ * submitted by the referral workers, so a stalled sink slows processing of the referral
+ * queue, never the threads that add referrals. If a delivery thread is interrupted its
+ * sink is dropped and whatever it still had queued is counted as failed, so submitting
+ * and awaitIdle never wait on a thread that has stopped.
+ */
+class CommunicationDispatcher {
+    static final int QUEUE_CAPACITY = 10_000;
+    static final int BATCH_SIZE = 200;
+    static final int MAX_ATTEMPTS = 5;
+    private static final long FIRST_RETRY_MILLIS = 200;
+    private static final long MAX_RETRY_MILLIS = 10_000;
+    // How often a submitter waiting on a full queue checks whether the sink has stopped
+    private static final long OFFER_MILLIS = 100;
+
+    private final List<Channel> channels = new CopyOnWriteArrayList<>();
+    // Messages submitted and not yet delivered or given up on
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Object idle = new Object();
+
+    /**
+     * A sink with its queue and delivery thread
+     */
+    private final class Channel implements Runnable {
+        private final CommunicationSink sink;
+        private final Communication.Type type;
+        private final BlockingQueue<Communication> queue;
+        private final DispatchStats stats;
+        private volatile boolean stopped;
+
+        Channel(String name, Communication.Type type, CommunicationSink sink, int capacity) {
+            this.sink = sink;
+            this.type = type;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.stats = new DispatchStats(name);
+        }
+
+        boolean accepts(Communication communication) {
+            return type == null || type == communication.getType();
+        }
+
+        @Override
+        public void run() {
+            List<Communication> batch = new ArrayList<>(BATCH_SIZE);
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    try {
+                        deliver(batch);
+                    } finally {
+                        done(batch.size());
+                        batch.clear();
+                    }
+                }
+            } catch (InterruptedException e) {
+                stop();
+            }
+        }
+
+        /**
+         * Deliver the batch, retrying what has not gone through yet
+         * Returns early with the rest counted as failed if the thread is interrupted, leaving
+         * the interrupt set so the run loop stops.
+         */
+        private void deliver(List<Communication> batch) {
+            List<Communication> remaining = batch;
+            long pause = FIRST_RETRY_MILLIS;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    sink.deliver(remaining);
+                    stats.delivered(remaining.size());
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    if (e instanceof PartialDeliveryException partial && partial.getDelivered() > 0) {
+                        int delivered = Math.min(partial.getDelivered(), remaining.size());
+                        stats.delivered(delivered);
+                        remaining = remaining.subList(delivered, remaining.size());
+                        if (remaining.isEmpty()) {
+                            return;
+                        }
+                        // Progress was made, so the rest get a full set of attempts
+                        attempt = 0;
+                        pause = FIRST_RETRY_MILLIS;
+                    } else if (attempt == MAX_ATTEMPTS) {
+                        System.err.println("Giving up on " + remaining.size() + " communications to "
+                                + stats.getSinkName() + ": " + e.getMessage());
+                        stats.failed(remaining.size());
+                        return;
+                    }
+                    System.err.println("Error delivering to " + stats.getSinkName() + ", retrying "
+                            + remaining.size() + ": " + e.getMessage());
+                    stats.retried();
+                }
+                try {
+                    Thread.sleep(pause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    stats.failed(remaining.size());
+                    return;
+                }
+                pause = Math.min(pause * 2, MAX_RETRY_MILLIS);
+            }
+        }
+
+        /**
+         * Take the sink out of service and fail whatever is still queued for it
+         */
+        private void stop() {
+            stopped = true;
+            channels.remove(this);
+            List<Communication> abandoned = new ArrayList<>();
+            queue.drainTo(abandoned);
+            if (!abandoned.isEmpty()) {
+                System.err.println("Delivery to " + stats.getSinkName() + " stopped, dropping "
+                        + abandoned.size() + " communications");
+                stats.failed(abandoned.size());
+                done(abandoned.size());
+            }
+        }
+
+        /**
+         * Queue a communication, waiting while the queue is full
+         * @return false if the sink has stopped or the caller was interrupted, and the
+         *         communication will not be delivered
+         */
+        boolean offer(Communication communication) throws InterruptedException {
+            while (!stopped) {
+                if (queue.offer(communication, OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+                    // If the sink stopped meanwhile it may have missed this one when it emptied its queue
+                    return !stopped || !queue.remove(communication);
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Start delivering communications of the given type, or of every type if it is null, to a sink
+     */
+    void addSink(String name, Communication.Type type, CommunicationSink sink) {
+        Channel channel = new Channel(name, type, sink, QUEUE_CAPACITY);
+        Thread thread = new Thread(channel, "dispatch-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        channels.add(channel);
+    }
+
+    /**
+     * Queue a communication for every sink that takes its type, waiting while a sink's queue is full
+     */
+    void submit(Communication communication) {
+        for (Channel channel : channels) {
+            if (!channel.accepts(communication)) {
+                continue;
+            }
+            pending.incrementAndGet();
+            try {
+                if (!channel.offer(communication)) {
+                    System.err.println("Delivery to " + channel.stats.getSinkName()
+                            + " has stopped, not delivering communication for referral " + communication.getReferralID());
+                    channel.stats.failed(1);
+                    done(1);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.err.println("Interrupted, not delivering communication for referral "
+                        + communication.getReferralID() + " to " + channel.stats.getSinkName());
+                channel.stats.failed(1);
+                done(1);
+                return;
+            }
+        }
+    }
+
+    private void done(int count) {
+        if (pending.addAndGet(-count) == 0) {
+            synchronized (idle) {
+                idle.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until everything submitted so far has been delivered or given up on
+     */
+    void awaitIdle() throws InterruptedException {
+        synchronized (idle) {
+            while (pending.get() > 0) {
+                idle.wait();
+            }
+        }
+    }
+
+    List<DispatchStats> getStats() {
+        List<DispatchStats> stats = new ArrayList<>();
+        for (Channel channel : channels) {
+            stats.add(channel.stats);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,16 @@
+package com.healthcare.referral;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A system that generated communications are delivered to, such as a mail server or an
+ * EHR import directory
+ * A batch is delivered from one thread at a time. A sink that fails partway through a
+ * batch throws PartialDeliveryException saying how many messages went, and only the rest
+ * are tried again later; any other exception means none of the batch was delivered.
+ */
+@FunctionalInterface
+public interface CommunicationSink {
+    void deliver(List<Communication> batch) throws IOException;
+}
@@ -0,0 +1,64 @@
+package com.healthcare.referral;
+
+/**
+ * Delivery figures for one sink: what was delivered, retried and given up on
+ */
+public final class DispatchStats {
+    private final String sinkName;
+    private long delivered;
+    private long batches;
+    private long retries;
+    private long failed;
+    private int largestBatch;
+
+    DispatchStats(String sinkName) {
+        this.sinkName = sinkName;
+    }
+
+    synchronized void delivered(int batchSize) {
+        delivered += batchSize;
+        batches++;
+        largestBatch = Math.max(largestBatch, batchSize);
+    }
+
+    synchronized void retried() {
+        retries++;
+    }
+
+    synchronized void failed(int count) {
+        failed += count;
+    }
+
+    public String getSinkName() {
+        return sinkName;
+    }
+
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized int getLargestBatch() {
+        return largestBatch;
+    }
+
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    /**
+     * Messages dropped after every attempt to deliver them failed
+     */
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d delivered in %d batches (largest %d), %d retries, %d failed",
+                sinkName, delivered, batches, largestBatch, retries, failed);
+    }
+}
@@ -0,0 +1,49 @@
+package com.healthcare.referral;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes EHR updates as files into a directory that an EHR system imports from
+ * Each update is written to a temporary name and then renamed, so the importer never
+ * sees a file that is only partly written.
+ */
+public class EhrDropSink implements CommunicationSink {
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final Path directory;
+
+    public EhrDropSink(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    @Override
+    public void deliver(List<Communication> batch) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                write(batch.get(i));
+            } catch (IOException e) {
+                if (i > 0) {
+                    throw new PartialDeliveryException(i, e);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void write(Communication update) throws IOException {
+        String name = "ehr-" + update.getReferralID() + "-" + update.getCreatedMillis() + "-"
+                + SEQUENCE.incrementAndGet();
+        Path temp = directory.resolve(name + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(update.getText());
+        }
+        Files.move(temp, directory.resolve(name + ".txt"), StandardCopyOption.ATOMIC_MOVE);
+    }
+}
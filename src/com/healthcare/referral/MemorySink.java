@@ -0,0 +1,24 @@
+package com.healthcare.referral;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps delivered communications in memory, for tests and for checking what was sent
+ */
+public class MemorySink implements CommunicationSink {
+    private final List<Communication> delivered = new ArrayList<>();
+
+    @Override
+    public synchronized void deliver(List<Communication> batch) {
+        delivered.addAll(batch);
+    }
+
+    public synchronized List<Communication> getDelivered() {
+        return new ArrayList<>(delivered);
+    }
+
+    public synchronized void clear() {
+        delivered.clear();
+    }
+}
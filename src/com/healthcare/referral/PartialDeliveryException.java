@@ -0,0 +1,24 @@
+package com.healthcare.referral;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a sink that delivered the start of a batch before failing
+ * The dispatcher counts the first {@link #getDelivered()} messages as delivered and only
+ * tries the rest again, so nothing that was accepted is sent twice.
+ */
+public class PartialDeliveryException extends IOException {
+    private final int delivered;
+
+    public PartialDeliveryException(int delivered, IOException cause) {
+        super(cause.getMessage(), cause);
+        this.delivered = delivered;
+    }
+
+    /**
+     * How many messages from the start of the batch were delivered
+     */
+    public int getDelivered() {
+        return delivered;
+    }
+}
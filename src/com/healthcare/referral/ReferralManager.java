@@ -2,29 +2,193 @@ package com.healthcare.referral;
 
 import com.healthcare.model.Referral;
 import com.healthcare.data.DataManager;
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Singleton pattern implementation for Referral Management
  * Manages referral queues, email communications, and EHR updates
+ *
+ * The queue is ordered by urgency, most urgent first (see {@link Urgency}), then by
+ * referral date and then by arrival, so an urgent referral never waits behind routine
+ * ones. Any thread may add to it; a small pool of workers takes referrals off it in that
+ * order, in parallel, as soon as they arrive.
+ *
+ * Each referral is processed once per stored version: the referral ID and version are
+ * the dedup key, and the state of the latest version seen for each ID is kept (see
+ * {@link ReferralState}). DataManager never gives an ID the same version twice, even
+ * after a delete and re-add or a reload, so a re-added or reloaded referral is new work.
+ * Adding a version that is already queued, being processed or completed does nothing,
+ * and a queued version that a newer one has overtaken is dropped when it comes up. A
+ * processed referral leaves the queue, so the queue only ever holds work still to do.
+ *
+ * Processing a referral generates its email and EHR update and hands them to a
+ * CommunicationDispatcher, which delivers them in batches on its own threads to the
+ * audit trail and to any sinks added with {@link #addSink}. A slow sink holds up the
+ * workers once its queue is full, never the thread that added the referral.
+ *
+ * Thread-safe: the queue is a concurrent priority queue, states change atomically in a
+ * concurrent map and the audit logs lock themselves. There is no lock over the manager as
+ * a whole, so callers may add referrals while holding DataManager's locks; nothing here
+ * calls back into DataManager.
  */
 public class ReferralManager {
     private static ReferralManager instance;
-    private List<Referral> referralQueue;
-    private List<String> emailCommunications;
-    private List<String> ehrUpdates;
+    private final PriorityBlockingQueue<QueuedReferral> referralQueue;
+    private final AuditLog emailCommunications;
+    private final AuditLog ehrUpdates;
     private DataManager dataManager;
+    private final AtomicLong arrivals = new AtomicLong();
+    private final Map<Urgency, UrgencyStats> queueStats = new EnumMap<>(Urgency.class);
+    private final ExecutorService workers;
+    private final int workerCount;
+    // Latest version seen for each referral ID and how far it has got
+    private final ConcurrentHashMap<String, Tracked> states = new ConcurrentHashMap<>();
+    // Referrals whose processing failed, queued again by the next processQueue
+    private final Map<String, Referral> failed = new ConcurrentHashMap<>();
+    private final AtomicInteger activeDrains = new AtomicInteger();
+    // Referrals queued and not yet processed or dropped; processQueue waits for it to reach 0
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final Object idle = new Object();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final CommunicationDispatcher dispatcher = new CommunicationDispatcher();
+    // Layouts for generated text, replaced as a whole by loadTemplates
+    private volatile ReferralTemplate emailTemplate = ReferralTemplate.compile(EMAIL_LAYOUT);
+    private volatile ReferralTemplate ehrTemplate = ReferralTemplate.compile(EHR_LAYOUT);
+    private volatile ReferralTemplate letterTemplate = ReferralTemplate.compile(LETTER_LAYOUT);
+    private final CachedDate today = new CachedDate();
+    private final ThreadLocal<StringBuilder> renderBuffer = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+    private static final int MAX_KEPT_BUFFER = 64 * 1024;
+
+    private static final String EMAIL_LAYOUT = """
+            === REFERRAL EMAIL COMMUNICATION ===
+            Date: {{today}}
+            Referral ID: {{referralId}}
+            Patient ID: {{patientId}}
+            From: {{referringFacility}}
+            To: {{receivingFacility}}
+            Urgency: {{urgency}}
+            Clinical Summary: {{clinicalSummary}}
+            Status: {{status}}
+            =====================================
+
+            """;
+    private static final String EHR_LAYOUT = """
+            === ELECTRONIC HEALTH RECORD UPDATE ===
+            Timestamp: {{today}}
+            Referral ID: {{referralId}}
+            Patient ID: {{patientId}}
+            Action: Referral Created/Updated
+            Referring Clinician: {{referringClinicianId}}
+            Receiving Clinician: {{receivingClinicianId}}
+            Clinical Summary: {{clinicalSummary}}
+            Audit Trail: Referral processed by system
+            ========================================
+
+            """;
+    private static final String LETTER_LAYOUT = """
+            === PATIENT REFERRAL ===
+
+            Referral ID: {{referralId}}
+            Date: {{referralDate}}
+            Urgency Level: {{urgency}}
+            Status: {{status}}
+
+            PATIENT INFORMATION:
+            Patient ID: {{patientId}}
+
+            REFERRING INFORMATION:
+            Clinician ID: {{referringClinicianId}}
+            Facility: {{referringFacility}}
+
+            RECEIVING INFORMATION:
+            Clinician ID: {{receivingClinicianId}}
+            Facility: {{receivingFacility}}
+
+            CLINICAL SUMMARY:
+            {{clinicalSummary}}
+
+            === END OF REFERRAL ===
+            """;
 
     // Private constructor to prevent instantiation
     private ReferralManager() {
-        referralQueue = new ArrayList<>();
-        emailCommunications = new ArrayList<>();
-        ehrUpdates = new ArrayList<>();
+        referralQueue = new PriorityBlockingQueue<>();
+        emailCommunications = new AuditLog("email");
+        ehrUpdates = new AuditLog("ehr");
+        for (Urgency urgency : Urgency.values()) {
+            queueStats.put(urgency, new UrgencyStats(urgency));
+        }
+        workerCount = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        workers = Executors.newFixedThreadPool(workerCount, task -> {
+            Thread thread = new Thread(task, "referral-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatcher.addSink("audit", null, this::recordAudit);
+    }
+
+    /**
+     * A referral waiting in the queue, with what it is ordered by
+     */
+    private static final class QueuedReferral implements Comparable<QueuedReferral> {
+        private final Referral referral;
+        private final long version;
+        private final Urgency urgency;
+        private final String date;
+        private final long arrival;
+        private final long queuedAt = System.nanoTime();
+
+        QueuedReferral(Referral referral, long arrival) {
+            this.referral = referral;
+            this.version = referral.getVersion();
+            this.urgency = Urgency.of(referral.getUrgency());
+            this.date = referral.getDate() == null ? "" : referral.getDate();
+            this.arrival = arrival;
+        }
+
+        @Override
+        public int compareTo(QueuedReferral other) {
+            if (urgency != other.urgency) {
+                return urgency.compareTo(other.urgency);
+            }
+            // ISO dates order as text; a referral without a date goes after dated ones
+            if (!date.equals(other.date)) {
+                if (date.isEmpty() || other.date.isEmpty()) {
+                    return date.isEmpty() ? 1 : -1;
+                }
+                return date.compareTo(other.date);
+            }
+            return Long.compare(arrival, other.arrival);
+        }
+    }
+
+    /**
+     * The state of one version of a referral; replaced, never changed
+     */
+    private static final class Tracked {
+        private final long version;
+        private final ReferralState state;
+
+        Tracked(long version, ReferralState state) {
+            this.version = version;
+            this.state = state;
+        }
     }
 
     /**
@@ -46,22 +210,149 @@ public class ReferralManager {
 
     /**
      * Add referral to queue
+     * Does nothing if this version of the referral has been queued before, unless its
+     * processing failed. The referral is processed on a worker, not on the caller's thread.
      */
     public void addToQueue(Referral referral) {
-        referralQueue.add(referral);
-        generateEmailCommunication(referral);
-        generateEHRUpdate(referral);
+        long version = referral.getVersion();
+        boolean[] accepted = new boolean[1];
+        states.compute(referral.getReferralID(), (id, tracked) -> {
+            if (tracked != null && (tracked.version > version
+                    || tracked.version == version && tracked.state != ReferralState.FAILED)) {
+                return tracked;
+            }
+            accepted[0] = true;
+            return new Tracked(version, ReferralState.QUEUED);
+        });
+        if (!accepted[0]) {
+            duplicates.incrementAndGet();
+            return;
+        }
+        failed.remove(referral.getReferralID());
+        QueuedReferral queued = new QueuedReferral(referral, arrivals.getAndIncrement());
+        queueStats.get(queued.urgency).queued();
+        outstanding.incrementAndGet();
+        referralQueue.add(queued);
+        startDrain();
+    }
+
+    /**
+     * Deliver communications of the given type, or of every type if it is null, to a sink
+     * as well as to the audit trail
+     */
+    public void addSink(String name, Communication.Type type, CommunicationSink sink) {
+        dispatcher.addSink(name, type, sink);
+    }
+
+    /**
+     * Delivery figures for the audit trail and each added sink
+     */
+    public List<DispatchStats> getDispatchStats() {
+        return dispatcher.getStats();
     }
 
     /**
      * Process referral queue
+     * Referrals whose processing failed are queued again, and this returns once every
+     * queued referral has been processed and its communications delivered or given up on.
+     * Referrals are processed as they arrive whether or not this is called; it is for
+     * callers that need the queue to be finished.
      */
     public void processQueue() {
-        for (Referral referral : referralQueue) {
-            if ("Pending".equals(referral.getStatus())) {
-                processReferral(referral);
+        for (Referral referral : new ArrayList<>(failed.values())) {
+            addToQueue(referral);
+        }
+        startDrain();
+        synchronized (idle) {
+            while (outstanding.get() > 0) {
+                try {
+                    idle.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
             }
         }
+        try {
+            dispatcher.awaitIdle();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Put another worker on the queue unless all of them are on it already
+     */
+    private void startDrain() {
+        int active;
+        do {
+            active = activeDrains.get();
+            if (active >= workerCount) {
+                return;
+            }
+        } while (!activeDrains.compareAndSet(active, active + 1));
+        workers.execute(this::drainQueue);
+    }
+
+    /**
+     * Take referrals off the queue until it is empty
+     */
+    private void drainQueue() {
+        try {
+            QueuedReferral queued;
+            while ((queued = referralQueue.poll()) != null) {
+                queueStats.get(queued.urgency).dequeued(System.nanoTime() - queued.queuedAt);
+                try {
+                    runQueued(queued);
+                } finally {
+                    if (outstanding.decrementAndGet() == 0) {
+                        synchronized (idle) {
+                            idle.notifyAll();
+                        }
+                    }
+                }
+            }
+        } finally {
+            activeDrains.decrementAndGet();
+            // A referral added after the last poll found the queue empty may have seen every worker busy
+            if (!referralQueue.isEmpty()) {
+                startDrain();
+            }
+        }
+    }
+
+    /**
+     * Process a queued referral if its version is still the one to process
+     */
+    private void runQueued(QueuedReferral queued) {
+        String id = queued.referral.getReferralID();
+        if (!moveState(id, queued.version, ReferralState.QUEUED, ReferralState.PROCESSING)) {
+            return; // Overtaken by a newer version
+        }
+        try {
+            processReferral(queued.referral);
+            moveState(id, queued.version, ReferralState.PROCESSING, ReferralState.COMPLETED);
+        } catch (RuntimeException e) {
+            System.err.println("Error processing referral " + id + ": " + e);
+            if (moveState(id, queued.version, ReferralState.PROCESSING, ReferralState.FAILED)) {
+                failed.put(id, queued.referral);
+            }
+        }
+    }
+
+    /**
+     * Change the state of a referral version if it is still current and in the expected state
+     */
+    private boolean moveState(String id, long version, ReferralState from, ReferralState to) {
+        boolean[] moved = new boolean[1];
+        states.computeIfPresent(id, (key, tracked) -> {
+            if (tracked.version != version || tracked.state != from) {
+                return tracked;
+            }
+            moved[0] = true;
+            return new Tracked(version, to);
+        });
+        return moved[0];
     }
 
     /**
@@ -73,70 +364,110 @@ public class ReferralManager {
         generateEHRUpdate(referral);
     }
 
+    /**
+     * The processing state of the latest version of a referral seen, or null if it was
+     * never queued
+     */
+    public ReferralState getState(String referralID) {
+        Tracked tracked = states.get(referralID);
+        return tracked == null ? null : tracked.state;
+    }
+
+    /**
+     * Number of adds ignored because that version of the referral was already queued or processed
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
     /**
      * Generate email communication content for referral
      */
     private void generateEmailCommunication(Referral referral) {
-        StringBuilder email = new StringBuilder();
-        email.append("=== REFERRAL EMAIL COMMUNICATION ===\n");
-        email.append("Date: ").append(LocalDate.now().format(DateTimeFormatter.ISO_DATE)).append("\n");
-        email.append("Referral ID: ").append(referral.getReferralID()).append("\n");
-        email.append("Patient ID: ").append(referral.getPatientID()).append("\n");
-        email.append("From: ").append(referral.getReferringFacility()).append("\n");
-        email.append("To: ").append(referral.getReceivingFacility()).append("\n");
-        email.append("Urgency: ").append(referral.getUrgency()).append("\n");
-        email.append("Clinical Summary: ").append(referral.getClinicalSummary()).append("\n");
-        email.append("Status: ").append(referral.getStatus()).append("\n");
-        email.append("=====================================\n\n");
-
-        emailCommunications.add(email.toString());
+        dispatcher.submit(new Communication(Communication.Type.EMAIL, referral.getReferralID(),
+                referral.getReceivingFacility(), render(emailTemplate, referral)));
     }
 
     /**
      * Generate EHR update content for referral
      */
     private void generateEHRUpdate(Referral referral) {
-        StringBuilder ehr = new StringBuilder();
-        ehr.append("=== ELECTRONIC HEALTH RECORD UPDATE ===\n");
-        ehr.append("Timestamp: ").append(LocalDate.now().format(DateTimeFormatter.ISO_DATE)).append("\n");
-        ehr.append("Referral ID: ").append(referral.getReferralID()).append("\n");
-        ehr.append("Patient ID: ").append(referral.getPatientID()).append("\n");
-        ehr.append("Action: Referral Created/Updated\n");
-        ehr.append("Referring Clinician: ").append(referral.getReferringClinicianID()).append("\n");
-        ehr.append("Receiving Clinician: ").append(referral.getReceivingClinicianID()).append("\n");
-        ehr.append("Clinical Summary: ").append(referral.getClinicalSummary()).append("\n");
-        ehr.append("Audit Trail: Referral processed by system\n");
-        ehr.append("========================================\n\n");
-
-        ehrUpdates.add(ehr.toString());
+        dispatcher.submit(new Communication(Communication.Type.EHR, referral.getReferralID(),
+                referral.getPatientID(), render(ehrTemplate, referral)));
     }
 
     /**
-     * Generate referral text file
+     * Render into this thread's buffer, which is reused for the next message
      */
-    public void generateReferralFile(Referral referral, String outputPath) {
-        try (FileWriter writer = new FileWriter(outputPath)) {
-            writer.write("=== PATIENT REFERRAL ===\n\n");
-            writer.write("Referral ID: " + referral.getReferralID() + "\n");
-            writer.write("Date: " + referral.getDate() + "\n");
-            writer.write("Urgency Level: " + referral.getUrgency() + "\n");
-            writer.write("Status: " + referral.getStatus() + "\n\n");
+    private String render(ReferralTemplate template, Referral referral) {
+        StringBuilder buffer = renderBuffer.get();
+        buffer.setLength(0);
+        template.render(referral, today.today(), buffer);
+        String text = buffer.toString();
+        if (buffer.capacity() > MAX_KEPT_BUFFER) {
+            // One huge message should not pin a huge buffer to the thread for good
+            renderBuffer.remove();
+        }
+        return text;
+    }
 
-            writer.write("PATIENT INFORMATION:\n");
-            writer.write("Patient ID: " + referral.getPatientID() + "\n\n");
+    /**
+     * Use the layouts in the directory instead of the built-in ones: email.txt, ehr.txt
+     * and letter.txt, each optional, with {{field}} placeholders such as {{referralId}},
+     * {{patientId}}, {{urgency}}, {{clinicalSummary}} or {{today}}
+     * @throws IOException if a layout cannot be read or names an unknown field; no layout
+     *         is changed then
+     */
+    public void loadTemplates(Path directory) throws IOException {
+        ReferralTemplate email = loadTemplate(directory.resolve("email.txt"), emailTemplate);
+        ReferralTemplate ehr = loadTemplate(directory.resolve("ehr.txt"), ehrTemplate);
+        ReferralTemplate letter = loadTemplate(directory.resolve("letter.txt"), letterTemplate);
+        emailTemplate = email;
+        ehrTemplate = ehr;
+        letterTemplate = letter;
+    }
 
-            writer.write("REFERRING INFORMATION:\n");
-            writer.write("Clinician ID: " + referral.getReferringClinicianID() + "\n");
-            writer.write("Facility: " + referral.getReferringFacility() + "\n\n");
+    private static ReferralTemplate loadTemplate(Path file, ReferralTemplate current) throws IOException {
+        return Files.isRegularFile(file) ? ReferralTemplate.load(file) : current;
+    }
 
-            writer.write("RECEIVING INFORMATION:\n");
-            writer.write("Clinician ID: " + referral.getReceivingClinicianID() + "\n");
-            writer.write("Facility: " + referral.getReceivingFacility() + "\n\n");
+    /**
+     * Keep delivered communications in the audit logs
+     */
+    private void recordAudit(List<Communication> batch) {
+        List<String> emails = new ArrayList<>();
+        List<String> updates = new ArrayList<>();
+        for (Communication communication : batch) {
+            if (communication.getType() == Communication.Type.EMAIL) {
+                emails.add(communication.getText());
+            } else {
+                updates.add(communication.getText());
+            }
+        }
+        if (!emails.isEmpty()) {
+            emailCommunications.append(emails);
+        }
+        if (!updates.isEmpty()) {
+            ehrUpdates.append(updates);
+        }
+    }
 
-            writer.write("CLINICAL SUMMARY:\n");
-            writer.write(referral.getClinicalSummary() + "\n\n");
+    /**
+     * Keep the audit logs in segment files in the directory as well as in memory, so that
+     * entries too old to be kept in memory can still be read
+     * @throws IllegalStateException if anything has been logged already
+     */
+    public void setAuditDirectory(Path directory) throws IOException {
+        emailCommunications.openDirectory(directory);
+        ehrUpdates.openDirectory(directory);
+    }
 
-            writer.write("=== END OF REFERRAL ===\n");
+    /**
+     * Generate referral text file
+     */
+    public void generateReferralFile(Referral referral, String outputPath) {
+        try (Writer writer = new BufferedWriter(new FileWriter(outputPath))) {
+            letterTemplate.render(referral, today.today(), writer);
 
             // Also add to email communications
             generateEmailCommunication(referral);
@@ -148,24 +479,53 @@ public class ReferralManager {
     }
 
     /**
-     * Get all email communications
+     * Get the most recent email communications, as many as are kept in memory
+     * Use {@link #getEmailLog()} to page through older ones.
      */
     public List<String> getEmailCommunications() {
-        return new ArrayList<>(emailCommunications);
+        return emailCommunications.getRecentTexts();
     }
 
     /**
-     * Get all EHR updates
+     * Get the most recent EHR updates, as many as are kept in memory
+     * Use {@link #getEHRLog()} to page through older ones.
      */
     public List<String> getEHRUpdates() {
-        return new ArrayList<>(ehrUpdates);
+        return ehrUpdates.getRecentTexts();
     }
 
     /**
-     * Get referral queue
+     * Every email communication still kept, for reading a page at a time
+     */
+    public AuditLog getEmailLog() {
+        return emailCommunications;
+    }
+
+    /**
+     * Every EHR update still kept, for reading a page at a time
+     */
+    public AuditLog getEHRLog() {
+        return ehrUpdates;
+    }
+
+    /**
+     * Get referral queue, in the order the referrals will be taken
      */
     public List<Referral> getReferralQueue() {
-        return new ArrayList<>(referralQueue);
+        QueuedReferral[] queued = referralQueue.toArray(new QueuedReferral[0]);
+        Arrays.sort(queued);
+        List<Referral> referrals = new ArrayList<>(queued.length);
+        for (QueuedReferral entry : queued) {
+            referrals.add(entry.referral);
+        }
+        return referrals;
+    }
+
+    /**
+     * Queue depth and waiting times for each urgency level, most urgent first
+     */
+    public List<UrgencyStats> getQueueStats() {
+        return new ArrayList<>(queueStats.values());
     }
 
     /**
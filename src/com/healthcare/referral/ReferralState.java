@@ -0,0 +1,17 @@
+package com.healthcare.referral;
+
+/**
+ * Where a referral is in ReferralManager's processing
+ * A referral moves from QUEUED to PROCESSING when a worker takes it, and from there to
+ * COMPLETED once its communications have been generated and handed to the dispatcher,
+ * or to FAILED if processing threw; a failed referral is queued again by the next
+ * processQueue. Delivery happens afterwards on the dispatcher's threads, so COMPLETED
+ * does not mean the communications have reached their sinks; processQueue waits for
+ * that, and ReferralManager.getDispatchStats reports how it went.
+ */
+public enum ReferralState {
+    QUEUED,
+    PROCESSING,
+    COMPLETED,
+    FAILED
+}
@@ -0,0 +1,146 @@
+package com.healthcare.referral;
+
+import com.healthcare.model.Referral;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A layout for referral text, parsed once and then rendered for any number of referrals
+ * The layout is plain text with {{field}} placeholders (see {@link Field} for the names).
+ * Compiling splits it into literal runs and field lookups, so rendering is a walk over
+ * that list appending each part to the caller's buffer or writer: nothing is parsed,
+ * concatenated or formatted per referral.
+ */
+final class ReferralTemplate {
+    /**
+     * Values a template can refer to, by placeholder name
+     */
+    enum Field {
+        TODAY("today", null),
+        REFERRAL_ID("referralId", Referral::getReferralID),
+        REFERRAL_DATE("referralDate", Referral::getDate),
+        PATIENT_ID("patientId", Referral::getPatientID),
+        REFERRING_CLINICIAN_ID("referringClinicianId", Referral::getReferringClinicianID),
+        RECEIVING_CLINICIAN_ID("receivingClinicianId", Referral::getReceivingClinicianID),
+        REFERRING_FACILITY("referringFacility", Referral::getReferringFacility),
+        RECEIVING_FACILITY("receivingFacility", Referral::getReceivingFacility),
+        URGENCY("urgency", Referral::getUrgency),
+        STATUS("status", Referral::getStatus),
+        CLINICAL_SUMMARY("clinicalSummary", Referral::getClinicalSummary),
+        REFERRAL_REASON("referralReason", Referral::getReferralReason);
+
+        private final String placeholder;
+        private final Function<Referral, String> value;
+
+        Field(String placeholder, Function<Referral, String> value) {
+            this.placeholder = placeholder;
+            this.value = value;
+        }
+
+        static Field named(String name) {
+            for (Field field : values()) {
+                if (field.placeholder.equals(name)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Each part is either a literal run or a field; the other array is null at that index
+    private final String[] literals;
+    private final Field[] fields;
+    private final int literalLength;
+
+    private ReferralTemplate(String[] literals, Field[] fields) {
+        this.literals = literals;
+        this.fields = fields;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal == null ? 0 : literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parse a layout
+     * @throws IllegalArgumentException if a placeholder is unclosed or names no field
+     */
+    static ReferralTemplate compile(String layout) {
+        List<String> literals = new ArrayList<>();
+        List<Field> fields = new ArrayList<>();
+        int position = 0;
+        while (position < layout.length()) {
+            int open = layout.indexOf("{{", position);
+            if (open < 0) {
+                break;
+            }
+            int close = layout.indexOf("}}", open + 2);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder at offset " + open);
+            }
+            String name = layout.substring(open + 2, close).trim();
+            Field field = Field.named(name);
+            if (field == null) {
+                throw new IllegalArgumentException("Unknown placeholder {{" + name + "}}");
+            }
+            if (open > position) {
+                literals.add(layout.substring(position, open));
+                fields.add(null);
+            }
+            literals.add(null);
+            fields.add(field);
+            position = close + 2;
+        }
+        if (position < layout.length()) {
+            literals.add(layout.substring(position));
+            fields.add(null);
+        }
+        return new ReferralTemplate(literals.toArray(new String[0]), fields.toArray(new Field[0]));
+    }
+
+    /**
+     * Read and parse a layout file (UTF-8)
+     */
+    static ReferralTemplate load(Path file) throws IOException {
+        try {
+            return compile(Files.readString(file, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Append the text for a referral to the buffer
+     */
+    void render(Referral referral, String today, StringBuilder out) {
+        out.ensureCapacity(out.length() + literalLength + 256);
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == null) {
+                out.append(literals[i]);
+            } else {
+                out.append(value(fields[i], referral, today));
+            }
+        }
+    }
+
+    /**
+     * Write the text for a referral
+     */
+    void render(Referral referral, String today, Writer out) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            // Written as String.valueOf would show it, so a missing value reads "null" as before
+            out.write(fields[i] == null ? literals[i] : String.valueOf(value(fields[i], referral, today)));
+        }
+    }
+
+    private static String value(Field field, Referral referral, String today) {
+        return field == Field.TODAY ? today : field.value.apply(referral);
+    }
+}
@@ -0,0 +1,98 @@
+package com.healthcare.referral;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Sends referral emails to an SMTP server, one connection per batch
+ * Meant for a local relay or test server: plain SMTP, no authentication or TLS. Each
+ * message goes to its recipient's ID at the configured domain.
+ */
+public class SmtpSink implements CommunicationSink {
+    private static final int TIMEOUT_MILLIS = 10_000;
+
+    private final String host;
+    private final int port;
+    private final String from;
+    private final String domain;
+
+    public SmtpSink(String host, int port, String from, String domain) {
+        this.host = host;
+        this.port = port;
+        this.from = from;
+        this.domain = domain;
+    }
+
+    /**
+     * Send the batch over one connection
+     * A message counts as sent once the server has accepted its data, so a failure partway
+     * through reports the messages before it as delivered and only the rest are retried.
+     */
+    @Override
+    public void deliver(List<Communication> batch) throws IOException {
+        int sent = 0;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), TIMEOUT_MILLIS);
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            expect(in, 220);
+            command(out, in, "HELO localhost", 250);
+            for (Communication message : batch) {
+                command(out, in, "MAIL FROM:<" + from + ">", 250);
+                command(out, in, "RCPT TO:<" + message.getRecipient() + "@" + domain + ">", 250);
+                command(out, in, "DATA", 354);
+                out.write("From: " + from + "\r\n");
+                out.write("To: " + message.getRecipient() + "@" + domain + "\r\n");
+                out.write("Subject: Referral " + message.getReferralID() + "\r\n\r\n");
+                for (String line : message.getText().split("\n", -1)) {
+                    // A line starting with a dot would otherwise end the message early
+                    out.write(line.startsWith(".") ? "." + line : line);
+                    out.write("\r\n");
+                }
+                command(out, in, ".", 250);
+                sent++;
+            }
+            command(out, in, "QUIT", 221);
+        } catch (IOException e) {
+            if (sent == batch.size()) {
+                // Every message was accepted; only the goodbye went wrong
+                return;
+            }
+            if (sent > 0) {
+                throw new PartialDeliveryException(sent, e);
+            }
+            throw e;
+        }
+    }
+
+    private static void command(Writer out, BufferedReader in, String line, int expected) throws IOException {
+        out.write(line);
+        out.write("\r\n");
+        out.flush();
+        expect(in, expected);
+    }
+
+    /**
+     * Read a reply, including any continuation lines, and check its code
+     */
+    private static void expect(BufferedReader in, int expected) throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            if (line == null) {
+                throw new IOException("SMTP server closed the connection");
+            }
+        } while (line.length() > 3 && line.charAt(3) == '-');
+        if (!line.startsWith(Integer.toString(expected))) {
+            throw new IOException("Unexpected SMTP reply: " + line);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.healthcare.referral;
+
+/**
+ * Urgency levels of a referral, most urgent first
+ * The referral's urgency text is matched loosely, ignoring case, spaces and hyphens, so
+ * "Two-week wait", "2WW" and "two week wait" are the same level. Text that matches no
+ * level is treated as Routine.
+ */
+public enum Urgency {
+    EMERGENCY("Emergency"),
+    TWO_WEEK_WAIT("Two-week wait"),
+    URGENT("Urgent"),
+    ROUTINE("Routine"),
+    NON_URGENT("Non-urgent");
+
+    private final String label;
+
+    Urgency(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * The level named by a referral's urgency text
+     */
+    public static Urgency of(String text) {
+        if (text == null) {
+            return ROUTINE;
+        }
+        StringBuilder key = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                key.append(Character.toLowerCase(c));
+            }
+        }
+        switch (key.toString()) {
+            case "emergency":
+            case "immediate":
+                return EMERGENCY;
+            case "twoweekwait":
+            case "2ww":
+            case "2weekwait":
+            case "twoweekrule":
+            case "suspectedcancer":
+                return TWO_WEEK_WAIT;
+            case "urgent":
+                return URGENT;
+            case "nonurgent":
+                return NON_URGENT;
+            default:
+                return ROUTINE;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,59 @@
+package com.healthcare.referral;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue figures for one urgency level: how many referrals are waiting now, and how long
+ * the ones taken off the queue had waited
+ */
+public final class UrgencyStats {
+    private final Urgency urgency;
+    private int depth;
+    private long dequeued;
+    private long totalWaitNanos;
+    private long longestWaitNanos;
+
+    UrgencyStats(Urgency urgency) {
+        this.urgency = urgency;
+    }
+
+    synchronized void queued() {
+        depth++;
+    }
+
+    synchronized void dequeued(long waitNanos) {
+        depth--;
+        dequeued++;
+        totalWaitNanos += waitNanos;
+        longestWaitNanos = Math.max(longestWaitNanos, waitNanos);
+    }
+
+    public Urgency getUrgency() {
+        return urgency;
+    }
+
+    /**
+     * Referrals of this urgency waiting in the queue now
+     */
+    public synchronized int getDepth() {
+        return depth;
+    }
+
+    public synchronized long getDequeued() {
+        return dequeued;
+    }
+
+    public synchronized double getAverageWaitMillis() {
+        return dequeued == 0 ? 0 : totalWaitNanos / 1e6 / dequeued;
+    }
+
+    public synchronized long getLongestWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(longestWaitNanos);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d waiting, %d taken, average wait %.1f ms, longest %d ms",
+                urgency, depth, dequeued, getAverageWaitMillis(), getLongestWaitMillis());
+    }
+}
@@ -1,16 +1,23 @@
 package com.healthcare.view;
 
 import com.healthcare.controller.HealthcareController;
+import com.healthcare.data.TableFormat;
 import com.healthcare.model.Appointment;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.JTableHeader;
 import java.awt.*;
+import java.util.List;
+
+import static com.healthcare.view.EntityTableModel.column;
 
 public class AppointmentPanel extends JPanel {
     private HealthcareController controller;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private EntityTableModel<Appointment> tableModel;
+    // Version of the row loaded into the form
+    private long selectedVersion;
+    // ID of the record loaded into the form from the table, null when no row is selected
+    private String selectedID;
     private JTextField appointmentIDField, patientIDField, clinicianIDField, facilityIDField;
     private JTextField dateField, timeField, durationField, typeField, statusField, reasonField, notesField;
     private JTextField createdDateField, lastModifiedField;
@@ -18,6 +25,8 @@ public class AppointmentPanel extends JPanel {
     public AppointmentPanel(HealthcareController controller) {
         this.controller = controller;
         initializePanel();
+        // Rows are inserted, updated and removed as changes arrive, instead of reloading the table
+        controller.addChangeListener(changes -> SwingUtilities.invokeLater(() -> tableModel.apply(changes)));
     }
 
     private void initializePanel() {
@@ -26,14 +35,20 @@ public class AppointmentPanel extends JPanel {
 
         // Soft background for a cleaner "admin panel" appearance
         setBackground(new Color(245, 247, 250));
-        String[] columns = {"Appointment ID", "Patient ID", "Clinician ID", "Facility ID", 
-                          "Date", "Time", "Duration", "Type", "Status", "Reason", "Notes", "Created", "Last Modified"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new EntityTableModel<>(TableFormat.APPOINTMENTS, List.of(
+                column("Appointment ID", Appointment::getAppointmentID),
+                column("Patient ID", Appointment::getPatientID),
+                column("Clinician ID", Appointment::getClinicianID),
+                column("Facility ID", Appointment::getFacilityID),
+                column("Date", Appointment::getDate),
+                column("Time", Appointment::getTime),
+                column("Duration", Appointment::getDurationMinutes),
+                column("Type", Appointment::getAppointmentType),
+                column("Status", Appointment::getStatus),
+                column("Reason", Appointment::getReason),
+                column("Notes", Appointment::getNotes),
+                column("Created", Appointment::getCreatedDate),
+                column("Last Modified", Appointment::getLastModified)));
         table = new JTable(tableModel);
         table.setFillsViewportHeight(true);
         table.setRowHeight(24);
@@ -157,7 +172,6 @@ public class AppointmentPanel extends JPanel {
             Appointment appointment = createAppointmentFromForm();
             if (appointment != null) {
                 controller.addAppointment(appointment);
-                refreshData();
                 clearForm();
                 JOptionPane.showMessageDialog(this, "Appointment added!");
             }
@@ -174,9 +188,19 @@ public class AppointmentPanel extends JPanel {
         }
         try {
             String id = (String) tableModel.getValueAt(row, 0);
-            controller.deleteAppointment(id);
-            controller.addAppointment(createAppointmentFromForm());
-            refreshData();
+            Appointment appointment = createAppointmentFromForm();
+            if (appointment == null) {
+                return;
+            }
+            if (!id.equals(appointment.getAppointmentID())) {
+                JOptionPane.showMessageDialog(this, "The ID cannot be changed; use Add for a new appointment.");
+                return;
+            }
+            appointment.setVersion(selectedVersion);
+            if (!controller.updateAppointment(appointment)) {
+                JOptionPane.showMessageDialog(this, "This appointment no longer exists.");
+                return;
+            }
             clearForm();
             JOptionPane.showMessageDialog(this, "Appointment updated!");
         } catch (Exception e) {
@@ -193,7 +217,6 @@ public class AppointmentPanel extends JPanel {
         if (JOptionPane.showConfirmDialog(this, "Delete this appointment?", "Confirm", 
             JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
             controller.deleteAppointment((String) tableModel.getValueAt(row, 0));
-            refreshData();
             clearForm();
         }
     }
@@ -212,7 +235,15 @@ public class AppointmentPanel extends JPanel {
 
     private void loadSelectedAppointment() {
         int row = table.getSelectedRow();
+        // Rows added or removed by other users move the selection; the form is only reloaded
+        // when a different record is selected, so whatever is being typed is kept
+        String id = row >= 0 ? (String) tableModel.getValueAt(row, 0) : null;
+        if (id != null && id.equals(selectedID)) {
+            return;
+        }
+        selectedID = id;
         if (row >= 0) {
+            selectedVersion = tableModel.getRow(row).getVersion();
             appointmentIDField.setText((String) tableModel.getValueAt(row, 0));
             patientIDField.setText((String) tableModel.getValueAt(row, 1));
             clinicianIDField.setText((String) tableModel.getValueAt(row, 2));
@@ -246,14 +277,6 @@ public class AppointmentPanel extends JPanel {
     }
 
     public void refreshData() {
-        tableModel.setRowCount(0);
-        for (Appointment a : controller.getAllAppointments()) {
-            tableModel.addRow(new Object[]{a.getAppointmentID(), a.getPatientID(), a.getClinicianID(),
-                a.getFacilityID(), a.getDate(), a.getTime(), a.getDurationMinutes(), a.getAppointmentType(),
-                a.getStatus(), a.getReason(), a.getNotes(), a.getCreatedDate(), a.getLastModified()});
-        }
+        tableModel.refresh(controller.getSnapshot());
     }
 }
-
-
-
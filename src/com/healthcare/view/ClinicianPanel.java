@@ -1,15 +1,22 @@
 package com.healthcare.view;
 
 import com.healthcare.controller.HealthcareController;
+import com.healthcare.data.TableFormat;
 import com.healthcare.model.Clinician;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.util.List;
+
+import static com.healthcare.view.EntityTableModel.column;
 
 public class ClinicianPanel extends JPanel {
     private HealthcareController controller;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private EntityTableModel<Clinician> tableModel;
+    // Version of the row loaded into the form
+    private long selectedVersion;
+    // ID of the record loaded into the form from the table, null when no row is selected
+    private String selectedID;
     private JTextField clinicianIDField, firstNameField, lastNameField, qualificationField;
     private JTextField specialtyField, gmcNumberField, workplaceField, workplaceTypeField;
     private JTextField employmentStatusField, startDateField, emailField, phoneField;
@@ -17,19 +24,26 @@ public class ClinicianPanel extends JPanel {
     public ClinicianPanel(HealthcareController controller) {
         this.controller = controller;
         initializePanel();
+        // Rows are inserted, updated and removed as changes arrive, instead of reloading the table
+        controller.addChangeListener(changes -> SwingUtilities.invokeLater(() -> tableModel.apply(changes)));
     }
 
     private void initializePanel() {
         setLayout(new BorderLayout(10, 10));
         setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        String[] columns = {"Clinician ID", "First Name", "Last Name", "Qualification", 
-                          "Specialty", "GMC Number", "Workplace", "Workplace Type", "Employment Status", "Start Date", "Email", "Phone"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new EntityTableModel<>(TableFormat.CLINICIANS, List.of(
+                column("Clinician ID", Clinician::getClinicianID),
+                column("First Name", Clinician::getFirstName),
+                column("Last Name", Clinician::getLastName),
+                column("Qualification", Clinician::getQualification),
+                column("Specialty", Clinician::getSpecialty),
+                column("GMC Number", Clinician::getGmcNumber),
+                column("Workplace", Clinician::getWorkplace),
+                column("Workplace Type", Clinician::getWorkplaceType),
+                column("Employment Status", Clinician::getEmploymentStatus),
+                column("Start Date", Clinician::getStartDate),
+                column("Email", Clinician::getEmail),
+                column("Phone", Clinician::getPhone)));
         table = new JTable(tableModel);
         table.setFillsViewportHeight(true);
         table.setRowHeight(24);
@@ -105,7 +119,6 @@ public class ClinicianPanel extends JPanel {
             Clinician clinician = createClinicianFromForm();
             if (clinician != null) {
                 controller.addClinician(clinician);
-                refreshData();
                 clearForm();
                 JOptionPane.showMessageDialog(this, "Clinician added successfully!");
             }
@@ -122,9 +135,19 @@ public class ClinicianPanel extends JPanel {
         }
         try {
             String id = (String) tableModel.getValueAt(row, 0);
-            controller.deleteClinician(id);
-            controller.addClinician(createClinicianFromForm());
-            refreshData();
+            Clinician clinician = createClinicianFromForm();
+            if (clinician == null) {
+                return;
+            }
+            if (!id.equals(clinician.getClinicianID())) {
+                JOptionPane.showMessageDialog(this, "The ID cannot be changed; use Add for a new clinician.");
+                return;
+            }
+            clinician.setVersion(selectedVersion);
+            if (!controller.updateClinician(clinician)) {
+                JOptionPane.showMessageDialog(this, "This clinician no longer exists.");
+                return;
+            }
             clearForm();
             JOptionPane.showMessageDialog(this, "Clinician updated!");
         } catch (Exception e) {
@@ -141,7 +164,6 @@ public class ClinicianPanel extends JPanel {
         if (JOptionPane.showConfirmDialog(this, "Delete this clinician?", "Confirm", 
             JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
             controller.deleteClinician((String) tableModel.getValueAt(row, 0));
-            refreshData();
             clearForm();
         }
     }
@@ -161,7 +183,15 @@ public class ClinicianPanel extends JPanel {
 
     private void loadSelectedClinician() {
         int row = table.getSelectedRow();
+        // Rows added or removed by other users move the selection; the form is only reloaded
+        // when a different record is selected, so whatever is being typed is kept
+        String id = row >= 0 ? (String) tableModel.getValueAt(row, 0) : null;
+        if (id != null && id.equals(selectedID)) {
+            return;
+        }
+        selectedID = id;
         if (row >= 0) {
+            selectedVersion = tableModel.getRow(row).getVersion();
             clinicianIDField.setText((String) tableModel.getValueAt(row, 0));
             firstNameField.setText((String) tableModel.getValueAt(row, 1));
             lastNameField.setText((String) tableModel.getValueAt(row, 2));
@@ -193,14 +223,6 @@ public class ClinicianPanel extends JPanel {
     }
 
     public void refreshData() {
-        tableModel.setRowCount(0);
-        for (Clinician c : controller.getAllClinicians()) {
-            tableModel.addRow(new Object[]{c.getClinicianID(), c.getFirstName(), c.getLastName(),
-                c.getQualification(), c.getSpecialty(), c.getGmcNumber(), c.getWorkplace(), c.getWorkplaceType(),
-                c.getEmploymentStatus(), c.getStartDate(), c.getEmail(), c.getPhone()});
-        }
+        tableModel.refresh(controller.getSnapshot());
     }
 }
-
-
-
@@ -0,0 +1,212 @@
+package com.healthcare.view;
+
+import com.healthcare.data.DataChange;
+import com.healthcare.data.DataChanges;
+import com.healthcare.data.DataSnapshot;
+import com.healthcare.data.TableFormat;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model over the rows of one table in a DataSnapshot, read in place
+ * Nothing is copied: a cell is fetched from the snapshot's row list when JTable paints it,
+ * through the column's accessor, so only the visible rows are ever looked at. Showing a
+ * newer snapshot is a reference swap followed by row events for what changed.
+ * Used on the event dispatch thread only.
+ */
+final class EntityTableModel<T> extends AbstractTableModel {
+    // Beyond this many changes at once, announcing a whole new table is cheaper
+    private static final int MAX_ROW_CHANGES = 1000;
+
+    /**
+     * A column heading and how to read the column's value from a row
+     */
+    static final class Column<T> {
+        private final String name;
+        private final Function<T, ?> value;
+
+        Column(String name, Function<T, ?> value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+
+    static <T> Column<T> column(String name, Function<T, ?> value) {
+        return new Column<>(name, value);
+    }
+
+    private final TableFormat<T> format;
+    private final List<Column<T>> columns;
+    // The snapshot shown, or null before the first refresh or while other rows are shown
+    private DataSnapshot shown;
+    private List<T> rows = List.of();
+    private boolean showingOther;
+    // Rows JTable has been told about; behind rows.size() only while changes are announced
+    private int rowCount;
+    // JTable asks for a row's cells one after another, so the last row fetched is kept
+    private int cachedIndex = -1;
+    private T cachedRow;
+
+    EntityTableModel(TableFormat<T> format, List<Column<T>> columns) {
+        this.format = format;
+        this.columns = List.copyOf(columns);
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns.get(column).name;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return columns.get(column).value.apply(getRow(row));
+    }
+
+    /**
+     * The row object shown at the given position
+     */
+    T getRow(int index) {
+        if (index != cachedIndex) {
+            cachedRow = rows.get(index);
+            cachedIndex = index;
+        }
+        return cachedRow;
+    }
+
+    /**
+     * Show the table as it is in the snapshot
+     */
+    void refresh(DataSnapshot snapshot) {
+        shown = snapshot;
+        showingOther = false;
+        replace(snapshot.getRows(format));
+    }
+
+    /**
+     * Show some other list of rows, such as search results; change events then only
+     * tell the caller to look again
+     */
+    void show(List<T> list) {
+        shown = null;
+        showingOther = true;
+        replace(list);
+    }
+
+    private void replace(List<T> list) {
+        setRows(list);
+        rowCount = list.size();
+        fireTableDataChanged();
+    }
+
+    private void setRows(List<T> list) {
+        rows = list;
+        cachedIndex = -1;
+        cachedRow = null;
+    }
+
+    /**
+     * Move to the snapshot delivered with the changes, telling JTable which rows were
+     * deleted, inserted and updated
+     * @return false if other rows are being shown, in which case nothing was done and
+     *         the caller should show them again
+     */
+    boolean apply(DataChanges changes) {
+        if (!changes.touches(format)) {
+            return true;
+        }
+        if (showingOther) {
+            return false;
+        }
+        DataSnapshot next = changes.getSnapshot();
+        List<DataChange> list = changes.getChanges(format);
+        if (shown == null || changes.isReload() || list.size() > MAX_ROW_CHANGES) {
+            refresh(next);
+            return true;
+        }
+
+        Set<String> deleted = new HashSet<>();
+        List<Integer> removals = new ArrayList<>();
+        for (DataChange change : list) {
+            if (change.getType() == DataChange.Type.DELETE) {
+                int index = shown.indexOf(format, change.getId());
+                if (index >= 0) {
+                    removals.add(index);
+                    deleted.add(change.getId());
+                }
+            }
+        }
+        List<Integer> inserts = new ArrayList<>();
+        List<Integer> updates = new ArrayList<>();
+        for (DataChange change : list) {
+            if (change.getType() == DataChange.Type.DELETE) {
+                continue;
+            }
+            int index = next.indexOf(format, change.getId());
+            if (index >= 0) {
+                boolean present = shown.indexOf(format, change.getId()) >= 0 && !deleted.contains(change.getId());
+                (present ? updates : inserts).add(index);
+            }
+        }
+
+        List<T> nextRows = next.getRows(format);
+        if (rowCount - removals.size() + inserts.size() != nextRows.size()) {
+            // The snapshot already holds changes whose events are still on the way
+            refresh(next);
+            return true;
+        }
+        // The rows are swapped in first; JTable repaints only after every event is handled
+        shown = next;
+        setRows(nextRows);
+        removals.sort((a, b) -> b - a);
+        for (int[] range : ranges(removals, true)) {
+            rowCount -= range[1] - range[0] + 1;
+            fireTableRowsDeleted(range[0], range[1]);
+        }
+        inserts.sort(null);
+        for (int[] range : ranges(inserts, false)) {
+            rowCount += range[1] - range[0] + 1;
+            fireTableRowsInserted(range[0], range[1]);
+        }
+        updates.sort(null);
+        for (int[] range : ranges(updates, false)) {
+            fireTableRowsUpdated(range[0], range[1]);
+        }
+        return true;
+    }
+
+    /**
+     * Sorted positions grouped into [first, last] runs of adjacent rows, so a block of
+     * rows is announced with one event
+     */
+    private static List<int[]> ranges(List<Integer> positions, boolean descending) {
+        List<int[]> ranges = new ArrayList<>();
+        int[] current = null;
+        for (int position : positions) {
+            if (current != null && (descending ? position == current[0] - 1 : position == current[1] + 1)) {
+                if (descending) {
+                    current[0] = position;
+                } else {
+                    current[1] = position;
+                }
+            } else if (current == null || position != (descending ? current[0] : current[1])) {
+                current = new int[]{position, position};
+                ranges.add(current);
+            }
+        }
+        return ranges;
+    }
+}
@@ -1,34 +1,47 @@
 package com.healthcare.view;
 
 import com.healthcare.controller.HealthcareController;
+import com.healthcare.data.TableFormat;
 import com.healthcare.model.Facility;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.util.List;
 
+import static com.healthcare.view.EntityTableModel.column;
+
 public class FacilityPanel extends JPanel {
     private HealthcareController controller;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private EntityTableModel<Facility> tableModel;
+    // Version of the row loaded into the form
+    private long selectedVersion;
+    // ID of the record loaded into the form from the table, null when no row is selected
+    private String selectedID;
     private JTextField facilityIDField, nameField, typeField, addressField, postcodeField;
     private JTextField phoneField, emailField, openingHoursField, managerField, servicesField, capacityField;
 
     public FacilityPanel(HealthcareController controller) {
         this.controller = controller;
         initializePanel();
+        // Rows are inserted, updated and removed as changes arrive, instead of reloading the table
+        controller.addChangeListener(changes -> SwingUtilities.invokeLater(() -> tableModel.apply(changes)));
     }
 
     private void initializePanel() {
         setLayout(new BorderLayout(10, 10));
         setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        String[] columns = {"Facility ID", "Name", "Type", "Address", "Postcode", "Phone", "Email", "Opening Hours", "Manager", "Services", "Capacity"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new EntityTableModel<>(TableFormat.FACILITIES, List.of(
+                column("Facility ID", Facility::getFacilityID),
+                column("Name", Facility::getName),
+                column("Type", Facility::getType),
+                column("Address", Facility::getAddress),
+                column("Postcode", Facility::getPostcode),
+                column("Phone", Facility::getPhone),
+                column("Email", Facility::getEmail),
+                column("Opening Hours", Facility::getOpeningHours),
+                column("Manager", Facility::getManagerName),
+                column("Services", Facility::getServices),
+                column("Capacity", Facility::getCapacity)));
         table = new JTable(tableModel);
         table.setFillsViewportHeight(true);
         table.setRowHeight(24);
@@ -103,7 +116,6 @@ public class FacilityPanel extends JPanel {
             Facility facility = createFacilityFromForm();
             if (facility != null) {
                 controller.addFacility(facility);
-                refreshData();
                 clearForm();
                 JOptionPane.showMessageDialog(this, "Facility added!");
             }
@@ -120,9 +132,19 @@ public class FacilityPanel extends JPanel {
         }
         try {
             String id = (String) tableModel.getValueAt(row, 0);
-            controller.deleteFacility(id);
-            controller.addFacility(createFacilityFromForm());
-            refreshData();
+            Facility facility = createFacilityFromForm();
+            if (facility == null) {
+                return;
+            }
+            if (!id.equals(facility.getFacilityID())) {
+                JOptionPane.showMessageDialog(this, "The ID cannot be changed; use Add for a new facility.");
+                return;
+            }
+            facility.setVersion(selectedVersion);
+            if (!controller.updateFacility(facility)) {
+                JOptionPane.showMessageDialog(this, "This facility no longer exists.");
+                return;
+            }
             clearForm();
             JOptionPane.showMessageDialog(this, "Facility updated!");
         } catch (Exception e) {
@@ -139,7 +161,6 @@ public class FacilityPanel extends JPanel {
         if (JOptionPane.showConfirmDialog(this, "Delete this facility?", "Confirm", 
             JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
             controller.deleteFacility((String) tableModel.getValueAt(row, 0));
-            refreshData();
             clearForm();
         }
     }
@@ -157,7 +178,15 @@ public class FacilityPanel extends JPanel {
 
     private void loadSelectedFacility() {
         int row = table.getSelectedRow();
+        // Rows added or removed by other users move the selection; the form is only reloaded
+        // when a different record is selected, so whatever is being typed is kept
+        String id = row >= 0 ? (String) tableModel.getValueAt(row, 0) : null;
+        if (id != null && id.equals(selectedID)) {
+            return;
+        }
+        selectedID = id;
         if (row >= 0) {
+            selectedVersion = tableModel.getRow(row).getVersion();
             facilityIDField.setText((String) tableModel.getValueAt(row, 0));
             nameField.setText((String) tableModel.getValueAt(row, 1));
             typeField.setText((String) tableModel.getValueAt(row, 2));
@@ -187,12 +216,6 @@ public class FacilityPanel extends JPanel {
     }
 
     public void refreshData() {
-        tableModel.setRowCount(0);
-        for (Facility f : controller.getAllFacilities()) {
-            tableModel.addRow(new Object[]{f.getFacilityID(), f.getName(), f.getType(), f.getAddress(),
-                f.getPostcode(), f.getPhone(), f.getEmail(), f.getOpeningHours(), f.getManagerName(),
-                f.getServices(), f.getCapacity()});
-        }
+        tableModel.refresh(controller.getSnapshot());
     }
 }
-
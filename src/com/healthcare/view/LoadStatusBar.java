@@ -0,0 +1,173 @@
+package com.healthcare.view;
+
+import com.healthcare.controller.HealthcareController;
+import com.healthcare.data.LoadProgress;
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Status bar that loads a data directory in the background and shows how it is going
+ * The load runs on a SwingWorker thread; every few tenths of a second the worker reads
+ * the load's counters and publishes them, and the bar, the rows per second and the
+ * bytes read per file are updated on the event thread. Cancel stops the parsers and
+ * leaves the data that was loaded before in place.
+ */
+class LoadStatusBar extends JPanel {
+    private static final int POLL_MILLIS = 200;
+
+    private final HealthcareController controller;
+    private final JLabel statusLabel = new JLabel("Ready");
+    private final JLabel filesLabel = new JLabel();
+    private final JProgressBar progressBar = new JProgressBar(0, 1000);
+    private final JButton cancelButton = new JButton("Cancel");
+    private LoadProgress progress;
+
+    LoadStatusBar(HealthcareController controller) {
+        super(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        this.controller = controller;
+        setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
+        setBackground(new Color(250, 250, 250));
+        statusLabel.setForeground(new Color(100, 100, 100));
+        filesLabel.setForeground(new Color(100, 100, 100));
+        progressBar.setStringPainted(true);
+        progressBar.setPreferredSize(new Dimension(220, progressBar.getPreferredSize().height));
+        cancelButton.addActionListener(e -> cancel());
+        add(statusLabel);
+        add(progressBar);
+        add(filesLabel);
+        add(cancelButton);
+        showLoading(false);
+    }
+
+    boolean isLoading() {
+        return progress != null;
+    }
+
+    /**
+     * Start loading the directory unless a load is already running
+     * The panels pick the new data up from the reload event once it is in place.
+     */
+    void load(String dataDirectory) {
+        if (isLoading()) {
+            return;
+        }
+        progress = new LoadProgress();
+        statusLabel.setText("Loading " + dataDirectory);
+        progressBar.setValue(0);
+        filesLabel.setText("");
+        cancelButton.setEnabled(true);
+        showLoading(true);
+        new LoadWorker(dataDirectory, progress).execute();
+    }
+
+    private void cancel() {
+        if (progress != null) {
+            progress.cancel();
+            cancelButton.setEnabled(false);
+            statusLabel.setText("Cancelling...");
+        }
+    }
+
+    private void showLoading(boolean loading) {
+        progressBar.setVisible(loading);
+        filesLabel.setVisible(loading);
+        cancelButton.setVisible(loading);
+    }
+
+    private void showProgress(LoadProgress shown) {
+        long size = shown.getSize();
+        progressBar.setValue(size == 0 ? 0 : (int) (shown.getBytesRead() * 1000 / size));
+        progressBar.setString(bytes(shown.getBytesRead(), size) + " / " + bytes(size, size));
+        if (!shown.isCancelled()) {
+            statusLabel.setText(String.format("Loading: %,d rows, %,.0f rows/s",
+                    shown.getRows(), shown.getRowsPerSecond()));
+        }
+        StringBuilder files = new StringBuilder("<html>");
+        for (LoadProgress.FileProgress file : shown.getFiles()) {
+            if (files.length() > 6) {
+                files.append(" &nbsp; ");
+            }
+            files.append(file.isDone() ? "<b>" : "").append(file.getFileName()).append(' ')
+                    .append(bytes(file.getBytesRead(), file.getSize())).append(" / ")
+                    .append(bytes(file.getSize(), file.getSize()))
+                    .append(file.isDone() ? "</b>" : "");
+        }
+        filesLabel.setText(files.append("</html>").toString());
+    }
+
+    /**
+     * A byte count in the unit that suits the total it is part of
+     */
+    private static String bytes(long bytes, long total) {
+        if (total >= 1024 * 1024) {
+            return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+        }
+        if (total >= 1024) {
+            return String.format("%.1f KB", bytes / 1024.0);
+        }
+        return bytes + " B";
+    }
+
+    /**
+     * Waits for the load off the event thread, publishing the progress each time it looks
+     */
+    private class LoadWorker extends SwingWorker<Map<String, IOException>, LoadProgress> {
+        private final String dataDirectory;
+        private final LoadProgress workerProgress;
+
+        LoadWorker(String dataDirectory, LoadProgress workerProgress) {
+            this.dataDirectory = dataDirectory;
+            this.workerProgress = workerProgress;
+        }
+
+        @Override
+        protected Map<String, IOException> doInBackground() throws Exception {
+            // Reading a snapshot happens on this thread before the future is handed back
+            CompletableFuture<Map<String, IOException>> load = controller.loadDataAsync(dataDirectory, workerProgress);
+            while (true) {
+                try {
+                    return load.get(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    publish(workerProgress);
+                }
+            }
+        }
+
+        @Override
+        protected void process(List<LoadProgress> updates) {
+            // Each update is the same live object, so only the latest look matters
+            showProgress(updates.get(updates.size() - 1));
+        }
+
+        @Override
+        protected void done() {
+            progress = null;
+            showLoading(false);
+            try {
+                Map<String, IOException> errors = get();
+                errors.forEach((file, e) -> System.err.println("Error loading " + file + ": " + e.getMessage()));
+                statusLabel.setText(String.format("Loaded %,d rows in %.1f s%s", workerProgress.getRows(),
+                        workerProgress.getElapsedMillis() / 1000.0,
+                        errors.isEmpty() ? "" : " (" + errors.size() + " files failed: " + errors.keySet() + ")"));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof CancellationException || cause.getCause() instanceof CancellationException) {
+                    statusLabel.setText("Load cancelled; the previous data is still shown");
+                } else {
+                    System.err.println("Error loading data: " + cause);
+                    statusLabel.setText("Load failed: " + cause.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -17,12 +17,20 @@ public class MainView extends JFrame {
     private PrescriptionPanel prescriptionPanel;
     private ReferralPanel referralPanel;
     private StaffPanel staffPanel;
+    private LoadStatusBar statusBar;
+    // Whether each tab's panel has been created yet
+    private boolean[] built;
+    private Timer prefetchTimer;
+
+    private static final String[] TAB_TITLES = {
+            "Patients", "Clinicians", "Facilities", "Appointments", "Prescriptions", "Referrals", "Staff"
+    };
+    // How long the window must be left alone on a tab before the next one is built
+    private static final int PREFETCH_DELAY_MS = 1500;
 
     public MainView(HealthcareController controller) {
         this.controller = controller;
         initializeGUI();
-        // After UI and data are ready, populate all tables once on startup
-        refreshAllPanels();
     }
 
     private void initializeGUI() {
@@ -59,33 +67,24 @@ public class MainView extends JFrame {
         tabbedPane.setFont(tabbedPane.getFont().deriveFont(Font.PLAIN, 14f));
         tabbedPane.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
-        // Create panels for each entity
-        patientPanel = new PatientPanel(controller);
-        clinicianPanel = new ClinicianPanel(controller);
-        facilityPanel = new FacilityPanel(controller);
-        appointmentPanel = new AppointmentPanel(controller);
-        prescriptionPanel = new PrescriptionPanel(controller);
-        referralPanel = new ReferralPanel(controller);
-        staffPanel = new StaffPanel(controller);
-
-        // Add panels to tabs
-        tabbedPane.addTab("Patients", patientPanel);
-        tabbedPane.addTab("Clinicians", clinicianPanel);
-        tabbedPane.addTab("Facilities", facilityPanel);
-        tabbedPane.addTab("Appointments", appointmentPanel);
-        tabbedPane.addTab("Prescriptions", prescriptionPanel);
-        tabbedPane.addTab("Referrals", referralPanel);
-        tabbedPane.addTab("Staff", staffPanel);
+        // Each tab starts empty and gets its panel the first time it is shown
+        for (String title : TAB_TITLES) {
+            tabbedPane.addTab(title, new JPanel(new BorderLayout()));
+        }
+        built = new boolean[TAB_TITLES.length];
+        showTab(tabbedPane.getSelectedIndex());
+        prefetchTimer = new Timer(PREFETCH_DELAY_MS, e -> prefetch());
+        prefetchTimer.setRepeats(false);
+        prefetchTimer.start();
+        tabbedPane.addChangeListener(e -> {
+            showTab(tabbedPane.getSelectedIndex());
+            prefetchTimer.restart();
+        });
 
         add(tabbedPane, BorderLayout.CENTER);
 
-        // Status bar
-        JPanel statusBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        statusBar.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
-        statusBar.setBackground(new Color(250, 250, 250));
-        JLabel statusLabel = new JLabel("Ready");
-        statusLabel.setForeground(new Color(100, 100, 100));
-        statusBar.add(statusLabel);
+        // Status bar, which also shows the progress of a load
+        statusBar = new LoadStatusBar(controller);
         add(statusBar, BorderLayout.SOUTH);
     }
 
@@ -108,25 +107,95 @@ public class MainView extends JFrame {
 
     //load data for csv files
     private void loadData() {
+        if (statusBar.isLoading()) {
+            JOptionPane.showMessageDialog(this, "Data is already being loaded.");
+            return;
+        }
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
         int result = fileChooser.showOpenDialog(this);
         if (result == JFileChooser.APPROVE_OPTION) {
-            String dataDirectory = fileChooser.getSelectedFile().getAbsolutePath();
-            controller.loadData(dataDirectory);
-            refreshAllPanels();
-            JOptionPane.showMessageDialog(this, "Data loaded successfully!");
+            loadData(fileChooser.getSelectedFile().getAbsolutePath());
         }
     }
 
+    /**
+     * Load a data directory in the background, showing progress in the status bar
+     * The window stays usable; the panels show the new data when the reload event reaches them.
+     */
+    public void loadData(String dataDirectory) {
+        statusBar.load(dataDirectory);
+    }
+
+    /**
+     * Build the panel for a tab if it has not been built yet
+     * A new panel shows the current data and from then on follows change events, so tabs
+     * that are never opened cost neither the panel nor its table.
+     */
+    private void showTab(int index) {
+        if (index < 0 || built[index]) {
+            return;
+        }
+        built[index] = true;
+        JPanel panel;
+        switch (index) {
+            case 0:
+                panel = patientPanel = new PatientPanel(controller);
+                patientPanel.refreshData();
+                break;
+            case 1:
+                panel = clinicianPanel = new ClinicianPanel(controller);
+                clinicianPanel.refreshData();
+                break;
+            case 2:
+                panel = facilityPanel = new FacilityPanel(controller);
+                facilityPanel.refreshData();
+                break;
+            case 3:
+                panel = appointmentPanel = new AppointmentPanel(controller);
+                appointmentPanel.refreshData();
+                break;
+            case 4:
+                panel = prescriptionPanel = new PrescriptionPanel(controller);
+                prescriptionPanel.refreshData();
+                break;
+            case 5:
+                panel = referralPanel = new ReferralPanel(controller);
+                referralPanel.refreshData();
+                break;
+            default:
+                panel = staffPanel = new StaffPanel(controller);
+                staffPanel.refreshData();
+                break;
+        }
+        JPanel holder = (JPanel) tabbedPane.getComponentAt(index);
+        holder.add(panel, BorderLayout.CENTER);
+        holder.revalidate();
+    }
+
+    /**
+     * Once the window has been idle on a tab for a while, build the tab most likely to be
+     * opened next: the one to its right, or else the one to its left
+     */
+    private void prefetch() {
+        int selected = tabbedPane.getSelectedIndex();
+        if (selected + 1 < built.length && !built[selected + 1]) {
+            showTab(selected + 1);
+        } else if (selected > 0 && !built[selected - 1]) {
+            showTab(selected - 1);
+        }
+    }
+
+    /**
+     * Reload the tables of the tabs built so far; the others read the data when first shown
+     */
     public void refreshAllPanels() {
-        patientPanel.refreshData();
-        clinicianPanel.refreshData();
-        facilityPanel.refreshData();
-        appointmentPanel.refreshData();
-        prescriptionPanel.refreshData();
-        referralPanel.refreshData();
-        staffPanel.refreshData();
+        if (patientPanel != null) patientPanel.refreshData();
+        if (clinicianPanel != null) clinicianPanel.refreshData();
+        if (facilityPanel != null) facilityPanel.refreshData();
+        if (appointmentPanel != null) appointmentPanel.refreshData();
+        if (prescriptionPanel != null) prescriptionPanel.refreshData();
+        if (referralPanel != null) referralPanel.refreshData();
+        if (staffPanel != null) staffPanel.refreshData();
     }
 }
-
@@ -1,27 +1,43 @@
 package com.healthcare.view;
 
 import com.healthcare.controller.HealthcareController;
+import com.healthcare.data.DataChanges;
+import com.healthcare.data.TableFormat;
 import com.healthcare.model.Patient;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.table.JTableHeader;
 import java.awt.*;
 import java.util.List;
 
+import static com.healthcare.view.EntityTableModel.column;
+
 /**
  * Panel for Patient management (CRUD operations)
  */
 public class PatientPanel extends JPanel {
+    private static final int SEARCH_LIMIT = 50;
+    private static final int SEARCH_DELAY_MS = 150;
+
     private HealthcareController controller;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private EntityTableModel<Patient> tableModel;
+    // Version of the row loaded into the form
+    private long selectedVersion;
+    // ID of the record loaded into the form from the table, null when no row is selected
+    private String selectedID;
     private JTextField patientIDField, firstNameField, lastNameField, dobField, genderField;
     private JTextField nhsNumberField, emailField, phoneField, addressField, postcodeField;
     private JTextField emergencyContactNameField, emergencyContactPhoneField, registrationDateField, gpSurgeryField;
+    private JTextField searchField;
+    private Timer searchTimer;
 
     public PatientPanel(HealthcareController controller) {
         this.controller = controller;
         initializePanel();
+        // Rows are inserted, updated and removed as changes arrive, instead of reloading the table
+        controller.addChangeListener(changes -> SwingUtilities.invokeLater(() -> dataChanged(changes)));
     }
 
     private void initializePanel() {
@@ -32,15 +48,21 @@ public class PatientPanel extends JPanel {
         setBackground(new Color(245, 247, 250));
 
         // Table
-        String[] columns = {"Patient ID", "First Name", "Last Name", "DOB", "Gender", 
-                          "NHS Number", "Email", "Phone", "Address", "Postcode", 
-                          "Emergency Contact", "Emergency Phone", "Registration Date", "GP Surgery"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new EntityTableModel<>(TableFormat.PATIENTS, List.of(
+                column("Patient ID", Patient::getPatientID),
+                column("First Name", Patient::getFirstName),
+                column("Last Name", Patient::getLastName),
+                column("DOB", Patient::getDateOfBirth),
+                column("Gender", Patient::getGender),
+                column("NHS Number", Patient::getNhsNumber),
+                column("Email", Patient::getEmail),
+                column("Phone", Patient::getPhone),
+                column("Address", Patient::getAddress),
+                column("Postcode", Patient::getPostcode),
+                column("Emergency Contact", Patient::getEmergencyContactName),
+                column("Emergency Phone", Patient::getEmergencyContactPhone),
+                column("Registration Date", Patient::getRegistrationDate),
+                column("GP Surgery", Patient::getGpSurgery)));
         table = new JTable(tableModel);
         table.setFillsViewportHeight(true);
         table.setRowHeight(24);
@@ -206,6 +228,30 @@ public class PatientPanel extends JPanel {
         refreshButton.addActionListener(e -> refreshData());
         panel.add(refreshButton);
 
+        // Type-ahead search; the table is refreshed once typing pauses
+        panel.add(new JLabel("Search:"));
+        searchField = new JTextField(20);
+        searchField.setToolTipText("Last name, first name, postcode or NHS number");
+        searchTimer = new Timer(SEARCH_DELAY_MS, e -> refreshData());
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+        });
+        panel.add(searchField);
+
         return panel;
     }
 
@@ -244,7 +290,6 @@ public class PatientPanel extends JPanel {
             Patient patient = createPatientFromForm();
             if (patient != null) {
                 controller.addPatient(patient);
-                refreshData();
                 clearForm();
                 JOptionPane.showMessageDialog(this, "Patient added successfully!");
             }
@@ -265,9 +310,15 @@ public class PatientPanel extends JPanel {
             String patientID = (String) tableModel.getValueAt(selectedRow, 0);
             Patient patient = createPatientFromForm();
             if (patient != null) {
-                controller.deletePatient(patientID);
-                controller.addPatient(patient);
-                refreshData();
+                if (!patientID.equals(patient.getPatientID())) {
+                    JOptionPane.showMessageDialog(this, "The ID cannot be changed; use Add for a new patient.");
+                    return;
+                }
+                patient.setVersion(selectedVersion);
+                if (!controller.updatePatient(patient)) {
+                    JOptionPane.showMessageDialog(this, "This patient no longer exists.");
+                    return;
+                }
                 clearForm();
                 JOptionPane.showMessageDialog(this, "Patient updated successfully!");
             }
@@ -291,7 +342,6 @@ public class PatientPanel extends JPanel {
         if (confirm == JOptionPane.YES_OPTION) {
             String patientID = (String) tableModel.getValueAt(selectedRow, 0);
             controller.deletePatient(patientID);
-            refreshData();
             clearForm();
             JOptionPane.showMessageDialog(this, "Patient deleted successfully!");
         }
@@ -323,7 +373,15 @@ public class PatientPanel extends JPanel {
 
     private void loadSelectedPatient() {
         int selectedRow = table.getSelectedRow();
+        // Rows added or removed by other users move the selection; the form is only reloaded
+        // when a different record is selected, so whatever is being typed is kept
+        String id = selectedRow >= 0 ? (String) tableModel.getValueAt(selectedRow, 0) : null;
+        if (id != null && id.equals(selectedID)) {
+            return;
+        }
+        selectedID = id;
         if (selectedRow >= 0) {
+            selectedVersion = tableModel.getRow(selectedRow).getVersion();
             patientIDField.setText((String) tableModel.getValueAt(selectedRow, 0));
             firstNameField.setText((String) tableModel.getValueAt(selectedRow, 1));
             lastNameField.setText((String) tableModel.getValueAt(selectedRow, 2));
@@ -358,29 +416,24 @@ public class PatientPanel extends JPanel {
         gpSurgeryField.setText("");
     }
 
+    /**
+     * Show every patient, or only the top matches while the search field has text
+     */
     public void refreshData() {
-        tableModel.setRowCount(0);
-        List<Patient> patients = controller.getAllPatients();
-        for (Patient patient : patients) {
-            tableModel.addRow(new Object[]{
-                patient.getPatientID(),
-                patient.getFirstName(),
-                patient.getLastName(),
-                patient.getDateOfBirth(),
-                patient.getGender(),
-                patient.getNhsNumber(),
-                patient.getEmail(),
-                patient.getPhone(),
-                patient.getAddress(),
-                patient.getPostcode(),
-                patient.getEmergencyContactName(),
-                patient.getEmergencyContactPhone(),
-                patient.getRegistrationDate(),
-                patient.getGpSurgery()
-            });
+        String search = searchField.getText().trim();
+        if (search.isEmpty()) {
+            tableModel.refresh(controller.getSnapshot());
+        } else {
+            tableModel.show(controller.searchPatients(search, SEARCH_LIMIT));
         }
     }
-}
-
-
 
+    /**
+     * Search results are not kept up to date row by row; the search is run again instead
+     */
+    private void dataChanged(DataChanges changes) {
+        if (!tableModel.apply(changes)) {
+            refreshData();
+        }
+    }
+}
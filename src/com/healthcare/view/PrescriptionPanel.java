@@ -1,16 +1,22 @@
 package com.healthcare.view;
 
 import com.healthcare.controller.HealthcareController;
+import com.healthcare.data.TableFormat;
 import com.healthcare.model.Prescription;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.util.List;
 
+import static com.healthcare.view.EntityTableModel.column;
+
 public class PrescriptionPanel extends JPanel {
     private HealthcareController controller;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private EntityTableModel<Prescription> tableModel;
+    // Version of the row loaded into the form
+    private long selectedVersion;
+    // ID of the record loaded into the form from the table, null when no row is selected
+    private String selectedID;
     private JTextField prescriptionIDField, patientIDField, clinicianIDField, appointmentIDField, medicationField;
     private JTextField dosageField, frequencyField, durationDaysField, quantityField, pharmacyField;
     private JTextField datePrescribedField, issueDateField, collectionDateField, collectionStatusField, notesField;
@@ -18,20 +24,29 @@ public class PrescriptionPanel extends JPanel {
     public PrescriptionPanel(HealthcareController controller) {
         this.controller = controller;
         initializePanel();
+        // Rows are inserted, updated and removed as changes arrive, instead of reloading the table
+        controller.addChangeListener(changes -> SwingUtilities.invokeLater(() -> tableModel.apply(changes)));
     }
 
     private void initializePanel() {
         setLayout(new BorderLayout(10, 10));
         setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        String[] columns = {"Prescription ID", "Patient ID", "Clinician ID", "Appointment ID", "Medication", 
-                          "Dosage", "Frequency", "Duration Days", "Quantity", "Pharmacy", "Date Prescribed", 
-                          "Issue Date", "Collection Date", "Collection Status", "Notes"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new EntityTableModel<>(TableFormat.PRESCRIPTIONS, List.of(
+                column("Prescription ID", Prescription::getPrescriptionID),
+                column("Patient ID", Prescription::getPatientID),
+                column("Clinician ID", Prescription::getClinicianID),
+                column("Appointment ID", Prescription::getAppointmentID),
+                column("Medication", Prescription::getMedication),
+                column("Dosage", Prescription::getDosage),
+                column("Frequency", Prescription::getFrequency),
+                column("Duration Days", Prescription::getDurationDays),
+                column("Quantity", Prescription::getQuantity),
+                column("Pharmacy", Prescription::getPharmacy),
+                column("Date Prescribed", Prescription::getDatePrescribed),
+                column("Issue Date", Prescription::getIssueDate),
+                column("Collection Date", Prescription::getCollectionDate),
+                column("Collection Status", Prescription::getCollectionStatus),
+                column("Notes", Prescription::getNotes)));
         table = new JTable(tableModel);
         table.setFillsViewportHeight(true);
         table.setRowHeight(24);
@@ -110,7 +125,6 @@ public class PrescriptionPanel extends JPanel {
             Prescription prescription = createPrescriptionFromForm();
             if (prescription != null) {
                 controller.addPrescription(prescription);
-                refreshData();
                 clearForm();
                 JOptionPane.showMessageDialog(this, "Prescription added!");
             }
@@ -127,9 +141,19 @@ public class PrescriptionPanel extends JPanel {
         }
         try {
             String id = (String) tableModel.getValueAt(row, 0);
-            controller.deletePrescription(id);
-            controller.addPrescription(createPrescriptionFromForm());
-            refreshData();
+            Prescription prescription = createPrescriptionFromForm();
+            if (prescription == null) {
+                return;
+            }
+            if (!id.equals(prescription.getPrescriptionID())) {
+                JOptionPane.showMessageDialog(this, "The ID cannot be changed; use Add for a new prescription.");
+                return;
+            }
+            prescription.setVersion(selectedVersion);
+            if (!controller.updatePrescription(prescription)) {
+                JOptionPane.showMessageDialog(this, "This prescription no longer exists.");
+                return;
+            }
             clearForm();
             JOptionPane.showMessageDialog(this, "Prescription updated!");
         } catch (Exception e) {
@@ -146,7 +170,6 @@ public class PrescriptionPanel extends JPanel {
         if (JOptionPane.showConfirmDialog(this, "Delete this prescription?", "Confirm", 
             JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
             controller.deletePrescription((String) tableModel.getValueAt(row, 0));
-            refreshData();
             clearForm();
         }
     }
@@ -166,7 +189,15 @@ public class PrescriptionPanel extends JPanel {
 
     private void loadSelectedPrescription() {
         int row = table.getSelectedRow();
+        // Rows added or removed by other users move the selection; the form is only reloaded
+        // when a different record is selected, so whatever is being typed is kept
+        String id = row >= 0 ? (String) tableModel.getValueAt(row, 0) : null;
+        if (id != null && id.equals(selectedID)) {
+            return;
+        }
+        selectedID = id;
         if (row >= 0) {
+            selectedVersion = tableModel.getRow(row).getVersion();
             prescriptionIDField.setText((String) tableModel.getValueAt(row, 0));
             patientIDField.setText((String) tableModel.getValueAt(row, 1));
             clinicianIDField.setText((String) tableModel.getValueAt(row, 2));
@@ -204,15 +235,6 @@ public class PrescriptionPanel extends JPanel {
     }
 
     public void refreshData() {
-        tableModel.setRowCount(0);
-        for (Prescription p : controller.getAllPrescriptions()) {
-            tableModel.addRow(new Object[]{p.getPrescriptionID(), p.getPatientID(), p.getClinicianID(),
-                p.getAppointmentID(), p.getMedication(), p.getDosage(), p.getFrequency(), p.getDurationDays(),
-                p.getQuantity(), p.getPharmacy(), p.getDatePrescribed(), p.getIssueDate(), p.getCollectionDate(),
-                p.getCollectionStatus(), p.getNotes()});
-        }
+        tableModel.refresh(controller.getSnapshot());
     }
 }
-
-
-
@@ -1,16 +1,22 @@
 package com.healthcare.view;
 
 import com.healthcare.controller.HealthcareController;
+import com.healthcare.data.TableFormat;
 import com.healthcare.model.Referral;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.util.List;
 
+import static com.healthcare.view.EntityTableModel.column;
+
 public class ReferralPanel extends JPanel {
     private HealthcareController controller;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private EntityTableModel<Referral> tableModel;
+    // Version of the row loaded into the form
+    private long selectedVersion;
+    // ID of the record loaded into the form from the table, null when no row is selected
+    private String selectedID;
     private JTextField referralIDField, patientIDField, referringClinicianIDField, receivingClinicianIDField;
     private JTextField referringFacilityField, receivingFacilityField, dateField;
     private JTextField urgencyField, referralReasonField, clinicalSummaryField, investigationsField;
@@ -19,20 +25,30 @@ public class ReferralPanel extends JPanel {
     public ReferralPanel(HealthcareController controller) {
         this.controller = controller;
         initializePanel();
+        // Rows are inserted, updated and removed as changes arrive, instead of reloading the table
+        controller.addChangeListener(changes -> SwingUtilities.invokeLater(() -> tableModel.apply(changes)));
     }
 
     private void initializePanel() {
         setLayout(new BorderLayout(10, 10));
         setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        String[] columns = {"Referral ID", "Patient ID", "Referring Clinician", "Receiving Clinician",
-                          "Referring Facility", "Receiving Facility", "Date", "Urgency", "Referral Reason",
-                          "Clinical Summary", "Investigations", "Appointment ID", "Notes", "Status", "Created", "Last Updated"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new EntityTableModel<>(TableFormat.REFERRALS, List.of(
+                column("Referral ID", Referral::getReferralID),
+                column("Patient ID", Referral::getPatientID),
+                column("Referring Clinician", Referral::getReferringClinicianID),
+                column("Receiving Clinician", Referral::getReceivingClinicianID),
+                column("Referring Facility", Referral::getReferringFacility),
+                column("Receiving Facility", Referral::getReceivingFacility),
+                column("Date", Referral::getDate),
+                column("Urgency", Referral::getUrgency),
+                column("Referral Reason", Referral::getReferralReason),
+                column("Clinical Summary", Referral::getClinicalSummary),
+                column("Investigations", Referral::getRequestedInvestigations),
+                column("Appointment ID", Referral::getAppointmentID),
+                column("Notes", Referral::getNotes),
+                column("Status", Referral::getStatus),
+                column("Created", Referral::getCreatedDate),
+                column("Last Updated", Referral::getLastUpdated)));
         table = new JTable(tableModel);
         table.setFillsViewportHeight(true);
         table.setRowHeight(24);
@@ -113,7 +129,6 @@ public class ReferralPanel extends JPanel {
             Referral referral = createReferralFromForm();
             if (referral != null) {
                 controller.addReferral(referral);
-                refreshData();
                 clearForm();
                 JOptionPane.showMessageDialog(this, "Referral added!");
             }
@@ -130,9 +145,19 @@ public class ReferralPanel extends JPanel {
         }
         try {
             String id = (String) tableModel.getValueAt(row, 0);
-            controller.deleteReferral(id);
-            controller.addReferral(createReferralFromForm());
-            refreshData();
+            Referral referral = createReferralFromForm();
+            if (referral == null) {
+                return;
+            }
+            if (!id.equals(referral.getReferralID())) {
+                JOptionPane.showMessageDialog(this, "The ID cannot be changed; use Add for a new referral.");
+                return;
+            }
+            referral.setVersion(selectedVersion);
+            if (!controller.updateReferral(referral)) {
+                JOptionPane.showMessageDialog(this, "This referral no longer exists.");
+                return;
+            }
             clearForm();
             JOptionPane.showMessageDialog(this, "Referral updated!");
         } catch (Exception e) {
@@ -149,7 +174,6 @@ public class ReferralPanel extends JPanel {
         if (JOptionPane.showConfirmDialog(this, "Delete this referral?", "Confirm", 
             JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
             controller.deleteReferral((String) tableModel.getValueAt(row, 0));
-            refreshData();
             clearForm();
         }
     }
@@ -162,10 +186,7 @@ public class ReferralPanel extends JPanel {
         }
 
         String referralID = (String) tableModel.getValueAt(row, 0);
-        Referral referral = controller.getAllReferrals().stream()
-            .filter(r -> r.getReferralID().equals(referralID))
-            .findFirst()
-            .orElse(null);
+        Referral referral = controller.findReferral(referralID);
 
         if (referral != null) {
             JFileChooser fileChooser = new JFileChooser();
@@ -196,7 +217,15 @@ public class ReferralPanel extends JPanel {
 
     private void loadSelectedReferral() {
         int row = table.getSelectedRow();
+        // Rows added or removed by other users move the selection; the form is only reloaded
+        // when a different record is selected, so whatever is being typed is kept
+        String id = row >= 0 ? (String) tableModel.getValueAt(row, 0) : null;
+        if (id != null && id.equals(selectedID)) {
+            return;
+        }
+        selectedID = id;
         if (row >= 0) {
+            selectedVersion = tableModel.getRow(row).getVersion();
             referralIDField.setText((String) tableModel.getValueAt(row, 0));
             patientIDField.setText((String) tableModel.getValueAt(row, 1));
             referringClinicianIDField.setText((String) tableModel.getValueAt(row, 2));
@@ -236,16 +265,6 @@ public class ReferralPanel extends JPanel {
     }
 
     public void refreshData() {
-        tableModel.setRowCount(0);
-        for (Referral r : controller.getAllReferrals()) {
-            tableModel.addRow(new Object[]{r.getReferralID(), r.getPatientID(), r.getReferringClinicianID(),
-                r.getReceivingClinicianID(), r.getReferringFacility(), r.getReceivingFacility(),
-                r.getDate(), r.getUrgency(), r.getReferralReason(), r.getClinicalSummary(),
-                r.getRequestedInvestigations(), r.getAppointmentID(), r.getNotes(), r.getStatus(),
-                r.getCreatedDate(), r.getLastUpdated()});
-        }
+        tableModel.refresh(controller.getSnapshot());
     }
 }
-
-
-
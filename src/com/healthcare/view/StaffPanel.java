@@ -1,16 +1,22 @@
 package com.healthcare.view;
 
 import com.healthcare.controller.HealthcareController;
+import com.healthcare.data.TableFormat;
 import com.healthcare.model.Staff;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.util.List;
 
+import static com.healthcare.view.EntityTableModel.column;
+
 public class StaffPanel extends JPanel {
     private HealthcareController controller;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private EntityTableModel<Staff> tableModel;
+    // Version of the row loaded into the form
+    private long selectedVersion;
+    // ID of the record loaded into the form from the table, null when no row is selected
+    private String selectedID;
     private JTextField staffIDField, firstNameField, lastNameField, roleField, departmentField;
     private JTextField facilityIDField, emailField, phoneField, employmentStatusField;
     private JTextField startDateField, lineManagerField, accessLevelField;
@@ -18,19 +24,26 @@ public class StaffPanel extends JPanel {
     public StaffPanel(HealthcareController controller) {
         this.controller = controller;
         initializePanel();
+        // Rows are inserted, updated and removed as changes arrive, instead of reloading the table
+        controller.addChangeListener(changes -> SwingUtilities.invokeLater(() -> tableModel.apply(changes)));
     }
 
     private void initializePanel() {
         setLayout(new BorderLayout(10, 10));
         setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        String[] columns = {"Staff ID", "First Name", "Last Name", "Role", "Department", "Facility ID", 
-                          "Email", "Phone", "Employment Status", "Start Date", "Line Manager", "Access Level"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new EntityTableModel<>(TableFormat.STAFF, List.of(
+                column("Staff ID", Staff::getStaffID),
+                column("First Name", Staff::getFirstName),
+                column("Last Name", Staff::getLastName),
+                column("Role", Staff::getRole),
+                column("Department", Staff::getDepartment),
+                column("Facility ID", Staff::getFacilityID),
+                column("Email", Staff::getEmail),
+                column("Phone", Staff::getPhone),
+                column("Employment Status", Staff::getEmploymentStatus),
+                column("Start Date", Staff::getStartDate),
+                column("Line Manager", Staff::getLineManager),
+                column("Access Level", Staff::getAccessLevel)));
         table = new JTable(tableModel);
         table.setFillsViewportHeight(true);
         table.setRowHeight(24);
@@ -106,7 +119,6 @@ public class StaffPanel extends JPanel {
             Staff staff = createStaffFromForm();
             if (staff != null) {
                 controller.addStaff(staff);
-                refreshData();
                 clearForm();
                 JOptionPane.showMessageDialog(this, "Staff added!");
             }
@@ -123,9 +135,19 @@ public class StaffPanel extends JPanel {
         }
         try {
             String id = (String) tableModel.getValueAt(row, 0);
-            controller.deleteStaff(id);
-            controller.addStaff(createStaffFromForm());
-            refreshData();
+            Staff staffMember = createStaffFromForm();
+            if (staffMember == null) {
+                return;
+            }
+            if (!id.equals(staffMember.getStaffID())) {
+                JOptionPane.showMessageDialog(this, "The ID cannot be changed; use Add for a new staff member.");
+                return;
+            }
+            staffMember.setVersion(selectedVersion);
+            if (!controller.updateStaff(staffMember)) {
+                JOptionPane.showMessageDialog(this, "This staff member no longer exists.");
+                return;
+            }
             clearForm();
             JOptionPane.showMessageDialog(this, "Staff updated!");
         } catch (Exception e) {
@@ -142,7 +164,6 @@ public class StaffPanel extends JPanel {
         if (JOptionPane.showConfirmDialog(this, "Delete this staff member?", "Confirm", 
             JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
             controller.deleteStaff((String) tableModel.getValueAt(row, 0));
-            refreshData();
             clearForm();
         }
     }
@@ -161,7 +182,15 @@ public class StaffPanel extends JPanel {
 
     private void loadSelectedStaff() {
         int row = table.getSelectedRow();
+        // Rows added or removed by other users move the selection; the form is only reloaded
+        // when a different record is selected, so whatever is being typed is kept
+        String id = row >= 0 ? (String) tableModel.getValueAt(row, 0) : null;
+        if (id != null && id.equals(selectedID)) {
+            return;
+        }
+        selectedID = id;
         if (row >= 0) {
+            selectedVersion = tableModel.getRow(row).getVersion();
             staffIDField.setText((String) tableModel.getValueAt(row, 0));
             firstNameField.setText((String) tableModel.getValueAt(row, 1));
             lastNameField.setText((String) tableModel.getValueAt(row, 2));
@@ -193,14 +222,6 @@ public class StaffPanel extends JPanel {
     }
 
     public void refreshData() {
-        tableModel.setRowCount(0);
-        for (Staff s : controller.getAllStaff()) {
-            tableModel.addRow(new Object[]{s.getStaffID(), s.getFirstName(), s.getLastName(),
-                s.getRole(), s.getDepartment(), s.getFacilityID(), s.getEmail(), s.getPhone(),
-                s.getEmploymentStatus(), s.getStartDate(), s.getLineManager(), s.getAccessLevel()});
-        }
+        tableModel.refresh(controller.getSnapshot());
     }
 }
-
-
-
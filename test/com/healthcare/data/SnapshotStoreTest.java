@@ -0,0 +1,96 @@
+package com.healthcare.data;
+
+import com.healthcare.model.Patient;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Checks that a damaged snapshot is set aside and the data loaded from the CSV files
+ * Run with the data directory holding the sample CSV files as the argument, "data" by default.
+ */
+public class SnapshotStoreTest {
+
+    public static void main(String[] args) throws Exception {
+        Path source = Path.of(args.length > 0 ? args[0] : "data");
+        // The middle of the group, and the length of its first value so decoding would overrun
+        corruptGroupFallsBackToCsv(source, 0.5);
+        corruptGroupFallsBackToCsv(source, 0.0);
+        System.out.println("SnapshotStoreTest passed");
+    }
+
+    private static void corruptGroupFallsBackToCsv(Path source, double at) throws Exception {
+        Path dir = copyCsvFiles(source);
+        Path snapshot = dir.resolve(SnapshotStore.FILE_NAME);
+
+        DataManager first = new DataManager();
+        first.loadAllDataParallel(dir.toString()).join();
+        List<Patient> expected = first.getPatients();
+        awaitFile(snapshot);
+        check(new SnapshotStore(dir).isFresh(), "snapshot written after a clean load is fresh");
+
+        flipByteInPatientGroup(snapshot, at);
+
+        DataManager second = new DataManager();
+        check(second.loadAllDataParallel(dir.toString()).join().isEmpty(), "load reports no errors");
+        check(second.getPatients().size() == expected.size(), "every patient loaded from the CSV files");
+        for (Patient patient : expected) {
+            check(second.findPatient(patient.getPatientID()) != null, "patient " + patient.getPatientID() + " loaded");
+        }
+        check(Files.exists(dir.resolve(SnapshotStore.CORRUPT_FILE_NAME)), "corrupt snapshot moved aside");
+
+        // The CSV load writes a new snapshot, which the next start reads
+        awaitFile(snapshot);
+        DataManager third = new DataManager();
+        third.loadAllDataParallel(dir.toString()).join();
+        check(third.getPatients().size() == expected.size(), "next start loads every patient");
+    }
+
+    /**
+     * Invert one byte of the first row group of the patients table, the first table in
+     * the file, at the given fraction of the group past its encoding byte
+     */
+    private static void flipByteInPatientGroup(Path snapshot, double at) throws IOException {
+        int nameLength = TableFormat.PATIENTS.getFileName().getBytes(StandardCharsets.UTF_8).length;
+        // magic, version, table count, size and time per CSV file
+        long tableStart = 12 + 16L * TableFormat.ALL.size();
+        // name length, name, columns, rows, then the group's row count
+        long groupSizeAt = tableStart + 4 + nameLength + 4 + 8 + 4;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            channel.read(buffer, groupSizeAt);
+            int groupSize = buffer.flip().getInt();
+            long target = groupSizeAt + 4 + 8 + 1 + (long) ((groupSize - 1) * at);
+            ByteBuffer one = ByteBuffer.allocate(1);
+            channel.read(one, target);
+            one.put(0, (byte) ~one.get(0)).rewind();
+            channel.write(one, target);
+        }
+    }
+
+    private static Path copyCsvFiles(Path source) throws IOException {
+        Path dir = Files.createTempDirectory("snapshot-test");
+        for (TableFormat<?> format : TableFormat.ALL) {
+            Files.copy(source.resolve(format.getFileName()), dir.resolve(format.getFileName()));
+        }
+        return dir;
+    }
+
+    private static void awaitFile(Path file) throws InterruptedException {
+        for (int i = 0; i < 100 && !Files.exists(file); i++) {
+            Thread.sleep(50);
+        }
+        check(Files.exists(file), file.getFileName() + " written");
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + what);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.healthcare.data;
+
+import com.healthcare.model.Patient;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that a batch logged in several pieces is replayed whole or not at all when a
+ * later piece cannot be written
+ */
+public class WriteAheadLogTest {
+    // Enough rows of about 1 KB for the batch to be written in three pieces
+    private static final int BATCH_ROWS = 2500;
+    private static final long DISK_SIZE = 1536 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        committedBatchIsReplayed();
+        failedPieceDropsWholeBatch(false);
+        failedPieceDropsWholeBatch(true);
+        System.out.println("WriteAheadLogTest passed");
+    }
+
+    private static void committedBatchIsReplayed() throws Exception {
+        Path dir = Files.createTempDirectory("wal-test");
+        try (WriteAheadLog log = WriteAheadLog.open(dir, new Replayed())) {
+            log.logAddAll(TableFormat.PATIENTS, patients("B", BATCH_ROWS));
+        }
+        check(replay(dir).size() == BATCH_ROWS, "every row of a committed batch replayed");
+    }
+
+    /**
+     * The disk fills up part way through the batch, after its first piece is on disk. If
+     * the log cannot cut the failed write back either, the pieces left in the file stand
+     * for a crash part way through the batch.
+     */
+    private static void failedPieceDropsWholeBatch(boolean truncateFails) throws Exception {
+        Path dir = Files.createTempDirectory("wal-test");
+        WriteAheadLog log = WriteAheadLog.open(dir, new Replayed());
+        FailingChannel channel = FailingChannel.install(log);
+        channel.truncateFails = truncateFails;
+        channel.spaceLeft = DISK_SIZE;
+        log.logAdd(TableFormat.PATIENTS, patient("BEFORE"));
+
+        try {
+            log.logAddAll(TableFormat.PATIENTS, patients("B", BATCH_ROWS));
+            throw new AssertionError("Failed: batch larger than the disk was accepted");
+        } catch (UncheckedIOException expected) {
+            // the batch is refused as a whole
+        }
+        check(channel.firstWriteCompleted, "first piece written before the disk filled");
+
+        channel.spaceLeft = Long.MAX_VALUE;
+        boolean acceptedAfter;
+        try {
+            log.logAdd(TableFormat.PATIENTS, patient("AFTER"));
+            acceptedAfter = true;
+        } catch (UncheckedIOException stopped) {
+            acceptedAfter = false;
+        }
+        check(acceptedAfter == !truncateFails, "log carries on only if the failed write was cut back");
+        log.close();
+
+        Set<String> replayed = replay(dir);
+        check(replayed.contains("BEFORE"), "row logged before the batch replayed");
+        check(replayed.contains("AFTER") == acceptedAfter, "row logged after the batch replayed if accepted");
+        check(replayed.size() == (acceptedAfter ? 2 : 1), "no row of the failed batch replayed, got "
+                + replayed.size() + " rows");
+    }
+
+    private static Set<String> replay(Path dir) throws IOException {
+        Replayed replayed = new Replayed();
+        WriteAheadLog.open(dir, replayed).close();
+        return replayed.ids;
+    }
+
+    private static List<Patient> patients(String prefix, int count) {
+        List<Patient> patients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            patients.add(patient(prefix + i));
+        }
+        return patients;
+    }
+
+    private static Patient patient(String id) {
+        String address = "x".repeat(1000);
+        return TableFormat.PATIENTS.parse(new CsvRecord() {
+            @Override
+            public int fieldCount() {
+                return TableFormat.PATIENTS.getColumnCount();
+            }
+
+            @Override
+            public String field(int index) {
+                return index == 0 ? id : index == 8 ? address : "x";
+            }
+        });
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + what);
+        }
+    }
+
+    /**
+     * Collects the IDs of the patients added on replay
+     */
+    private static class Replayed implements WriteAheadLog.ReplayHandler {
+        private final Set<String> ids = new HashSet<>();
+
+        @Override
+        public void add(TableFormat<?> format, CsvRecord fields) {
+            ids.add(fields.field(0));
+        }
+
+        @Override
+        public void delete(TableFormat<?> format, String id) {
+            ids.remove(id);
+        }
+
+        @Override
+        public void update(TableFormat<?> format, CsvRecord fields) {
+            ids.add(fields.field(0));
+        }
+    }
+
+    /**
+     * A log file on a disk that holds only so many bytes and, if asked, cannot truncate
+     * The first write is held back a little so the later pieces of a batch queue up behind
+     * it and go to disk in a separate write.
+     */
+    private static class FailingChannel extends FileChannel {
+        private final FileChannel file;
+        private volatile long spaceLeft = Long.MAX_VALUE;
+        private volatile boolean truncateFails;
+        private volatile boolean firstWriteCompleted;
+        private boolean slowed;
+
+        private FailingChannel(FileChannel file) {
+            this.file = file;
+        }
+
+        static FailingChannel install(WriteAheadLog log) throws ReflectiveOperationException {
+            Field field = WriteAheadLog.class.getDeclaredField("channel");
+            field.setAccessible(true);
+            FailingChannel channel = new FailingChannel((FileChannel) field.get(log));
+            field.set(log, channel);
+            return channel;
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+            if (!slowed && file.position() > 0) {
+                slowed = true;
+                sleep();
+            }
+            long written = 0;
+            for (int i = offset; i < offset + length; i++) {
+                ByteBuffer source = sources[i];
+                long room = spaceLeft - file.position();
+                if (room < source.remaining()) {
+                    if (room > 0) {
+                        ByteBuffer part = source.duplicate();
+                        part.limit(part.position() + (int) room);
+                        file.write(part);
+                        source.position(part.position());
+                    }
+                    throw new IOException("No space left on device");
+                }
+                written += file.write(source);
+            }
+            if (file.position() > 1 << 20) {
+                firstWriteCompleted = true;
+            }
+            return written;
+        }
+
+        private static void sleep() {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            return (int) write(new ByteBuffer[] {source}, 0, 1);
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            if (truncateFails) {
+                throw new IOException("Truncate failed");
+            }
+            file.truncate(size);
+            return this;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            return file.read(destination);
+        }
+
+        @Override
+        public long read(ByteBuffer[] destinations, int offset, int length) throws IOException {
+            return file.read(destinations, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return file.position();
+        }
+
+        @Override
+        public FileChannel position(long position) throws IOException {
+            file.position(position);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return file.size();
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            file.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return file.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+            return file.transferFrom(source, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer destination, long position) throws IOException {
+            return file.read(destination, position);
+        }
+
+        @Override
+        public int write(ByteBuffer source, long position) throws IOException {
+            return file.write(source, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return file.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return file.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return file.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            file.close();
+        }
+    }
+}
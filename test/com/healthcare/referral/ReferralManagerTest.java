@@ -0,0 +1,111 @@
+package com.healthcare.referral;
+
+import com.healthcare.data.CsvRecord;
+import com.healthcare.data.DataManager;
+import com.healthcare.data.TableFormat;
+import com.healthcare.model.Referral;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Checks that each stored referral is processed once, including one re-added after a
+ * delete or edited after a reload
+ * Run with the data directory holding the sample CSV files as the argument, "data" by default.
+ */
+public class ReferralManagerTest {
+
+    public static void main(String[] args) throws Exception {
+        Path source = Path.of(args.length > 0 ? args[0] : "data");
+        reAddAfterDeleteIsProcessed(source);
+        editAfterReloadIsProcessed(source);
+        System.out.println("ReferralManagerTest passed");
+    }
+
+    private static void reAddAfterDeleteIsProcessed(Path source) throws IOException {
+        ReferralManager referrals = ReferralManager.getInstance();
+        DataManager data = new DataManager();
+        data.loadAllData(copyCsvFiles(source).toString());
+        referrals.clearAuditTrail();
+        long duplicates = referrals.getDuplicateCount();
+
+        data.addReferral(referral("RX-DELETE", "First referral"), referrals::addToQueue);
+        referrals.processQueue();
+        check(referrals.getEmailCommunications().size() == 1, "first referral emailed");
+
+        check(data.deleteReferral("RX-DELETE"), "referral deleted");
+        data.addReferral(referral("RX-DELETE", "Second referral"), referrals::addToQueue);
+        referrals.processQueue();
+        check(referrals.getDuplicateCount() == duplicates, "re-added referral not taken for a duplicate");
+        check(referrals.getEmailCommunications().size() == 2, "re-added referral emailed");
+        check(referrals.getEmailCommunications().get(1).contains("RX-DELETE"), "email is for the re-added referral");
+
+        // The same stored version queued again is still a duplicate
+        referrals.addToQueue(data.findReferral("RX-DELETE"));
+        referrals.processQueue();
+        check(referrals.getDuplicateCount() == duplicates + 1, "same version queued twice counted as a duplicate");
+        check(referrals.getEmailCommunications().size() == 2, "same version emailed once");
+    }
+
+    private static void editAfterReloadIsProcessed(Path source) throws IOException {
+        ReferralManager referrals = ReferralManager.getInstance();
+        String directory = copyCsvFiles(source).toString();
+        DataManager data = new DataManager();
+        data.loadAllData(directory);
+        referrals.clearAuditTrail();
+        long duplicates = referrals.getDuplicateCount();
+        String id = data.getReferrals().get(0).getReferralID();
+
+        check(data.updateReferral(edit(data.findReferral(id), "Before reload"), referrals::addToQueue),
+                "referral updated");
+        referrals.processQueue();
+        check(referrals.getEmailCommunications().size() == 1, "edit emailed");
+
+        data.loadAllData(directory);
+        check(data.updateReferral(edit(data.findReferral(id), "After reload"), referrals::addToQueue),
+                "referral updated after reload");
+        referrals.processQueue();
+        check(referrals.getDuplicateCount() == duplicates, "edit after reload not taken for a duplicate");
+        check(referrals.getEmailCommunications().size() == 2, "edit after reload emailed");
+    }
+
+    private static Referral referral(String id, String summary) {
+        return new Referral(id, "P001", "C001", "C005", "S001", "H001", "2025-10-01", "Routine", summary, "Pending");
+    }
+
+    /**
+     * A new object with the stored referral's fields and version and a different summary
+     */
+    private static Referral edit(Referral stored, String summary) {
+        Referral copy = TableFormat.REFERRALS.parse(new CsvRecord() {
+            private final String[] fields = TableFormat.REFERRALS.format(stored);
+
+            @Override
+            public int fieldCount() {
+                return fields.length;
+            }
+
+            @Override
+            public String field(int index) {
+                return fields[index];
+            }
+        });
+        copy.setClinicalSummary(summary);
+        copy.setVersion(stored.getVersion());
+        return copy;
+    }
+
+    private static Path copyCsvFiles(Path source) throws IOException {
+        Path dir = Files.createTempDirectory("referral-test");
+        for (TableFormat<?> format : TableFormat.ALL) {
+            Files.copy(source.resolve(format.getFileName()), dir.resolve(format.getFileName()));
+        }
+        return dir;
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            throw new AssertionError("Failed: " + what);
+        }
+    }
+}